@@ -0,0 +1,215 @@
+import metrics.Metrics;
+import models.Business;
+import models.BusinessJournal;
+import models.BusinessStore;
+import models.UserInfoDB;
+import models.UserInfoStore;
+import play.Application;
+import play.Configuration;
+import play.GlobalSettings;
+import play.api.mvc.EssentialFilter;
+import play.Logger;
+import play.db.DB;
+import play.filters.csrf.CSRFFilter;
+import play.filters.gzip.GzipFilter;
+import services.AdmissionControl;
+import services.ConcurrencyLimiter;
+import services.GroupCommitWriter;
+import services.PageCache;
+import services.PasswordHasher;
+import services.PasswordPolicy;
+import services.SessionToken;
+import services.TokenBucketLimiter;
+import services.VerifiedCredentialCache;
+import services.WorkerPool;
+import services.WriteBehindLog;
+import views.IndexRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Configures the application's services from application.conf when the application starts,
+ * and creates the controllers that are routed with an @, handing them their worker pools.
+ */
+public class Global extends GlobalSettings {
+
+  /** Controller instances by class, created in onStart. */
+  private static final Map<Class<?>, Object> controllerInstances = new ConcurrentHashMap<>();
+
+  /** The render pool, shut down in onStop. The hashing pool belongs to PasswordHasher. */
+  private static WorkerPool render;
+
+  /** Applies database writes while persistence is on, otherwise null. */
+  private static GroupCommitWriter writer;
+
+  /** Holds business changes until the database has them, while write-behind is on, otherwise null. */
+  private static WriteBehindLog journal;
+
+  @Override
+  public void onStart(Application app) {
+    Configuration config = app.configuration();
+    Integer logRounds = config.getInt("password.logRounds");
+    if (logRounds != null) {
+      PasswordPolicy.setLogRounds(logRounds);
+    }
+    else {
+      PasswordPolicy.calibrate(config.getMilliseconds("password.targetLatency", 50L));
+    }
+    int cores = Runtime.getRuntime().availableProcessors();
+    PasswordHasher.configure(pool(config, "hashing", "password-hasher", cores, 0));
+    render = pool(config, "render", "render", cores, 1024);
+    boolean streaming = config.getBoolean("pages.streaming", false);
+    if (streaming) {
+      IndexRenderer.init();
+    }
+    controllerInstances.put(controllers.Application.class, new controllers.Application(render, streaming));
+
+    VerifiedCredentialCache.configure(
+      config.getBoolean("credentials.cache.enabled", false),
+      config.getMilliseconds("credentials.cache.ttl", 60000L),
+      config.getInt("credentials.cache.size", 10000));
+    SessionToken.configure(config.getString("application.secret"), config.getMilliseconds("session.ttl", 43200000L));
+    PageCache.configure(
+      config.getBoolean("pages.cache.enabled", false),
+      config.getMilliseconds("pages.cache.ttl", 3600000L));
+    long idleMillis = config.getMilliseconds("admission.idleTimeout", 600000L);
+    AdmissionControl.configure(
+      config.getBoolean("admission.enabled", false),
+      new TokenBucketLimiter(config.getInt("admission.perIp.burst", 20),
+          config.getDouble("admission.perIp.perSecond", 2.0), idleMillis),
+      new TokenBucketLimiter(config.getInt("admission.perName.burst", 5),
+          config.getDouble("admission.perName.perSecond", 0.2), idleMillis),
+      new ConcurrencyLimiter(config.getInt("admission.concurrency.initial", 2 * cores),
+          config.getInt("admission.concurrency.min", 1),
+          config.getInt("admission.concurrency.max", 16 * cores),
+          config.getDouble("admission.concurrency.tolerance", 2.0)));
+
+    UserInfoDB.configureFilter(config.getLong("users.filter.expected", 10000000L),
+        config.getDouble("users.filter.falsePositiveRate", 0.01));
+
+    if (config.getBoolean("persistence.enabled", false)) {
+      GroupCommitWriter newWriter = new GroupCommitWriter(DB.getDataSource(), config.getInt("persistence.batchSize", 256));
+      BusinessStore store = new BusinessStore(DB.getDataSource(), newWriter, Business.getRepository()::get);
+      Business.attach(store);
+      UserInfoDB.attach(new UserInfoStore(DB.getDataSource(), newWriter, UserInfoDB::getStored));
+      Metrics.gauge("db_write_queue_depth", "Writes waiting for the next group commit.", newWriter::getQueueDepth);
+      writer = newWriter;
+
+      if (config.getBoolean("persistence.writeBehind.enabled", false)) {
+        try {
+          File dir = new File(config.getString("persistence.writeBehind.dir", "db/write-behind"));
+          journal = WriteBehindLog.open(dir.isAbsolute() ? dir : app.getFile(dir.getPath()),
+              config.getBytes("persistence.writeBehind.segmentSize", 8L * 1024 * 1024).intValue(),
+              config.getInt("persistence.writeBehind.maxSegments", 16),
+              config.getInt("persistence.batchSize", 256),
+              new BusinessJournal(store));
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException("Couldn't open the write-behind log", e);
+        }
+        Business.attachJournal(journal);
+        journal.start();
+        Metrics.gauge("write_behind_backlog_bytes", "Bytes of business changes not in the database yet.", journal::getBacklogBytes);
+        Metrics.counter("write_behind_quarantined_total", "Business changes the database refused for good.", journal::getQuarantined);
+      }
+    }
+
+    // After persistence is attached, so a user seeded on an earlier start is known and a new one is stored.
+    List<Configuration> users = config.getConfigList("auth.users");
+    if (users != null) {
+      for (Configuration user : users) {
+        seedUser(user);
+      }
+    }
+
+    PasswordHasher.getPool().registerMetrics("password_hasher");
+    render.registerMetrics("render_pool");
+    Metrics.gauge("bcrypt_log_rounds", "The BCrypt cost used for new hashes.", PasswordPolicy::getLogRounds);
+    Metrics.counter("credential_cache_hits_total", "Verifications answered by the credential cache.", VerifiedCredentialCache::getHits);
+    Metrics.counter("credential_cache_misses_total", "Verifications that fell back to BCrypt.", VerifiedCredentialCache::getMisses);
+    Metrics.counter("credential_cache_evictions_total", "Credential cache entries dropped to stay within its size.", VerifiedCredentialCache::getEvictions);
+    Metrics.counter("page_cache_hits_total", "Index pages served from the page cache.", PageCache::getHits);
+    Metrics.counter("page_cache_misses_total", "Index pages that had to be rendered.", PageCache::getMisses);
+    Metrics.counter("user_filter_negatives_total", "Signup checks answered by the email filter alone.", UserInfoDB::getFilterNegatives);
+    Metrics.counter("user_filter_false_positives_total", "Emails the filter took for known that weren't.", UserInfoDB::getFilterFalsePositives);
+    Metrics.counter("admission_ip_rejections_total", "Requests over their client's rate limit.", AdmissionControl::getIpRejections);
+    Metrics.counter("admission_name_rejections_total", "Requests over their name's rate limit.", AdmissionControl::getNameRejections);
+    Metrics.counter("admission_concurrency_rejections_total", "Requests over the concurrency limit.",
+        () -> AdmissionControl.getConcurrency().getRejected());
+    Metrics.gauge("admission_concurrency_limit", "Requests allowed in flight at once.", () -> AdmissionControl.getConcurrency().getLimit());
+    Metrics.gauge("admission_in_flight", "Admitted requests in flight.", () -> AdmissionControl.getConcurrency().getInFlight());
+  }
+
+  /**
+   * Checks the CSRF token of form posts, e.g. the index page's save and delete, and compresses dynamic
+   * responses, e.g. index pages with flash messages, for clients accepting gzip.
+   * Responses that are already encoded, such as cached pages and precompressed assets, are left alone.
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T extends EssentialFilter> Class<T>[] filters() {
+    return new Class[] {CSRFFilter.class, GzipFilter.class};
+  }
+
+  /**
+   * Signs up a user listed under auth.users, unless their email is already taken.
+   * @param user The entry, with a name, an email and a password.
+   */
+  private static void seedUser(Configuration user) {
+    String email = user.getString("email");
+    String password = user.getString("password");
+    if (email == null || password == null || password.isEmpty()) {
+      Logger.warn("Skipping an auth.users entry without an email and a password");
+    }
+    else if (UserInfoDB.addUserInfo(user.getString("name", email), email, password)) {
+      Logger.info("Signed up " + email + " from auth.users");
+    }
+  }
+
+  @Override
+  public <A> A getControllerInstance(Class<A> controllerClass) throws Exception {
+    Object controller = controllerInstances.get(controllerClass);
+    return (controller != null) ? controllerClass.cast(controller) : super.getControllerInstance(controllerClass);
+  }
+
+  /**
+   * Creates a worker pool from its section under contexts in application.conf.
+   * @param config The configuration.
+   * @param context The name of the section.
+   * @param name Names the pool's threads.
+   * @param defaultThreads The number of threads if not configured; a configured 0 also means one per core.
+   * @param defaultQueueCapacity The queue capacity if not configured; 0 means 16 per thread.
+   * @return The pool.
+   */
+  private static WorkerPool pool(Configuration config, String context, String name, int defaultThreads, int defaultQueueCapacity) {
+    int threads = config.getInt("contexts." + context + ".threads", defaultThreads);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    int queueCapacity = config.getInt("contexts." + context + ".queueCapacity", defaultQueueCapacity);
+    return new WorkerPool(name, threads, (queueCapacity <= 0) ? threads * 16 : queueCapacity);
+  }
+
+  @Override
+  public void onStop(Application app) {
+    controllerInstances.clear();
+    render.shutdown();
+    if (writer != null) {
+      Business.detach();
+      UserInfoDB.detach();
+      if (journal != null) {
+        // What the log has not drained yet is replayed on the next start.
+        journal.close(10000);
+        journal = null;
+      }
+      // Commit the writes still queued while the connection pool is open.
+      writer.close(10000);
+      writer = null;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package controllers;
+
+import play.libs.F.Promise;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+import services.AdmissionControl;
+import services.ConcurrencyLimiter;
+import views.formdata.FormPrecheck;
+
+import java.util.Map;
+
+/**
+ * The action composition behind Admitted. A rejection sets two headers and a short constant body,
+ * and runs none of the action. An admitted request holds its place in the ConcurrencyLimiter until
+ * its promise completes, so asynchronous work on the hashing pool counts for as long as it runs.
+ */
+public class AdmissionAction extends Action<Admitted> {
+
+  private static final String RATE_LIMITED = "Too many requests, please retry later.";
+  private static final String BUSY = "Too many signups in progress, please retry shortly.";
+
+  @Override
+  public Promise<Result> call(Http.Context ctx) throws Throwable {
+    if (!AdmissionControl.isEnabled()) {
+      return delegate.call(ctx);
+    }
+    long retryAfter = AdmissionControl.checkRate(ctx.request().remoteAddress(), field(ctx, configuration.value()));
+    if (retryAfter > 0) {
+      return tooManyRequests(ctx, retryAfter, RATE_LIMITED);
+    }
+    final ConcurrencyLimiter limiter = AdmissionControl.getConcurrency();
+    if (!limiter.tryAcquire()) {
+      return tooManyRequests(ctx, 1, BUSY);
+    }
+    final long start = System.nanoTime();
+    Promise<Result> result;
+    try {
+      result = delegate.call(ctx);
+    }
+    catch (Throwable t) {
+      limiter.release(start, false);
+      throw t;
+    }
+    // A 503 means the work was turned away further on, by a full pool or a backlogged database.
+    result.onRedeem(r -> limiter.release(start, r.toScala().header().status() == SERVICE_UNAVAILABLE));
+    result.onFailure(t -> limiter.release(start, false));
+    return result;
+  }
+
+  private static Promise<Result> tooManyRequests(Http.Context ctx, long retryAfterSeconds, String message) {
+    ctx.response().setHeader(RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    return Promise.<Result>pure(status(TOO_MANY_REQUESTS, message));
+  }
+
+  /**
+   * @return The first value of the form field, whether the body was parsed as a form or kept raw,
+   * or null if there is none or the body isn't a form.
+   */
+  private static String field(Http.Context ctx, String name) {
+    if (name.isEmpty()) {
+      return null;
+    }
+    Http.RequestBody body = ctx.request().body();
+    Http.RawBuffer raw = body.asRaw();
+    if (raw != null) {
+      return FormPrecheck.find(raw.asBytes(), name);
+    }
+    Map<String, String[]> form = body.asFormUrlEncoded();
+    String[] values = (form == null) ? null : form.get(name);
+    return (values == null || values.length == 0) ? null : values[0];
+  }
+}
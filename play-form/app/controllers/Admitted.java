@@ -0,0 +1,22 @@
+package controllers;
+
+import play.mvc.With;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a CPU-heavy controller action behind AdmissionControl: requests over a limit get 429 with Retry-After.
+ */
+@With(AdmissionAction.class)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Admitted {
+
+  /**
+   * @return The form field whose value is rate limited on its own, e.g. "name", or "" for none.
+   */
+  String value() default "";
+}
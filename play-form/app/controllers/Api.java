@@ -0,0 +1,317 @@
+package controllers;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import metrics.Metrics;
+import metrics.Timed;
+import models.Business;
+import models.BusinessRepository;
+import play.data.validation.ValidationError;
+import play.libs.F.Promise;
+import play.mvc.BodyParser;
+import play.mvc.Controller;
+import play.mvc.Http.RawBuffer;
+import play.mvc.Result;
+import play.mvc.Security;
+import services.BusinessJson;
+import services.PageCache;
+import services.PasswordHasher;
+import views.formdata.BusinessFormData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The controller for the JSON API over businesses, beside the HTML form.
+ * Bodies are validated by BusinessFormData and converted by Business.makeInstance, as for the form.
+ * This class includes:
+ * <ul>
+ * <li> Pages of businesses in id order, continued from the id cursor of the previous page.
+ * <li> An ETag per business version: If-None-Match gives 304, and a stale If-Match on PUT or DELETE gives 412.
+ * <li> JSON read and written with the streaming API, without building a tree of nodes.
+ * <li> Reads open to anyone, writes only for logged-in users, by the session cookie or a Bearer token, see Secured.
+ * </ul>
+ */
+public class Api extends Controller {
+
+  private static final String JSON_UTF8 = "application/json; charset=utf-8";
+
+  /** The largest request body accepted. A business is well under a kilobyte. */
+  private static final int MAX_BODY_BYTES = 64 * 1024;
+
+  /** The largest page a client may ask for. */
+  private static final int MAX_PAGE_SIZE = 500;
+
+  /** Writes one JSON value to a generator. */
+  @FunctionalInterface
+  private interface JsonWriter {
+    void write(JsonGenerator generator) throws IOException;
+  }
+
+  /**
+   * Returns a page of businesses by increasing id, and the cursor of the next page.
+   * @param after The cursor: only businesses with a greater id are returned. 0 for the first page.
+   * @param limit The page size, at most 500.
+   * @return The page as {"items": [...], "next": id or null}, or 304 if the client's copy is current.
+   */
+  @Timed("listBusinesses")
+  public static Result listBusinesses(long after, int limit) {
+    if (limit < 1 || limit > MAX_PAGE_SIZE) {
+      return error(BAD_REQUEST, "The limit must be between 1 and " + MAX_PAGE_SIZE + ".");
+    }
+    List<Business> page = Business.getRepository().page(after, limit);
+    // The page changes when a business enters or leaves it, or one of its businesses gets a new version.
+    long hash = after * 31 + limit;
+    for (Business business : page) {
+      hash = (hash * 31 + business.getId()) * 31 + business.getVersion();
+    }
+    String etag = PageCache.etag("list", after, hash);
+    response().setHeader(ETAG, etag);
+    response().setHeader(CACHE_CONTROL, "no-cache");
+    if (PageCache.isNotModified(request().getHeader(IF_NONE_MATCH), null, etag, 0)) {
+      return status(NOT_MODIFIED);
+    }
+    Long next = (page.size() == limit) ? page.get(page.size() - 1).getId() : null;
+    if (next != null) {
+      response().setHeader("Link", "<" + routes.Api.listBusinesses(next, limit).url() + ">; rel=\"next\"");
+    }
+    return json(OK, generator -> {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("items");
+      for (Business business : page) {
+        BusinessJson.write(generator, business);
+      }
+      generator.writeEndArray();
+      if (next == null) {
+        generator.writeNullField("next");
+      }
+      else {
+        generator.writeNumberField("next", next);
+      }
+      generator.writeEndObject();
+    });
+  }
+
+  /**
+   * Returns a business, with its ETag and Last-Modified.
+   * @param id The id of the business.
+   * @return The business, 304 if the client's copy is current, or 404.
+   */
+  @Timed("getBusiness")
+  public static Result getBusiness(long id) {
+    Business business = Business.findById(id);
+    if (business == null) {
+      return missing(id);
+    }
+    String etag = etag(business);
+    response().setHeader(ETAG, etag);
+    response().setHeader(LAST_MODIFIED, PageCache.httpDate(business.getLastModified()));
+    response().setHeader(CACHE_CONTROL, "no-cache");
+    if (PageCache.isNotModified(request().getHeader(IF_NONE_MATCH), request().getHeader(IF_MODIFIED_SINCE),
+        etag, business.getLastModified())) {
+      return status(NOT_MODIFIED);
+    }
+    return json(OK, generator -> BusinessJson.write(generator, business));
+  }
+
+  /**
+   * Creates a business from the JSON body. Any id in the body is ignored.
+   * Answers once the business is durable, as the form does.
+   * @return 201 with the business and its Location, 400 with the validation errors, 401 if not logged in,
+   * or 503 if overloaded.
+   */
+  @Timed("createBusiness")
+  @Security.Authenticated(Secured.class)
+  @Admitted
+  @BodyParser.Of(value = BodyParser.Raw.class, maxLength = MAX_BODY_BYTES)
+  public static Promise<Result> createBusiness() {
+    BusinessFormData businessData;
+    try {
+      businessData = readBody();
+    }
+    catch (IOException e) {
+      return Promise.pure(error(BAD_REQUEST, "Invalid JSON: " + e.getMessage()));
+    }
+    businessData.id = "";
+    Result rejected = validate(businessData);
+    if (rejected != null) {
+      return Promise.pure(rejected);
+    }
+    Promise<String> passwordHash = hash(businessData);
+    if (passwordHash == null) {
+      return Promise.pure(overloaded());
+    }
+    return passwordHash.flatMap(hash -> {
+      Business business = Business.save(Business.makeInstance(businessData, hash));
+      PageCache.invalidate(business.getId());
+      return Business.flush().map(committed -> {
+        response().setHeader(LOCATION, routes.Api.getBusiness(business.getId()).url());
+        response().setHeader(ETAG, etag(business));
+        return json(CREATED, generator -> BusinessJson.write(generator, business));
+      });
+    });
+  }
+
+  /**
+   * Replaces a business with the JSON body, which must hold every field but the password:
+   * a blank or missing password keeps the current one.
+   * With If-Match, the business is only replaced if it is still at the version the client saw.
+   * @param id The id of the business.
+   * @return 200 with the business, 400 with the validation errors, 401 if not logged in, 404, 412 if it changed,
+   * or 503 if overloaded.
+   */
+  @Timed("updateBusiness")
+  @Security.Authenticated(Secured.class)
+  @Admitted
+  @BodyParser.Of(value = BodyParser.Raw.class, maxLength = MAX_BODY_BYTES)
+  public static Promise<Result> updateBusiness(long id) {
+    Business current = Business.findById(id);
+    if (current == null) {
+      return Promise.pure(missing(id));
+    }
+    String ifMatch = request().getHeader(IF_MATCH);
+    if (!PageCache.matches(ifMatch, etag(current))) {
+      return Promise.pure(preconditionFailed(id));
+    }
+    long expectedVersion = (ifMatch == null) ? BusinessRepository.ANY_VERSION : current.getVersion();
+    BusinessFormData businessData;
+    try {
+      businessData = readBody();
+    }
+    catch (IOException e) {
+      return Promise.pure(error(BAD_REQUEST, "Invalid JSON: " + e.getMessage()));
+    }
+    businessData.id = String.valueOf(id);
+    Result rejected = validate(businessData);
+    if (rejected != null) {
+      return Promise.pure(rejected);
+    }
+    Promise<String> passwordHash = hash(businessData);
+    if (passwordHash == null) {
+      return Promise.pure(overloaded());
+    }
+    return passwordHash.flatMap(hash -> {
+      Business business = Business.makeInstance(businessData, hash);
+      if (!Business.update(business, expectedVersion)) {
+        // Deleted, or changed by someone else while the password was being hashed.
+        return Promise.pure((Business.findById(id) == null) ? missing(id) : preconditionFailed(id));
+      }
+      PageCache.invalidate(id);
+      return Business.flush().map(committed -> {
+        response().setHeader(ETAG, etag(business));
+        return json(OK, generator -> BusinessJson.write(generator, business));
+      });
+    });
+  }
+
+  /**
+   * Deletes a business. With If-Match, only if it is still at the version the client saw.
+   * @param id The id of the business.
+   * @return 204 once the deletion is durable, 401 if not logged in, 404, or 412 if it changed.
+   */
+  @Timed("deleteBusiness")
+  @Security.Authenticated(Secured.class)
+  public static Promise<Result> deleteBusiness(long id) {
+    Business current = Business.findById(id);
+    if (current == null) {
+      return Promise.pure(missing(id));
+    }
+    String ifMatch = request().getHeader(IF_MATCH);
+    if (!PageCache.matches(ifMatch, etag(current))) {
+      return Promise.pure(preconditionFailed(id));
+    }
+    long expectedVersion = (ifMatch == null) ? BusinessRepository.ANY_VERSION : current.getVersion();
+    if (Business.delete(id, expectedVersion) == null) {
+      return Promise.pure((Business.findById(id) == null) ? missing(id) : preconditionFailed(id));
+    }
+    PageCache.invalidate(id);
+    return Business.flush().map(committed -> status(NO_CONTENT));
+  }
+
+  private static String etag(Business business) {
+    return PageCache.etag("json", business.getId(), business.getVersion());
+  }
+
+  /** Parses the body as a business, straight from its bytes. */
+  private static BusinessFormData readBody() throws IOException {
+    RawBuffer raw = request().body().asRaw();
+    byte[] bytes = (raw == null) ? null : raw.asBytes();
+    if (bytes == null) {
+      throw new IOException("Missing body.");
+    }
+    try (JsonParser parser = BusinessJson.FACTORY.createParser(bytes)) {
+      return BusinessJson.read(parser);
+    }
+  }
+
+  /** @return Null if valid, or a 400 listing the errors by field. */
+  private static Result validate(BusinessFormData businessData) {
+    List<ValidationError> errors = businessData.validate();
+    if (errors == null) {
+      return null;
+    }
+    for (ValidationError error : errors) {
+      Metrics.VALIDATION_FAILURES.labelled(error.key()).add(1);
+    }
+    return json(BAD_REQUEST, generator -> {
+      generator.writeStartObject();
+      generator.writeFieldName("errors");
+      BusinessJson.writeErrors(generator, errors);
+      generator.writeEndObject();
+    });
+  }
+
+  /** @return The pending hash, or null if the business can't be taken now. */
+  private static Promise<String> hash(BusinessFormData businessData) {
+    if (Business.isBacklogged()) {
+      return null;
+    }
+    if (Business.keepsPassword(businessData)) {
+      return Promise.pure(null);
+    }
+    try {
+      return PasswordHasher.hash(businessData.password);
+    }
+    catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  private static Result overloaded() {
+    response().setHeader(RETRY_AFTER, "5");
+    return error(SERVICE_UNAVAILABLE, "Too many signups in progress, please retry shortly.");
+  }
+
+  private static Result missing(long id) {
+    return error(NOT_FOUND, "Couldn't find business " + id + ".");
+  }
+
+  private static Result preconditionFailed(long id) {
+    return error(PRECONDITION_FAILED, "Business " + id + " was changed since it was read.");
+  }
+
+  private static Result error(int status, String message) {
+    return json(status, generator -> {
+      generator.writeStartObject();
+      generator.writeStringField("error", message);
+      generator.writeEndObject();
+    });
+  }
+
+  /** Generates the body as UTF-8 bytes directly, then answers with it. */
+  private static Result json(int status, JsonWriter body) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    try (JsonGenerator generator = BusinessJson.FACTORY.createGenerator(bytes, JsonEncoding.UTF8)) {
+      body.write(generator);
+    }
+    catch (IOException e) {
+      // A ByteArrayOutputStream never fails.
+      throw new UncheckedIOException(e);
+    }
+    return status(status, bytes.toByteArray()).as(JSON_UTF8);
+  }
+}
@@ -1,70 +1,432 @@
 package controllers;
 
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import metrics.Timed;
 import models.*;
 import models.DistanceApply;
 import play.data.Form;
+import play.data.validation.ValidationError;
+import play.filters.csrf.CSRF;
+import play.libs.F.Promise;
+import play.mvc.BodyParser;
 import play.mvc.Controller;
+import play.mvc.Http;
+import play.mvc.Http.RawBuffer;
 import play.mvc.Result;
+import play.mvc.Security;
+import play.twirl.api.Html;
+import scala.Option;
+import services.PageCache;
+import services.PasswordHasher;
+import services.WorkerPool;
+import views.IndexRenderer;
 import views.formdata.BusinessFormData;
+import views.formdata.BusinessFormDataBinder;
+import views.formdata.FormPrecheck;
 import views.html.Index;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * The controller for the single page of this application.
- *
+ * Every action returns a promise and runs its blocking work on a WorkerPool: rendering on the render pool,
+ * and password hashing on the PasswordHasher pool. Play's default dispatcher
+ * only parses requests, serves cached pages and sends responses.
+ * An instance is created with its pools by Global.getControllerInstance, hence the @ in conf/routes.
+ * Pages are rendered with an empty CSRF token field, see PageCache.TOKEN_FIELD, so one rendering can be
+ * shared by every user; each response fills in the token of its own request.
  */
 public class Application extends Controller {
 
+  private static final String HTML_UTF8 = "text/html; charset=utf-8";
+
+  private static final LatencyHistogram indexRenderDuration = Metrics.RENDER_DURATION.labelled("Index");
+
+  private static final String REJECTED = "The form couldn't be read, please fill it in again.";
+
+  /** The session key the CSRFFilter keeps a session's token under, csrf.token.name. */
+  private static final String CSRF_SESSION_KEY = "csrfToken";
+
+  /** The empty form, rendered once on the first request without flash messages. */
+  private static volatile PageCache.Page emptyPage;
+
+  /** The empty form with the REJECTED message, rendered once on the first rejected submission. */
+  private static volatile PageCache.Page rejectedPage;
+
+  private final WorkerPool render;
+  private final boolean streaming;
+
+  /**
+   * @param render The pool pages are rendered on.
+   * @param streaming True to write pages with the IndexRenderer, streaming those that aren't cached,
+   * false to render them with the Index template.
+   */
+  public Application(WorkerPool render, boolean streaming) {
+    this.render = render;
+    this.streaming = streaming;
+  }
+
   /**
    * Returns the page where the form is filled by the Business whose id is passed, or an empty form
    * if the id is 0.
+   * Pages without flash messages depend only on the business version, so they are served from
+   * the PageCache and carry an ETag and Last-Modified; a client whose copy is current gets a 304.
    * @param id The id of the Business whose data is to be shown.  0 if an empty form is to be shown.
    * @return The page containing the form and data.
    */
-  public static Result getIndex(long id) {
-    BusinessFormData businessData = (id == 0) ? new BusinessFormData() : Business.makeBusinessFormData(id);
-    Form<BusinessFormData> formData = Form.form(BusinessFormData.class).fill(businessData);
-    return ok(Index.render(
-      formData,
-      Method.makeMethodMap(businessData),
-      DistanceApply.getNameList(),
-      Duration.makeDurationMap(businessData),
-      Major.makeMajorMap(businessData)
-    ));
+  @Timed("getIndex")
+  public Promise<Result> getIndex(long id) {
+    if (!flash().isEmpty()) {
+      // The flash message is part of the page, so neither cache it nor let the client reuse it.
+      return find(id).flatMap(business -> {
+        BusinessFormData businessData = (business == null) ? new BusinessFormData() : Business.makeBusinessFormData(business);
+        return respond(OK, BusinessFormDataBinder.fill(businessData), businessData);
+      });
+    }
+    if (id == 0) {
+      PageCache.Page page = emptyPage;
+      if (page != null) {
+        return Promise.<Result>pure(send(page));
+      }
+      return offload(render, () -> {
+        BusinessFormData businessData = new BusinessFormData();
+        PageCache.Page rendered = PageCache.of(renderPage(BusinessFormDataBinder.fill(businessData), businessData));
+        emptyPage = rendered;
+        return send(rendered);
+      });
+    }
+    return find(id).flatMap(business -> {
+      // A copy holding the token of an earlier session must not be revalidated.
+      String etag = PageCache.etag(id, business.getVersion(), session(CSRF_SESSION_KEY));
+      response().setHeader(ETAG, etag);
+      response().setHeader(LAST_MODIFIED, PageCache.httpDate(business.getLastModified()));
+      // Let browsers keep the page, but have them revalidate it on every use. The page holds
+      // the user's CSRF token, so shared caches must not keep it.
+      response().setHeader(CACHE_CONTROL, "private, no-cache");
+      if (PageCache.isNotModified(request().getHeader(IF_NONE_MATCH), request().getHeader(IF_MODIFIED_SINCE),
+          etag, business.getLastModified())) {
+        return Promise.<Result>pure(status(NOT_MODIFIED));
+      }
+      PageCache.Page page = PageCache.get(id, business.getVersion());
+      if (page != null) {
+        return Promise.<Result>pure(send(page));
+      }
+      return offload(render, () -> {
+        BusinessFormData businessData = Business.makeBusinessFormData(business);
+        byte[] rendered = renderPage(BusinessFormDataBinder.fill(businessData), businessData);
+        return send(PageCache.put(id, business.getVersion(), rendered));
+      });
+    });
   }
 
   /**
    * Process a form submission.
-   * First we bind the HTTP POST data to an instance of BusinessFormData.
-   * The binding process will invoke the BusinessFormData.validate() method.
+   * First FormPrecheck scans the body once, and a submission the form could not have produced gets a cached
+   * error page at once. Otherwise the fields are bound to an instance of BusinessFormData as they are read,
+   * by the BusinessFormDataBinder generated at compile time, and BusinessFormData.validate() is invoked.
    * If errors are found, re-render the page, displaying the error data. 
-   * If errors not found, render the page with the good data. 
+   * A submission carrying an id updates that business, so it needs a login, see Secured.
+   * If errors not found, hash the password on the PasswordHasher pool, store the business, and once it is durable
+   * (see Business.flush) render the page with the good data.
+   * If the hashing pool is saturated or the database is too far behind, answer 503 so the client retries later.
+   * Clients, and names, submitting too often get 429 before any of this runs, see Admitted.
    * @return The index page with the results of validation. 
    */
-  public static Result postIndex() {
+  @Timed("postIndex")
+  @Admitted("name")
+  @BodyParser.Of(value = BodyParser.Raw.class, maxLength = FormPrecheck.MAX_BODY_BYTES)
+  public Promise<Result> postIndex() {
 
-    // Get the submitted form data from the request object, and run validation.
-    Form<BusinessFormData> formData = Form.form(BusinessFormData.class).bindFromRequest();
+    // Decode the submitted form data straight into its fields, turning away what the form can't send,
+    // then run validation.
+    RawBuffer body = request().body().asRaw();
+    BusinessFormDataBinder binder = new BusinessFormDataBinder();
+    if (!FormPrecheck.scan((body == null) ? null : body.asBytes(), binder)) {
+      return rejected();
+    }
+    final Form<BusinessFormData> formData = binder.toForm();
 
     if (formData.hasErrors()) {
       // Don't call formData.get() when there are errors, pass 'null' to helpers instead. 
+      countValidationFailures(formData.errors());
       flash("error", "Please correct errors above.");
-      return badRequest(Index.render(formData,
-        Method.makeMethodMap(null),
-        DistanceApply.getNameList(),
-        Duration.makeDurationMap(null),
-        Major.makeMajorMap(null) 
-      ));
-    }
-    else {
-      // Convert the formData into a Business model instance.
-      Business business = Business.makeInstance(formData.get());
-      flash("success", "Business instance created/edited: " + business);
-      return ok(Index.render(formData,
-        Method.makeMethodMap(formData.get()),
-        DistanceApply.getNameList(),
-        Duration.makeDurationMap(formData.get()),
-        Major.makeMajorMap(formData.get())
-      ));
+      return respond(BAD_REQUEST, formData, null);
+    }
+
+    final BusinessFormData businessData = formData.get();
+    if (businessData.id != null && !businessData.id.isEmpty()) {
+      // Anyone may add a business, but only logged-in users may change a stored one, as with deleteIndex.
+      Secured secured = new Secured();
+      if (secured.getUsername(ctx()) == null) {
+        return Promise.<Result>pure(secured.onUnauthorized(ctx()));
+      }
+    }
+    if (Business.isBacklogged()) {
+      response().setHeader(RETRY_AFTER, "5");
+      return Promise.<Result>pure(status(SERVICE_UNAVAILABLE, "Too many signups waiting to be stored, please retry shortly."));
+    }
+    Promise<String> passwordHash;
+    try {
+      // An edit that leaves the password blank keeps the stored one, see BusinessRepository.update.
+      passwordHash = Business.keepsPassword(businessData) ? Promise.pure(null) : PasswordHasher.hash(businessData.password);
+    }
+    catch (RejectedExecutionException e) {
+      response().setHeader(RETRY_AFTER, "1");
+      return Promise.<Result>pure(status(SERVICE_UNAVAILABLE, "Too many signups in progress, please retry shortly."));
+    }
+
+    return passwordHash.flatMap(hash -> {
+      // Convert the formData into a Business model instance and store it.
+      Business business = Business.makeInstance(businessData, hash);
+      if (business.getId() == 0) {
+        Business.save(business);
+        businessData.id = String.valueOf(business.getId());
+      }
+      else if (!Business.update(business)) {
+        flash("error", "Couldn't find business " + business.getId() + ".");
+        return respond(NOT_FOUND, formData, businessData);
+      }
+      PageCache.invalidate(business.getId());
+      // Answer once the change is durable, along with the others that arrived meanwhile.
+      return Business.flush().flatMap(committed -> {
+        flash("success", "Business instance created/edited: " + business);
+        // Refill the form so it carries the id a new business was just given.
+        return respond(OK, BusinessFormDataBinder.fill(businessData), businessData);
+      });
+    });
+  }
+
+  /**
+   * Deletes the Business whose id is passed and returns to the empty form once the deletion is durable.
+   * Only logged-in users may delete, see Secured.
+   * @param id The id of the Business to delete.
+   * @return A redirect to the empty form.
+   */
+  @Timed("deleteIndex")
+  @Security.Authenticated(Secured.class)
+  public Promise<Result> deleteIndex(long id) {
+    Business business = Business.delete(id);
+    PageCache.invalidate(id);
+    if (business == null) {
+      flash("error", "Couldn't find business " + id + ".");
+      return Promise.<Result>pure(redirect(routes.Application.getIndex(0)));
+    }
+    flash("success", "Business instance deleted: " + business);
+    return Business.flush().map(committed -> redirect(routes.Application.getIndex(0)));
+  }
+
+  /**
+   * Answers a submission turned away by FormPrecheck with the empty form and an error message.
+   * The page is the same for every such submission, so it is rendered once.
+   * @return The response, 400.
+   */
+  private Promise<Result> rejected() {
+    PageCache.Page page = rejectedPage;
+    if (page != null) {
+      return Promise.<Result>pure(send(BAD_REQUEST, page));
+    }
+    return offload(render, () -> {
+      BusinessFormData businessData = new BusinessFormData();
+      PageCache.Page rendered = PageCache.of(renderPage(BusinessFormDataBinder.fill(businessData), null, REJECTED));
+      rejectedPage = rendered;
+      return send(BAD_REQUEST, rendered);
+    });
+  }
+
+  /**
+   * Finds a business in memory, where every business is kept.
+   * @param id The id of the business, or 0 for none.
+   * @return A promise of the business, or of null if the id is 0. Fails with a RuntimeException if not found.
+   */
+  private static Promise<Business> find(long id) {
+    if (id == 0) {
+      return Promise.pure(null);
+    }
+    try {
+      return Promise.pure(Business.getById(id));
+    }
+    catch (RuntimeException e) {
+      return Promise.throwing(e);
+    }
+  }
+
+  /**
+   * Runs the work on the pool, or answers 503 if the pool is saturated.
+   * @param pool The pool.
+   * @param work Builds the result.
+   * @return A promise of the result.
+   */
+  private static Promise<Result> offload(WorkerPool pool, Callable<Result> work) {
+    try {
+      return pool.submit(work);
+    }
+    catch (RejectedExecutionException e) {
+      response().setHeader(RETRY_AFTER, "1");
+      return Promise.<Result>pure(status(SERVICE_UNAVAILABLE, "The server is busy, please retry shortly."));
+    }
+  }
+
+  /**
+   * Renders a page showing the flash messages, on the render pool.
+   * When streaming, the page is sent in chunks as the render pool writes it, the head of the page first.
+   * @param status The status of the response.
+   * @param formData The form to display.
+   * @param businessData The data whose options are shown as checked, or null for none.
+   * @return The response.
+   */
+  private Promise<Result> respond(int status, Form<BusinessFormData> formData, BusinessFormData businessData) {
+    String token = csrfToken();
+    if (!streaming) {
+      return offload(render, () -> status(status, withToken(renderIndex(formData, businessData), token)));
+    }
+    // Read while the request's context is current; the chunks are written after the action returns.
+    String success = flash("success");
+    String error = flash("error");
+    Map<String, Boolean> methods = Method.makeMethodMap(businessData);
+    Map<String, Boolean> period = Duration.makeDurationMap(businessData);
+    Map<String, Boolean> majors = Major.makeMajorMap(businessData);
+    Chunks<byte[]> page = new ByteChunks() {
+      @Override
+      public void onReady(Chunks.Out<byte[]> out) {
+        Callable<Void> write = () -> {
+          try {
+            IndexRenderer.stream(formData, methods, period, majors, success, error, token, out::write);
+          }
+          finally {
+            out.close();
+          }
+          return null;
+        };
+        try {
+          render.submit(write);
+        }
+        catch (RejectedExecutionException e) {
+          // The response has started, so finish it here rather than fail it.
+          try {
+            write.call();
+          }
+          catch (Exception writeFailure) {
+            throw new IllegalStateException("Couldn't write the index page", writeFailure);
+          }
+        }
+      }
+    };
+    return Promise.<Result>pure(status(status, page).as(HTML_UTF8));
+  }
+
+  /**
+   * Sends a rendered page, gzip encoded if the client accepts it, with the request's CSRF token filled in.
+   * The encoding was made once, when the page was rendered, so the GzipFilter leaves the response alone.
+   * @param page The page.
+   * @return The response.
+   */
+  private static Result send(PageCache.Page page) {
+    return send(OK, page);
+  }
+
+  /**
+   * Sends a rendered page with the given status, gzip encoded if the client accepts it.
+   * @param status The status of the response.
+   * @param page The page.
+   * @return The response.
+   */
+  private static Result send(int status, PageCache.Page page) {
+    response().setHeader(VARY, ACCEPT_ENCODING);
+    String token = csrfToken();
+    if (PageCache.acceptsGzip(request().getHeader(ACCEPT_ENCODING))) {
+      response().setHeader(CONTENT_ENCODING, "gzip");
+      return status(status, page.getGzipped(token)).as(HTML_UTF8);
+    }
+    return status(status, page.getBody(token)).as(HTML_UTF8);
+  }
+
+  /**
+   * @return The CSRF token to fill in the form with, or null if the request has none, e.g. without the CSRFFilter.
+   * Play signs it afresh for every call.
+   */
+  private static String csrfToken() {
+    Option<CSRF.Token> token = CSRF.getToken(Http.Context.current()._requestHeader());
+    return token.isDefined() ? token.get().value() : null;
+  }
+
+  /**
+   * @param page A page rendered for a single response.
+   * @param token The CSRF token of the request, or null.
+   * @return The page with its CSRF token field filled in.
+   */
+  private static Html withToken(Html page, String token) {
+    return (token == null) ? page : new Html(page.body().replace(PageCache.TOKEN_FIELD, PageCache.tokenField(token)));
+  }
+
+  /**
+   * Renders a page without flash messages into an array, e.g. for the PageCache.
+   * @param formData The form to display.
+   * @param businessData The data whose options are shown as checked, or null for none.
+   * @return The page, UTF-8 encoded.
+   */
+  private byte[] renderPage(Form<BusinessFormData> formData, BusinessFormData businessData) {
+    return renderPage(formData, businessData, null);
+  }
+
+  /**
+   * Renders a page with an error message but no other flash, e.g. to be reused for many responses.
+   * @param formData The form to display.
+   * @param businessData The data whose options are shown as checked, or null for none.
+   * @param error The error message, or null for none.
+   * @return The page, UTF-8 encoded.
+   */
+  private byte[] renderPage(Form<BusinessFormData> formData, BusinessFormData businessData, String error) {
+    if (streaming) {
+      return IndexRenderer.render(formData, Method.makeMethodMap(businessData), Duration.makeDurationMap(businessData),
+          Major.makeMajorMap(businessData), null, error);
+    }
+    if (error == null) {
+      return toBytes(renderIndex(formData, businessData));
+    }
+    // The template reads its messages from the flash.
+    flash().put("error", error);
+    try {
+      return toBytes(renderIndex(formData, businessData));
+    }
+    finally {
+      flash().remove("error");
+    }
+  }
+
+  /**
+   * Renders the index page, recording the render time.
+   * @param formData The form to display.
+   * @param businessData The data whose options are shown as checked, or null for none.
+   * @return The rendered page.
+   */
+  private static Html renderIndex(Form<BusinessFormData> formData, BusinessFormData businessData) {
+    long start = System.nanoTime();
+    Html page = Index.render(formData,
+      Method.makeMethodMap(businessData),
+      DistanceApply.getNameList(),
+      Duration.makeDurationMap(businessData),
+      Major.makeMajorMap(businessData)
+    );
+    indexRenderDuration.recordSince(start);
+    return page;
+  }
+
+  private static byte[] toBytes(Html page) {
+    return page.body().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Counts each field in error, so the metrics show which validations fail most.
+   * @param errors The form errors, by field.
+   */
+  private static void countValidationFailures(Map<String, List<ValidationError>> errors) {
+    for (Map.Entry<String, List<ValidationError>> entry : errors.entrySet()) {
+      Metrics.VALIDATION_FAILURES.labelled(entry.getKey()).add(entry.getValue().size());
     }
   }
 }
@@ -0,0 +1,135 @@
+package controllers;
+
+import metrics.Timed;
+import models.UserInfoDB;
+import play.libs.F.Promise;
+import play.mvc.Controller;
+import play.mvc.Result;
+import services.CredentialVerifier;
+import services.CredentialVerifier.Verification;
+import services.PasswordHasher;
+import services.SessionToken;
+import views.html.Login;
+import views.html.Signup;
+
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The controller for signing up, and for logging in and out, against the users of UserInfoDB.
+ * An email signs up once: UserInfoDB.addUserInfo refuses one that is already taken, whatever its case.
+ * Logging in costs one BCrypt check, through CredentialVerifier and its rate limits. It sets a cookie with a
+ * SessionToken, by which Secured authenticates the requests that follow without BCrypt or the user store.
+ */
+public class Authentication extends Controller {
+
+  /** The width of the name and email columns of user_info, see conf/evolutions/default/1.sql. */
+  private static final int MAX_LENGTH = 255;
+
+  /**
+   * @return The login page.
+   */
+  public static Result login() {
+    return ok(Login.render(""));
+  }
+
+  /**
+   * Checks the submitted email and password, and logs the user in if they are valid.
+   * @return A redirect to the index page with the session cookie set, the login page again with 400,
+   * 429 if the client or the email made too many attempts, or 503 if too many logins are in progress.
+   */
+  @Timed("login")
+  public static Promise<Result> authenticate() {
+    Map<String, String[]> form = request().body().asFormUrlEncoded();
+    final String email = first(form, "email");
+    String password = first(form, "password");
+    return CredentialVerifier.verify(email, password, request().remoteAddress()).map((Verification verification) -> {
+      switch (verification.getOutcome()) {
+        case VALID:
+          int maxAge = (int) TimeUnit.MILLISECONDS.toSeconds(SessionToken.getTtlMillis());
+          response().setCookie(Secured.COOKIE, SessionToken.issue(email), maxAge, "/", null, false, true);
+          flash("success", "Logged in as " + email + ".");
+          return redirect(routes.Application.getIndex(0));
+        case RATE_LIMITED:
+          response().setHeader(RETRY_AFTER, String.valueOf(verification.getRetryAfterSeconds()));
+          flash("error", "Too many attempts, please retry later.");
+          return status(TOO_MANY_REQUESTS, Login.render(email == null ? "" : email));
+        case OVERLOADED:
+          response().setHeader(RETRY_AFTER, String.valueOf(verification.getRetryAfterSeconds()));
+          flash("error", "Too many logins in progress, please retry shortly.");
+          return status(SERVICE_UNAVAILABLE, Login.render(email == null ? "" : email));
+        default:
+          flash("error", "Unknown email or wrong password.");
+          return badRequest(Login.render(email == null ? "" : email));
+      }
+    });
+  }
+
+  /**
+   * @return The signup page.
+   */
+  public static Result signup() {
+    return ok(Signup.render("", ""));
+  }
+
+  /**
+   * Signs up a user with the submitted name, email and password, unless the email is already taken.
+   * The check and the BCrypt hash run on the hashing pool.
+   * @return A redirect to the login page, the signup page again with 400 if a field is missing or too long,
+   * or with 409 if the email is taken, 429 if the client or the email made too many attempts, or 503 if too
+   * many signups are in progress.
+   */
+  @Timed("signup")
+  @Admitted("email")
+  public static Promise<Result> register() {
+    Map<String, String[]> form = request().body().asFormUrlEncoded();
+    final String name = trimmed(first(form, "name"));
+    final String email = trimmed(first(form, "email"));
+    final String password = first(form, "password");
+    if (name.isEmpty() || email.isEmpty() || password == null || password.isEmpty()) {
+      flash("error", "Please fill in your name, email and password.");
+      return Promise.<Result>pure(badRequest(Signup.render(name, email)));
+    }
+    if (name.length() > MAX_LENGTH || email.length() > MAX_LENGTH) {
+      flash("error", "Names and emails are limited to " + MAX_LENGTH + " characters.");
+      return Promise.<Result>pure(badRequest(Signup.render("", "")));
+    }
+    Promise<Boolean> added;
+    try {
+      added = PasswordHasher.submit(() -> UserInfoDB.addUserInfo(name, email, password));
+    }
+    catch (RejectedExecutionException e) {
+      response().setHeader(RETRY_AFTER, "1");
+      flash("error", "Too many signups in progress, please retry shortly.");
+      return Promise.<Result>pure(status(SERVICE_UNAVAILABLE, Signup.render(name, email)));
+    }
+    return added.map(isNew -> {
+      if (!isNew) {
+        flash("error", "An account with this email already exists.");
+        return status(CONFLICT, Signup.render(name, email));
+      }
+      flash("success", "Signed up as " + email + ", you can log in now.");
+      return redirect(routes.Authentication.login());
+    });
+  }
+
+  /**
+   * Discards the session cookie. The token itself stays valid until it expires.
+   * @return A redirect to the login page.
+   */
+  public static Result logout() {
+    response().discardCookie(Secured.COOKIE);
+    flash("success", "Logged out.");
+    return redirect(routes.Authentication.login());
+  }
+
+  private static String trimmed(String value) {
+    return (value == null) ? "" : value.trim();
+  }
+
+  private static String first(Map<String, String[]> form, String field) {
+    String[] values = (form == null) ? null : form.get(field);
+    return (values == null || values.length == 0) ? null : values[0];
+  }
+}
@@ -0,0 +1,91 @@
+package controllers;
+
+import metrics.Timed;
+import play.mvc.BodyParser;
+import play.mvc.Controller;
+import play.mvc.Http.RawBuffer;
+import play.mvc.Result;
+import play.mvc.Security;
+import services.BusinessExporter;
+import services.BusinessImporter;
+import services.BusinessImporter.Format;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * The controller for bulk import and export of businesses. Only logged-in users may use it, see Secured.
+ */
+@Security.Authenticated(Secured.class)
+public class Bulk extends Controller {
+
+  /** The largest body accepted by an import. Bodies over the in-memory limit are spilled to a temporary file. */
+  private static final int MAX_IMPORT_BYTES = 64 * 1024 * 1024;
+
+  private static final String NDJSON_UTF8 = "application/x-ndjson; charset=utf-8";
+  private static final String CSV_UTF8 = "text/csv; charset=utf-8";
+
+  /**
+   * Imports the businesses in the body, CSV or newline-delimited JSON according to its Content-Type.
+   * The rows are read, validated and stored on a background thread while the response streams one
+   * JSON line of results per row, then a summary line.
+   * @return The streamed results, 415 for an unsupported Content-Type, or 503 if too many imports are running.
+   */
+  @Timed("importBusinesses")
+  @BodyParser.Of(value = BodyParser.Raw.class, maxLength = MAX_IMPORT_BYTES)
+  public static Result importBusinesses() {
+    Format format = Format.of(request().getHeader(CONTENT_TYPE));
+    if (format == null) {
+      return status(UNSUPPORTED_MEDIA_TYPE, "Send text/csv or application/x-ndjson.");
+    }
+    RawBuffer raw = request().body().asRaw();
+    if (raw == null) {
+      return badRequest("Missing body.");
+    }
+    if (!BusinessImporter.tryReserve()) {
+      response().setHeader(RETRY_AFTER, "10");
+      return status(SERVICE_UNAVAILABLE, "Too many imports in progress, please retry shortly.");
+    }
+    InputStream body;
+    try {
+      body = new FileInputStream(raw.asFile());
+    }
+    catch (FileNotFoundException | RuntimeException e) {
+      BusinessImporter.release();
+      throw new IllegalStateException("Cannot read the import body", e);
+    }
+    return ok(new StringChunks() {
+      @Override
+      public void onReady(Out<String> out) {
+        BusinessImporter.start(body, format, out::write, out::close);
+      }
+    }).as(NDJSON_UTF8);
+  }
+
+  /**
+   * Exports every business in id order, without passwords, in the columns an import reads.
+   * @param format "csv" or "ndjson".
+   * @return The streamed businesses, or 400 for an unknown format.
+   */
+  @Timed("exportBusinesses")
+  public static Result exportBusinesses(String format) {
+    Format exportFormat;
+    if ("csv".equalsIgnoreCase(format)) {
+      exportFormat = Format.CSV;
+    }
+    else if ("ndjson".equalsIgnoreCase(format)) {
+      exportFormat = Format.NDJSON;
+    }
+    else {
+      return badRequest("Unknown format: " + format);
+    }
+    return ok(new StringChunks() {
+      @Override
+      public void onReady(Out<String> out) {
+        BusinessExporter.export(exportFormat, out::write);
+        out.close();
+      }
+    }).as((exportFormat == Format.CSV) ? CSV_UTF8 : NDJSON_UTF8);
+  }
+}
@@ -0,0 +1,24 @@
+package controllers;
+
+import metrics.Metrics;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+/**
+ * The controller for operational endpoints.
+ */
+public class Monitoring extends Controller {
+
+  /**
+   * Returns every metric in the Prometheus text exposition format.
+   * Only answers requests from the local host, where the scraper is expected to run.
+   * @return The metrics, or 403 for remote clients.
+   */
+  public static Result metrics() {
+    String remote = request().remoteAddress();
+    if (!remote.equals("127.0.0.1") && !remote.equals("0:0:0:0:0:0:0:1") && !remote.equals("::1")) {
+      return forbidden();
+    }
+    return ok(Metrics.toPrometheusText()).as("text/plain; version=0.0.4; charset=utf-8");
+  }
+}
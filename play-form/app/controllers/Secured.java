@@ -0,0 +1,44 @@
+package controllers;
+
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Security;
+import services.SessionToken;
+
+/**
+ * Authenticates requests by their session token, from the cookie set at login or an Authorization: Bearer header.
+ * Only the token's signature and expiry are checked: no BCrypt and no UserInfoDB lookup.
+ * Use with @Security.Authenticated(Secured.class); the action then finds the user's email in request().username().
+ */
+public class Secured extends Security.Authenticator {
+
+  /** The cookie holding the session token. */
+  public static final String COOKIE = "auth";
+
+  private static final String BEARER = "Bearer ";
+
+  @Override
+  public String getUsername(Http.Context ctx) {
+    Http.Cookie cookie = ctx.request().cookie(COOKIE);
+    if (cookie != null) {
+      return SessionToken.verify(cookie.value());
+    }
+    String authorization = ctx.request().getHeader(AUTHORIZATION);
+    if (authorization != null && authorization.startsWith(BEARER)) {
+      return SessionToken.verify(authorization.substring(BEARER.length()));
+    }
+    return null;
+  }
+
+  /**
+   * Sends browsers to the login page, and answers other clients with 401.
+   */
+  @Override
+  public Result onUnauthorized(Http.Context ctx) {
+    String accept = ctx.request().getHeader(ACCEPT);
+    if (accept != null && accept.contains("text/html")) {
+      return redirect(routes.Authentication.login());
+    }
+    return unauthorized("Log in first.");
+  }
+}
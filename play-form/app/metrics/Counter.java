@@ -0,0 +1,33 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Backed by a LongAdder, so concurrent increments
+ * from many request threads don't contend on a single memory location.
+ */
+public final class Counter {
+  private final LongAdder count = new LongAdder();
+
+  Counter() {
+  }
+
+  /** Adds one. */
+  public void increment() {
+    count.increment();
+  }
+
+  /**
+   * @param amount The amount to add, not negative.
+   */
+  public void add(long amount) {
+    count.add(amount);
+  }
+
+  /**
+   * @return The current count.
+   */
+  public long get() {
+    return count.sum();
+  }
+}
@@ -0,0 +1,81 @@
+package metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, exposed as a Prometheus histogram in seconds.
+ * Recording finds the bucket by binary search and bumps two LongAdders, so it never locks.
+ */
+public final class LatencyHistogram {
+
+  /** Upper bounds of the buckets, in nanoseconds: 0.5ms up to 10s. */
+  static final long[] BOUNDS = {
+    500000L, 1000000L, 2500000L, 5000000L, 10000000L, 25000000L, 50000000L,
+    100000000L, 250000000L, 500000000L, 1000000000L, 2500000000L, 5000000000L, 10000000000L
+  };
+
+  /** The bounds in seconds, as written in the le label. */
+  static final String[] BOUND_LABELS = new String[BOUNDS.length];
+  static {
+    for (int i = 0; i < BOUNDS.length; i++) {
+      BOUND_LABELS[i] = BigDecimal.valueOf(BOUNDS[i], 9).stripTrailingZeros().toPlainString();
+    }
+  }
+
+  /** One counter per bound plus one for larger values. */
+  private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+  private final LongAdder sumNanos = new LongAdder();
+
+  LatencyHistogram() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records one duration.
+   * @param nanos The duration in nanoseconds.
+   */
+  public void record(long nanos) {
+    int low = 0;
+    int high = BOUNDS.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (BOUNDS[mid] < nanos) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    buckets[low].increment();
+    sumNanos.add(nanos);
+  }
+
+  /**
+   * Records the time elapsed since start.
+   * @param startNanos A System.nanoTime() value taken when the timed work began.
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * @return The per-bucket (not cumulative) counts, the last one for values above every bound.
+   */
+  long[] bucketCounts() {
+    long[] counts = new long[buckets.length];
+    for (int i = 0; i < buckets.length; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return counts;
+  }
+
+  /**
+   * @return The sum of all recorded durations, in nanoseconds.
+   */
+  long sumNanos() {
+    return sumNanos.sum();
+  }
+}
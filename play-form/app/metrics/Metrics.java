@@ -0,0 +1,202 @@
+package metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * The application's metrics registry, rendered in the Prometheus text format by controllers.Monitoring.
+ * This class includes:
+ * <ul>
+ * <li> Counters, latency histograms and gauges, grouped in families that share a name and help text.
+ * <li> Sampled gauges and counters, read from elsewhere (e.g. a pool's queue size) only when rendered.
+ * <li> At most one label per family (e.g. route="getIndex"), so finding a metric is a single map lookup
+ * on the label value.
+ * </ul>
+ * Hot paths should look a metric up once and keep it, see the constants below.
+ */
+public final class Metrics {
+
+  /** Declared first: the metric constants below register themselves here. */
+  private static final Map<String, Family<?>> families = new ConcurrentSkipListMap<>();
+
+  /** Time spent in each controller action, labelled by route. See Timed. */
+  public static final Metric<LatencyHistogram> REQUEST_DURATION = histograms(
+      "http_request_duration_seconds", "Time spent in controller actions.", "route");
+
+  /** Time spent in BCrypt, labelled by operation (hash or check). */
+  public static final Metric<LatencyHistogram> BCRYPT_DURATION = histograms(
+      "bcrypt_duration_seconds", "Time spent in BCrypt.", "operation");
+
+  /** Time spent rendering templates, labelled by template. */
+  public static final Metric<LatencyHistogram> RENDER_DURATION = histograms(
+      "template_render_duration_seconds", "Time spent rendering templates.", "template");
+
+  /** Form submissions that failed validation, labelled by the field in error. */
+  public static final Metric<Counter> VALIDATION_FAILURES = counters(
+      "form_validation_failures_total", "Form validation errors, by field.", "field");
+
+  /** Form submissions turned away before binding, labelled by reason. See FormPrecheck. */
+  public static final Metric<Counter> FORM_PRECHECK_REJECTIONS = counters(
+      "form_precheck_rejections_total", "Form submissions rejected before binding, by reason.", "reason");
+
+  private Metrics() {
+  }
+
+  /**
+   * Returns the family of counters with the given name, creating it if needed.
+   * @param name The metric name, ending in _total by convention.
+   * @param help A description of the metric.
+   * @param label The name of the family's label, or null for a single unlabelled counter.
+   * @return The family.
+   */
+  public static Metric<Counter> counters(String name, String help, String label) {
+    return register(new Family<>(name, help, "counter", label, Counter::new, false));
+  }
+
+  /**
+   * Returns the family of latency histograms with the given name, creating it if needed.
+   * @param name The metric name, ending in _seconds by convention.
+   * @param help A description of the metric.
+   * @param label The name of the family's label, or null for a single unlabelled histogram.
+   * @return The family.
+   */
+  public static Metric<LatencyHistogram> histograms(String name, String help, String label) {
+    return register(new Family<>(name, help, "histogram", label, LatencyHistogram::new, false));
+  }
+
+  /**
+   * Registers a gauge, read each time the metrics are rendered. Replaces any gauge with the same name.
+   * @param name The metric name.
+   * @param help A description of the metric.
+   * @param value Supplies the current value.
+   */
+  public static void gauge(String name, String help, Supplier<? extends Number> value) {
+    families.put(name, new Family<Supplier<? extends Number>>(name, help, "gauge", null, () -> value, true));
+  }
+
+  /**
+   * Registers a counter kept elsewhere, read each time the metrics are rendered. Replaces any metric with the same name.
+   * @param name The metric name, ending in _total by convention.
+   * @param help A description of the metric.
+   * @param value Supplies the current count, which must never decrease.
+   */
+  public static void counter(String name, String help, Supplier<? extends Number> value) {
+    families.put(name, new Family<Supplier<? extends Number>>(name, help, "counter", null, () -> value, true));
+  }
+
+  /**
+   * Renders every metric in the Prometheus text exposition format, version 0.0.4.
+   * @return The rendered metrics.
+   */
+  public static String toPrometheusText() {
+    StringBuilder out = new StringBuilder(4096);
+    for (Family<?> family : families.values()) {
+      family.writeTo(out);
+    }
+    return out.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Family<T> register(Family<T> family) {
+    Family<?> existing = families.putIfAbsent(family.name, family);
+    return (existing == null) ? family : (Family<T>) existing;
+  }
+
+  /**
+   * A named group of metrics distinguished by one label.
+   * @param <T> The metric type.
+   */
+  public interface Metric<T> {
+
+    /**
+     * @param labelValue The label value, e.g. a route name.
+     * @return The metric for that label value, created on first use.
+     */
+    T labelled(String labelValue);
+
+    /**
+     * @return The unlabelled metric of a family that has no label.
+     */
+    T get();
+  }
+
+  private static final class Family<T> implements Metric<T> {
+    private final String name;
+    private final String help;
+    private final String type;
+    private final String label;
+    private final Supplier<T> factory;
+    /** True if the factory supplies the current value rather than creating children. */
+    private final boolean sampled;
+    private final ConcurrentHashMap<String, T> children = new ConcurrentHashMap<>();
+
+    Family(String name, String help, String type, String label, Supplier<T> factory, boolean sampled) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+      this.label = label;
+      this.factory = factory;
+      this.sampled = sampled;
+    }
+
+    @Override
+    public T labelled(String labelValue) {
+      T child = children.get(labelValue);
+      if (child == null) {
+        child = children.computeIfAbsent(labelValue, value -> factory.get());
+      }
+      return child;
+    }
+
+    @Override
+    public T get() {
+      return labelled("");
+    }
+
+    void writeTo(StringBuilder out) {
+      out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+      if (sampled) {
+        @SuppressWarnings("unchecked")
+        Number value = ((Supplier<? extends Number>) factory.get()).get();
+        out.append(name).append(' ').append(value).append('\n');
+        return;
+      }
+      for (Map.Entry<String, T> entry : new TreeMap<>(children).entrySet()) {
+        String labels = (label == null) ? "" : label + "=\"" + escape(entry.getKey()) + "\"";
+        if (entry.getValue() instanceof Counter) {
+          out.append(name).append(braces(labels)).append(' ').append(((Counter) entry.getValue()).get()).append('\n');
+        }
+        else {
+          writeHistogram(out, labels, (LatencyHistogram) entry.getValue());
+        }
+      }
+    }
+
+    private void writeHistogram(StringBuilder out, String labels, LatencyHistogram histogram) {
+      String prefix = labels.isEmpty() ? "" : labels + ",";
+      long[] counts = histogram.bucketCounts();
+      long cumulative = 0;
+      for (int i = 0; i < LatencyHistogram.BOUNDS.length; i++) {
+        cumulative += counts[i];
+        out.append(name).append("_bucket{").append(prefix).append("le=\"")
+            .append(LatencyHistogram.BOUND_LABELS[i]).append("\"} ").append(cumulative).append('\n');
+      }
+      cumulative += counts[LatencyHistogram.BOUNDS.length];
+      out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+      out.append(name).append("_sum").append(braces(labels)).append(' ').append(histogram.sumNanos() / 1e9).append('\n');
+      out.append(name).append("_count").append(braces(labels)).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String braces(String labels) {
+      return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+  }
+}
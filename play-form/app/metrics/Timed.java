@@ -0,0 +1,22 @@
+package metrics;
+
+import play.mvc.With;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Records the latency of a controller action in Metrics.REQUEST_DURATION, under the given route name.
+ */
+@With(TimedAction.class)
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Timed {
+
+  /**
+   * @return The route label, e.g. "getIndex".
+   */
+  String value();
+}
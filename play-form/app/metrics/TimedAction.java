@@ -0,0 +1,30 @@
+package metrics;
+
+import play.libs.F.Promise;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * The action composition behind Timed. The clock stops when the action's promise completes,
+ * so asynchronous actions are measured until their result is ready, not until they return.
+ */
+public class TimedAction extends Action<Timed> {
+
+  @Override
+  public Promise<Result> call(Http.Context ctx) throws Throwable {
+    final LatencyHistogram histogram = Metrics.REQUEST_DURATION.labelled(configuration.value());
+    final long start = System.nanoTime();
+    Promise<Result> result;
+    try {
+      result = delegate.call(ctx);
+    }
+    catch (Throwable t) {
+      histogram.recordSince(start);
+      throw t;
+    }
+    result.onRedeem(r -> histogram.recordSince(start));
+    result.onFailure(t -> histogram.recordSince(start));
+    return result;
+  }
+}
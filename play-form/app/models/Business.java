@@ -1,10 +1,16 @@
 package models;
 
-import org.mindrot.jbcrypt.BCrypt;
+import play.libs.F.Promise;
+import services.PasswordHasher;
+import services.WriteBehindLog;
 import views.formdata.BusinessFormData;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Simple model class to represent business.
@@ -12,7 +18,9 @@ import java.util.List;
  * <ul>
  * <li> The model structure (fields, plus getters and setters).
  * <li> Methods to facilitate form display (makeBusinessFormData).
- * <li> Some fields and methods to "fake" a database of business, including valid and invalid.
+ * <li> Static access to the BusinessRepository holding all businesses, seeded with valid and invalid ones.
+ * <li> Persistence of every change through a BusinessStore, once one is attached (see Global),
+ * either directly or behind a WriteBehindLog that acknowledges changes before the database commits them.
  * </ul> 
  */
 public class Business {
@@ -23,6 +31,8 @@ public class Business {
   private String level;
   private Duration duration;
   private List<Major> majors = new ArrayList<>(); // Majors are optional.
+  private long version; // Bumped by the repository on every save or update.
+  private long lastModified; // Set by the repository, in milliseconds since the epoch.
 
   /** Model entities typically want to have a no-arg constructor. */
   public Business() {
@@ -37,19 +47,51 @@ public class Business {
   }
   
   /**
-   * @return the id
+   * @return the id, or 0 if the business has not been saved yet
    */
-  private long getId() {
+  public long getId() {
     return id;
   }
 
   /**
    * @param id the id to set
    */
-  private void setId(long id) {
+  void setId(long id) {
     this.id = id;
   }
 
+  /**
+   * @return the version, 0 until stored and incremented by every save or update
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return when the business was last stored, in milliseconds since the epoch
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Marks the business as stored, as the version after previousVersion.
+   * @param previousVersion The version of the business this one replaces, or 0 if new.
+   */
+  void markStored(long previousVersion) {
+    restore(previousVersion + 1, System.currentTimeMillis());
+  }
+
+  /**
+   * Sets the version and modification time a business was loaded from the database with.
+   * @param version The stored version.
+   * @param lastModified The stored modification time, in milliseconds since the epoch.
+   */
+  void restore(long version, long lastModified) {
+    this.version = version;
+    this.lastModified = lastModified;
+  }
+
   public boolean hasMethod(String methodName) {
     for (Method method : this.methods) {
       if (methodName.equals(method.getName()))
@@ -62,6 +104,13 @@ public class Business {
     this.methods.add(method);
   }
 
+  /**
+   * @return the methods
+   */
+  public List<Method> getMethods() {
+    return methods;
+  }
+
   public boolean hasMajor(String majorName) {
     for (Major major : this.getMajors()) {
       if (majorName.equals(major.getName()))
@@ -155,26 +204,45 @@ public class Business {
    * @return The BusinessFormData instance, or throws a RuntimeException.
    */
   public static BusinessFormData makeBusinessFormData(long id) {
-    for (Business business : allBusinesses) {
-      if (business.getId() == id) {
-        return new BusinessFormData(business.name, business.password, business.level, business.duration, business.methods, business.majors);
-      }
-    }
-    throw new RuntimeException("Couldn't find user");
+    return makeBusinessFormData(getById(id));
+  }
+
+  /**
+   * Return a BusinessFormData instance constructed from a business instance.
+   * The password is left blank: the stored one is a hash, which must not reach the page,
+   * and submitting the form with the password still blank keeps it.
+   * @param business A business instance.
+   * @return The BusinessFormData instance.
+   */
+  public static BusinessFormData makeBusinessFormData(Business business) {
+    return new BusinessFormData(business.id, business.name, business.level, business.duration, business.methods, business.majors);
   }
   
 
   /**
-   * Returns a Business instance created from the form data.
+   * Returns a Business instance created from the form data, hashing the password on the calling thread.
    * Assumes that the formData has been validated.
-   * The ID field is not assigned or managed in this application.
+   * The ID is taken from the form, and is 0 for a business that has not been saved yet.
    * @param formData The business form data.
    * @return A business instance.
    */
   public static Business makeInstance(BusinessFormData formData) {
+    return makeInstance(formData, keepsPassword(formData) ? null : PasswordHasher.hashNow(formData.password));
+  }
+
+  /**
+   * Returns a Business instance created from the form data and an already computed password hash.
+   * Assumes that the formData has been validated.
+   * @param formData The business form data.
+   * @param passwordHash The BCrypt hash of formData.password, see PasswordHasher.hash,
+   * or null to keep the password of the business being updated, see keepsPassword.
+   * @return A business instance.
+   */
+  public static Business makeInstance(BusinessFormData formData, String passwordHash) {
     Business business = new Business();
+    business.id = (formData.id == null || formData.id.isEmpty()) ? 0 : Long.parseLong(formData.id);
     business.name = formData.name;
-    business.password = BCrypt.hashpw(formData.password, BCrypt.gensalt());
+    business.password = passwordHash;
     for (String method : formData.methods) {
       business.methods.add(Method.findMethod(method));
     }
@@ -187,21 +255,38 @@ public class Business {
   }
   
   
-  /** Fake a database of business. */
-  private static List<Business> allBusinesses = new ArrayList<>();
+  /**
+   * Returns true if the form updates a business without changing its password, which is then not hashed.
+   * Validation only lets the password be blank when the form names a stored business.
+   * @param formData The validated business form data.
+   * @return True if the password was left blank.
+   */
+  public static boolean keepsPassword(BusinessFormData formData) {
+    return formData.password == null || formData.password.isEmpty();
+  }
+  
+  /** The store holding every business. */
+  private static final BusinessRepository repository = new BusinessRepository();
 
-  /** Populate the fake database with both valid and invalid business, just for tutorial purposes.*/
+  /** The database behind the repository, or null to keep businesses in memory only. */
+  private static volatile BusinessStore store;
+
+  /** The log changes go through on their way to the store, or null to write to the store directly. */
+  private static volatile WriteBehindLog journal;
+
+  /** Populate the repository with both valid and invalid business, just for tutorial purposes.*/
   static {
     // Valid business. No optional data supplied.
-    allBusinesses.add(new Business(1L, "Hossein", "mypassword", "hossein@example.com", Duration.findDuration("4 weeks")));
+    save(new Business(1L, "Hossein", "mypassword", "hossein@example.com", Duration.findDuration("4 weeks")));
     // Valid business with optional data.
-    allBusinesses.add(new Business(2L, "Valentin", "mypassword", "Val@example.com", Duration.findDuration("4 weeks")));
-    getById(2L).addMethod(Method.findMethod("Web"));
-    getById(2L).addMethod(Method.findMethod("Email"));
-    getById(2L).addMajor(Major.findMajor("Text"));
-    getById(2L).addMajor(Major.findMajor("Mail"));
+    Business valentin = new Business(2L, "Valentin", "mypassword", "Val@example.com", Duration.findDuration("4 weeks"));
+    valentin.addMethod(Method.findMethod("Web"));
+    valentin.addMethod(Method.findMethod("Email"));
+    valentin.addMajor(Major.findMajor("Text"));
+    valentin.addMajor(Major.findMajor("Mail"));
+    save(valentin);
     // Invalid business. Password is too short.
-    allBusinesses.add(new Business(3L, "Neda", "pass", "neda@exmple.com", Duration.findDuration("1 week")));
+    save(new Business(3L, "Neda", "pass", "neda@exmple.com", Duration.findDuration("1 week")));
   }
   
   /**
@@ -210,12 +295,174 @@ public class Business {
    * @return The Business instance, or throws a RuntimeException.
    */
   public static Business getById(long id) {
-    for (Business business : allBusinesses) {
-      if (business.getId() == id) {
-        return business;
+    Business business = findById(id);
+    if (business == null) {
+      throw new RuntimeException("Couldn't find user");
+    }
+    return business;
+  }
+
+  /**
+   * Find a business instance given the ID.
+   * @param id The id of the business.
+   * @return The Business instance, or null if not found.
+   */
+  public static Business findById(long id) {
+    // Never read through to the store: every stored business is loaded at startup, and a row read back
+    // later could be one whose deletion is still queued, or older than an update racing with the read.
+    return repository.get(id);
+  }
+
+  /**
+   * Stores a business, giving it a fresh id if it has none yet.
+   * @param business The business to store.
+   * @return The stored business.
+   */
+  public static Business save(Business business) {
+    repository.save(business);
+    sync(business.getId());
+    return business;
+  }
+
+  /**
+   * Replaces the stored business that has the same id.
+   * @param business The new state of the business.
+   * @return True if the business existed and was replaced.
+   */
+  public static boolean update(Business business) {
+    return update(business, BusinessRepository.ANY_VERSION);
+  }
+
+  /**
+   * Replaces the stored business that has the same id, if it is still at the expected version.
+   * @param business The new state of the business.
+   * @param expectedVersion The version the stored business must have, or BusinessRepository.ANY_VERSION.
+   * @return True if the business existed at that version and was replaced.
+   */
+  public static boolean update(Business business, long expectedVersion) {
+    if (!repository.update(business, expectedVersion)) {
+      return false;
+    }
+    sync(business.getId());
+    return true;
+  }
+
+  /**
+   * Removes a business.
+   * @param id The id of the business.
+   * @return The removed business, or null if not found.
+   */
+  public static Business delete(long id) {
+    return delete(id, BusinessRepository.ANY_VERSION);
+  }
+
+  /**
+   * Removes a business if it is still at the expected version.
+   * @param id The id of the business.
+   * @param expectedVersion The version the business must have, or BusinessRepository.ANY_VERSION.
+   * @return The removed business, or null if not found at that version.
+   */
+  public static Business delete(long id, long expectedVersion) {
+    Business removed = repository.delete(id, expectedVersion);
+    if (removed != null) {
+      WriteBehindLog currentJournal = journal;
+      if (currentJournal != null) {
+        append(currentJournal, BusinessJournal.encodeDeletion(removed));
       }
+      else {
+        sync(id);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return The repository holding every business, for lookups by name or level.
+   */
+  public static BusinessRepository getRepository() {
+    return repository;
+  }
+
+  /**
+   * Starts persisting businesses to the store. If the store is empty it is filled with the businesses in memory,
+   * otherwise the businesses in memory are replaced by the stored ones.
+   * @param newStore The store.
+   */
+  public static void attach(BusinessStore newStore) {
+    List<Business> stored = newStore.findAll();
+    if (stored.isEmpty()) {
+      repository.forEach(business -> newStore.sync(business.getId()));
+    }
+    else {
+      repository.clear();
+      stored.forEach(repository::restore);
+    }
+    store = newStore;
+  }
+
+  /**
+   * Sends later changes through the write-behind log, after applying the changes a crash left in it.
+   * The log must drain to the attached store, see BusinessJournal.
+   * @param log The opened, not yet started, log.
+   */
+  public static void attachJournal(WriteBehindLog log) {
+    Map<Long, Long> newest = new HashMap<>();
+    log.forEachPending(record -> BusinessJournal.replay(record, repository, newest));
+    journal = log;
+  }
+
+  /** Stops persisting businesses; they are kept in memory only. */
+  public static void detach() {
+    journal = null;
+    store = null;
+  }
+
+  /**
+   * Returns a promise redeemed once every change made so far is durable:
+   * on local disk when a write-behind log is attached, otherwise in the database.
+   * Changes are forced or committed in groups, so waiting on this costs about one fsync.
+   * @return The promise, already redeemed when no store is attached.
+   */
+  public static Promise<Void> flush() {
+    WriteBehindLog currentJournal = journal;
+    if (currentJournal != null) {
+      return currentJournal.flush();
+    }
+    BusinessStore currentStore = store;
+    return (currentStore == null) ? Promise.<Void>pure(null) : currentStore.flush();
+  }
+
+  /**
+   * @return True if the write-behind log is too far ahead of the database to take more changes for now.
+   */
+  public static boolean isBacklogged() {
+    WriteBehindLog currentJournal = journal;
+    return currentJournal != null && currentJournal.isFull();
+  }
+
+  /** Logs or queues a write of the business's current state, if a store is attached. */
+  private static void sync(long id) {
+    WriteBehindLog currentJournal = journal;
+    if (currentJournal != null) {
+      Business business = repository.get(id);
+      if (business != null) {
+        append(currentJournal, BusinessJournal.encode(business));
+      }
+      return;
+    }
+    BusinessStore currentStore = store;
+    if (currentStore != null) {
+      currentStore.sync(id);
+    }
+  }
+
+  private static void append(WriteBehindLog log, byte[] record) {
+    try {
+      log.append(record);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
-    throw new RuntimeException("Couldn't find user");
   }
 
 }
@@ -0,0 +1,165 @@
+package models;
+
+import play.libs.F.Promise;
+import services.WriteBehindLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The business records of the write-behind log, and the sink draining them to a BusinessStore.
+ * This class includes:
+ * <ul>
+ * <li> A compact binary encoding of a business, or of its deletion, together with its version.
+ * <li> Replay of the records a crash left undrained, newest version per id winning.
+ * <li> A sink writing each drained id through the BusinessStore, one group commit per batch.
+ * </ul>
+ */
+public class BusinessJournal implements WriteBehindLog.Sink {
+
+  private static final byte STORED = 1;
+  private static final byte DELETED = 2;
+
+  /** How long a batch may wait for its commit before it is retried. */
+  private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+  private final BusinessStore store;
+
+  /**
+   * @param store Where drained businesses are written.
+   */
+  public BusinessJournal(BusinessStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Writes the current state of every business in the batch and waits for the commit.
+   * The state written is the one in memory, which is never older than the record's.
+   * @param records The records.
+   */
+  @Override
+  public void write(List<byte[]> records) {
+    // Waits for every write rather than a flush, so a row the database refuses fails the batch.
+    List<Promise<Void>> writes = new ArrayList<>(records.size());
+    for (byte[] record : records) {
+      writes.add(store.sync(idOf(record)));
+    }
+    Promise.sequence(writes).get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param business A stored business.
+   * @return The record of its current state.
+   */
+  static byte[] encode(Business business) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(STORED);
+      out.writeLong(business.getId());
+      out.writeLong(business.getVersion());
+      out.writeLong(business.getLastModified());
+      writeNullable(out, business.getName());
+      writeNullable(out, business.getPassword());
+      writeNullable(out, business.getLevel());
+      out.writeLong((business.getDuration() == null) ? -1 : business.getDuration().getId());
+      out.writeInt(business.getMethods().size());
+      for (Method method : business.getMethods()) {
+        out.writeLong(method.getId());
+      }
+      out.writeInt(business.getMajors().size());
+      for (Major major : business.getMajors()) {
+        out.writeLong(major.getId());
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param removed A business that was just deleted.
+   * @return The record of its deletion, one version after its last state.
+   */
+  static byte[] encodeDeletion(Business removed) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(DELETED);
+      out.writeLong(removed.getId());
+      out.writeLong(removed.getVersion() + 1);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Applies an undrained record to the repository, unless a newer version of the business was already seen.
+   * @param record The record.
+   * @param repository The repository being rebuilt.
+   * @param newest The newest version applied so far, by id, shared across the records of one replay.
+   */
+  static void replay(byte[] record, BusinessRepository repository, Map<Long, Long> newest) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+      byte kind = in.readByte();
+      long id = in.readLong();
+      long version = in.readLong();
+      Business current = repository.get(id);
+      long seen = Math.max(newest.getOrDefault(id, 0L), (current == null) ? 0 : current.getVersion());
+      if (version <= seen) {
+        return;
+      }
+      newest.put(id, version);
+      if (kind == DELETED) {
+        repository.delete(id);
+        return;
+      }
+      long lastModified = in.readLong();
+      String name = readNullable(in);
+      String password = readNullable(in);
+      String level = readNullable(in);
+      long durationId = in.readLong();
+      Business business = new Business(id, name, password, level, (durationId < 0) ? null : Duration.findDuration(durationId));
+      for (int i = in.readInt(); i > 0; i--) {
+        business.addMethod(Method.findMethod(in.readLong()));
+      }
+      for (int i = in.readInt(); i > 0; i--) {
+        business.addMajor(Major.findMajor(in.readLong()));
+      }
+      business.restore(version, lastModified);
+      repository.restore(business);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** The id is right after the record kind. */
+  private static long idOf(byte[] record) {
+    long id = 0;
+    for (int i = 1; i <= 8; i++) {
+      id = (id << 8) | (record[i] & 0xff);
+    }
+    return id;
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
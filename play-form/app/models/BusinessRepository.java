@@ -0,0 +1,267 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory store of Business instances.
+ * This class includes:
+ * <ul>
+ * <li> A primary index from id to Business, keyed by primitive longs and lock-free for readers.
+ * <li> Atomic id allocation for newly saved businesses.
+ * <li> Secondary indexes from name and from level to the matching businesses.
+ * <li> A version per business, bumped on every save or update, for caching and conditional requests.
+ * </ul>
+ * Writers for the same id are serialized by a striped lock so the secondary indexes
+ * always agree with the primary one.
+ */
+public class BusinessRepository {
+
+  /** Passed as an expected version to update or delete whatever the current version. */
+  public static final long ANY_VERSION = -1;
+
+  private final LongConcurrentMap<Business> byId = new LongConcurrentMap<>();
+  private final ConcurrentHashMap<String, Set<Business>> byName = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Set<Business>> byLevel = new ConcurrentHashMap<>();
+  private final AtomicLong lastId = new AtomicLong();
+  private final Object[] writeLocks;
+
+  /** Creates an empty repository. */
+  public BusinessRepository() {
+    int stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    writeLocks = new Object[stripes];
+    for (int i = 0; i < stripes; i++) {
+      writeLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * @param id The id of the business.
+   * @return The Business with that id, or null if not found.
+   */
+  public Business get(long id) {
+    return byId.get(id);
+  }
+
+  /**
+   * Stores a business. A business with id 0 is new and is given the next free id,
+   * otherwise it replaces the business with the same id.
+   * @param business The business to store.
+   * @return The stored business, with its id assigned.
+   */
+  public Business save(Business business) {
+    if (business.getId() == 0) {
+      business.setId(lastId.incrementAndGet());
+    }
+    else {
+      reserveId(business.getId());
+    }
+    synchronized (lockFor(business.getId())) {
+      Business previous = byId.get(business.getId());
+      business.markStored((previous == null) ? 0 : previous.getVersion());
+      byId.put(business.getId(), business);
+      if (previous != null) {
+        unindex(previous);
+      }
+      index(business);
+    }
+    return business;
+  }
+
+  /**
+   * Replaces an existing business.
+   * @param business The new state of the business, with the id of the one it replaces.
+   * A null password keeps the password of the business replaced.
+   * @return True if a business with that id existed and was replaced.
+   */
+  public boolean update(Business business) {
+    return update(business, ANY_VERSION);
+  }
+
+  /**
+   * Replaces an existing business if it is still at the expected version.
+   * @param business The new state of the business, with the id of the one it replaces.
+   * A null password keeps the password of the business replaced, read under the same lock as the replacement.
+   * @param expectedVersion The version the business must have, or ANY_VERSION.
+   * @return True if a business with that id and version existed and was replaced.
+   */
+  public boolean update(Business business, long expectedVersion) {
+    synchronized (lockFor(business.getId())) {
+      Business previous = byId.get(business.getId());
+      if (previous == null || (expectedVersion != ANY_VERSION && previous.getVersion() != expectedVersion)) {
+        return false;
+      }
+      if (business.getPassword() == null) {
+        business.setPassword(previous.getPassword());
+      }
+      business.markStored(previous.getVersion());
+      byId.put(business.getId(), business);
+      unindex(previous);
+      index(business);
+      return true;
+    }
+  }
+
+  /**
+   * Stores a business loaded from the database or the write-behind log, keeping the version and
+   * modification time it was stored with. A business in memory at the same or a newer version is kept.
+   * @param business The loaded business.
+   * @return True if the business was stored.
+   */
+  public boolean restore(Business business) {
+    reserveId(business.getId());
+    synchronized (lockFor(business.getId())) {
+      Business previous = byId.get(business.getId());
+      if (previous != null && previous.getVersion() >= business.getVersion()) {
+        return false;
+      }
+      byId.put(business.getId(), business);
+      if (previous != null) {
+        unindex(previous);
+      }
+      index(business);
+      return true;
+    }
+  }
+
+  /**
+   * Removes a business.
+   * @param id The id of the business.
+   * @return The removed business, or null if not found.
+   */
+  public Business delete(long id) {
+    return delete(id, ANY_VERSION);
+  }
+
+  /**
+   * Removes a business if it is still at the expected version.
+   * @param id The id of the business.
+   * @param expectedVersion The version the business must have, or ANY_VERSION.
+   * @return The removed business, or null if not found at that version.
+   */
+  public Business delete(long id, long expectedVersion) {
+    synchronized (lockFor(id)) {
+      Business current = byId.get(id);
+      if (current == null || (expectedVersion != ANY_VERSION && current.getVersion() != expectedVersion)) {
+        return null;
+      }
+      byId.remove(id);
+      unindex(current);
+      return current;
+    }
+  }
+
+  /**
+   * @param name A business name.
+   * @return The businesses with that name, possibly empty.
+   */
+  public Set<Business> findByName(String name) {
+    return lookup(byName, name);
+  }
+
+  /**
+   * @param level A business level (its email).
+   * @return The businesses with that level, possibly empty.
+   */
+  public Set<Business> findByLevel(String level) {
+    return lookup(byLevel, level);
+  }
+
+  /**
+   * Returns a page of businesses in id order, for cursor pagination: the next page starts after the last id returned.
+   * Only the page is sorted, so this takes one pass over the repository whatever the cursor.
+   * @param afterId Only businesses with a greater id are returned; 0 for the first page.
+   * @param limit The most businesses returned.
+   * @return Up to limit businesses, by increasing id.
+   */
+  public List<Business> page(long afterId, int limit) {
+    // A max-heap of the lowest ids seen so far, evicting the highest when full.
+    PriorityQueue<Business> lowest = new PriorityQueue<>(limit + 1, (a, b) -> Long.compare(b.getId(), a.getId()));
+    byId.forEachValue(business -> {
+      if (business.getId() > afterId
+          && (lowest.size() < limit || business.getId() < lowest.peek().getId())) {
+        lowest.add(business);
+        if (lowest.size() > limit) {
+          lowest.poll();
+        }
+      }
+    });
+    List<Business> page = new ArrayList<>(lowest);
+    page.sort((a, b) -> Long.compare(a.getId(), b.getId()));
+    return page;
+  }
+
+  /**
+   * Performs the action for every stored business, in no particular order.
+   * @param action The action.
+   */
+  public void forEach(Consumer<? super Business> action) {
+    byId.forEachValue(action);
+  }
+
+  /** Removes every business. Ids already handed out are not reused. */
+  public void clear() {
+    byId.forEachValue(business -> delete(business.getId()));
+  }
+
+  /**
+   * @return The number of stored businesses.
+   */
+  public int size() {
+    return byId.size();
+  }
+
+  /** Makes sure ids allocated later never collide with an explicitly given one. */
+  private void reserveId(long id) {
+    long last = lastId.get();
+    while (last < id && !lastId.compareAndSet(last, id)) {
+      last = lastId.get();
+    }
+  }
+
+  private Object lockFor(long id) {
+    return writeLocks[(int) (id ^ (id >>> 32)) & (writeLocks.length - 1)];
+  }
+
+  private void index(Business business) {
+    add(byName, business.getName(), business);
+    add(byLevel, business.getLevel(), business);
+  }
+
+  private void unindex(Business business) {
+    remove(byName, business.getName(), business);
+    remove(byLevel, business.getLevel(), business);
+  }
+
+  private static void add(ConcurrentHashMap<String, Set<Business>> index, String key, Business business) {
+    if (key == null) {
+      return;
+    }
+    index.compute(key, (k, set) -> {
+      Set<Business> businesses = (set == null) ? ConcurrentHashMap.<Business>newKeySet() : set;
+      businesses.add(business);
+      return businesses;
+    });
+  }
+
+  private static void remove(ConcurrentHashMap<String, Set<Business>> index, String key, Business business) {
+    if (key == null) {
+      return;
+    }
+    index.computeIfPresent(key, (k, set) -> {
+      set.remove(business);
+      return set.isEmpty() ? null : set;
+    });
+  }
+
+  private static Set<Business> lookup(ConcurrentHashMap<String, Set<Business>> index, String key) {
+    Set<Business> businesses = (key == null) ? null : index.get(key);
+    return (businesses == null) ? Collections.<Business>emptySet() : Collections.unmodifiableSet(businesses);
+  }
+}
@@ -0,0 +1,162 @@
+package models;
+
+import play.libs.F.Promise;
+import services.GroupCommitWriter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the businesses in the database, behind the in-memory BusinessRepository.
+ * This class includes:
+ * <ul>
+ * <li> A read of every business at startup, through prepared statements.
+ * <li> Writes through a GroupCommitWriter, so concurrent saves share a transaction.
+ * A write stores whatever the repository holds for the id when its batch is built,
+ * so the database always ends up with the latest state, whatever order writes were queued in.
+ * </ul>
+ * The schema is in conf/evolutions/default/1.sql.
+ */
+public class BusinessStore {
+
+  private static final String SELECT_ALL =
+      "SELECT id, name, password, level, duration_id, version, last_modified FROM business";
+  private static final String SELECT_ALL_METHODS = "SELECT business_id, method_id FROM business_method";
+  private static final String SELECT_ALL_MAJORS = "SELECT business_id, major_id FROM business_major";
+  private static final String MERGE = "MERGE INTO business (id, name, password, level, duration_id, version, last_modified)"
+      + " KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+  private static final String DELETE = "DELETE FROM business WHERE id = ?";
+  private static final String DELETE_METHODS = "DELETE FROM business_method WHERE business_id = ?";
+  private static final String MERGE_METHOD = "MERGE INTO business_method (business_id, method_id) VALUES (?, ?)";
+  private static final String DELETE_MAJORS = "DELETE FROM business_major WHERE business_id = ?";
+  private static final String MERGE_MAJOR = "MERGE INTO business_major (business_id, major_id) VALUES (?, ?)";
+
+  private final DataSource dataSource;
+  private final GroupCommitWriter writer;
+  private final LongFunction<Business> current;
+
+  /**
+   * @param dataSource Where reads get their connections.
+   * @param writer The writer applying the writes.
+   * @param current Gives the current in-memory state of a business, or null once deleted.
+   */
+  public BusinessStore(DataSource dataSource, GroupCommitWriter writer, LongFunction<Business> current) {
+    this.dataSource = dataSource;
+    this.writer = writer;
+    this.current = current;
+  }
+
+  /**
+   * @return Every stored business, with its methods and majors.
+   */
+  public List<Business> findAll() {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement businesses = connection.prepareStatement(SELECT_ALL);
+         PreparedStatement methods = connection.prepareStatement(SELECT_ALL_METHODS);
+         PreparedStatement majors = connection.prepareStatement(SELECT_ALL_MAJORS)) {
+      Map<Long, Business> byId = new HashMap<>();
+      try (ResultSet rows = businesses.executeQuery()) {
+        while (rows.next()) {
+          Business business = readBusiness(rows);
+          byId.put(business.getId(), business);
+        }
+      }
+      try (ResultSet rows = methods.executeQuery()) {
+        while (rows.next()) {
+          Business business = byId.get(rows.getLong(1));
+          if (business != null) {
+            business.addMethod(Method.findMethod(rows.getLong(2)));
+          }
+        }
+      }
+      try (ResultSet rows = majors.executeQuery()) {
+        while (rows.next()) {
+          Business business = byId.get(rows.getLong(1));
+          if (business != null) {
+            business.addMajor(Major.findMajor(rows.getLong(2)));
+          }
+        }
+      }
+      return new ArrayList<>(byId.values());
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Couldn't load the businesses", e);
+    }
+  }
+
+  /**
+   * Queues a write of the business with this id, or of its deletion if it is gone from memory.
+   * @param id The id of the business.
+   * @return A promise redeemed when the write has been committed.
+   */
+  public Promise<Void> sync(final long id) {
+    return writer.submit(batch -> write(batch, id, current.apply(id)));
+  }
+
+  /**
+   * @return A promise redeemed once every write queued so far has been committed.
+   */
+  public Promise<Void> flush() {
+    return writer.flush();
+  }
+
+  private static void write(GroupCommitWriter.Batch batch, long id, Business business) throws SQLException {
+    if (business == null) {
+      // The join tables cascade.
+      PreparedStatement delete = batch.statement(DELETE);
+      delete.setLong(1, id);
+      delete.addBatch();
+      return;
+    }
+    PreparedStatement merge = batch.statement(MERGE);
+    merge.setLong(1, id);
+    merge.setString(2, business.getName());
+    merge.setString(3, business.getPassword());
+    merge.setString(4, business.getLevel());
+    if (business.getDuration() == null) {
+      merge.setNull(5, Types.BIGINT);
+    }
+    else {
+      merge.setLong(5, business.getDuration().getId());
+    }
+    merge.setLong(6, business.getVersion());
+    merge.setLong(7, business.getLastModified());
+    merge.addBatch();
+    replaceLinks(batch, DELETE_METHODS, MERGE_METHOD, id, business.getMethods());
+    replaceLinks(batch, DELETE_MAJORS, MERGE_MAJOR, id, business.getMajors());
+  }
+
+  private static void replaceLinks(GroupCommitWriter.Batch batch, String deleteSql, String mergeSql,
+      long id, List<? extends CatalogEntry> entries) throws SQLException {
+    PreparedStatement delete = batch.statement(deleteSql);
+    delete.setLong(1, id);
+    delete.addBatch();
+    if (entries.isEmpty()) {
+      return;
+    }
+    PreparedStatement merge = batch.statement(mergeSql);
+    for (CatalogEntry entry : entries) {
+      // Merged rather than inserted, since a crafted form may name the same option twice.
+      merge.setLong(1, id);
+      merge.setLong(2, entry.getId());
+      merge.addBatch();
+    }
+  }
+
+  private static Business readBusiness(ResultSet row) throws SQLException {
+    long durationId = row.getLong(5);
+    Duration duration = row.wasNull() ? null : Duration.findDuration(durationId);
+    Business business = new Business(row.getLong(1), row.getString(2), row.getString(3), row.getString(4), duration);
+    business.restore(row.getLong(6), row.getLong(7));
+    return business;
+  }
+}
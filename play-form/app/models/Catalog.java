@@ -0,0 +1,90 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable set of CatalogEntry instances, such as all Methods or all Majors.
+ * This class includes:
+ * <ul>
+ * <li> The entries in definition order. Each entry exists once, so lookups always return the same instance.
+ * <li> Hashed indexes from name and from id to entry, so finding an entry costs the same however many there are.
+ * <li> The entry names compiled into an OptionList for form display.
+ * </ul>
+ * Entries must not be renamed or renumbered once they are in a catalog.
+ * @param <T> The entry type.
+ */
+public final class Catalog<T extends CatalogEntry> {
+
+  private final List<T> entries;
+  private final List<String> names;
+  private final Map<String, T> byName = new HashMap<>();
+  private final LongConcurrentMap<T> byId = new LongConcurrentMap<>(1);
+  private final OptionList options;
+
+  /**
+   * Builds a catalog.
+   * @param entries The entries, in definition order. Names and ids must be unique.
+   */
+  public Catalog(List<T> entries) {
+    List<String> names = new ArrayList<>();
+    for (T entry : entries) {
+      if (byName.put(entry.getName(), entry) != null || byId.putIfAbsent(entry.getId(), entry) != null) {
+        throw new IllegalArgumentException("Duplicate catalog entry: " + entry);
+      }
+      names.add(entry.getName());
+    }
+    this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    this.names = Collections.unmodifiableList(names);
+    this.options = new OptionList(names);
+  }
+
+  /**
+   * @param name An entry name, may be null.
+   * @return The entry with that name, or null if not found.
+   */
+  public T findByName(String name) {
+    return (name == null) ? null : byName.get(name);
+  }
+
+  /**
+   * @param id An entry id.
+   * @return The entry with that id, or null if not found.
+   */
+  public T findById(long id) {
+    return byId.get(id);
+  }
+
+  /**
+   * @return The entries, in definition order.
+   */
+  public List<T> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return The entry names, in definition order.
+   */
+  public List<String> getNames() {
+    return names;
+  }
+
+  /**
+   * @return The entry names compiled for form display, in definition order.
+   */
+  public OptionList getOptions() {
+    return options;
+  }
+
+  /**
+   * The number of entries, which is also the most distinct values a form field
+   * choosing from this catalog can validly submit.
+   * @return The number of entries.
+   */
+  public int size() {
+    return entries.size();
+  }
+}
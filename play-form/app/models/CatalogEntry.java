@@ -0,0 +1,17 @@
+package models;
+
+/**
+ * An entity that lives in a Catalog: a fixed, named choice such as a Method or a Major.
+ */
+public interface CatalogEntry {
+
+  /**
+   * @return The id, unique within the entity's catalog.
+   */
+  long getId();
+
+  /**
+   * @return The name, unique within the entity's catalog.
+   */
+  String getName();
+}
@@ -1,7 +1,7 @@
 package models;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -13,7 +13,7 @@ import java.util.List;
  * <li> Some fields and methods to "fake" a database of distanceLevels.
  * </ul>
  */
-public class DistanceApply {
+public class DistanceApply implements CatalogEntry {
   private long id;
   private String name;
 
@@ -48,22 +48,34 @@ public class DistanceApply {
    * @return A list of level names in sorted order.
    */
   public static List<String> getNameList() {
-    String[] nameArray = {""};
-    return Arrays.asList(nameArray);
+    return nameList;
   }
 
+  private static final List<String> nameList = Collections.singletonList("");
+
   /**
    * Return the DistanceApply instance in the database with name 'levelName' or null if not found.
    * @param levelName The Level name.
    * @return The DistanceApply instance, or null if not found.
    */
   public static DistanceApply findLevel(String levelName) {
-    for (DistanceApply level : allLevels) {
-      if (levelName.equals(level.getName())) {
-        return level;
-      }
-    }
-    return null;
+    return catalog.findByName(levelName);
+  }
+
+  /**
+   * Return the DistanceApply instance in the database with the given id or null if not found.
+   * @param id The DistanceApply id.
+   * @return The DistanceApply instance, or null if not found.
+   */
+  public static DistanceApply findLevel(long id) {
+    return catalog.findById(id);
+  }
+
+  /**
+   * @return The catalog of all distance levels.
+   */
+  public static Catalog<DistanceApply> getCatalog() {
+    return catalog;
   }
 
   /**
@@ -80,13 +92,10 @@ public class DistanceApply {
   }
 
   /** Fake a database of distance Levels. */
-  private static List<DistanceApply> allLevels = new ArrayList<>();
-
-  /** Instantiate the fake database. */
-  static {
-    allLevels.add(new DistanceApply(1L, "Email"));
+  private static final Catalog<DistanceApply> catalog = new Catalog<>(Arrays.asList(
+    new DistanceApply(1L, "Email")
+  ));
 
-  }
 
 
 }
@@ -2,9 +2,10 @@ package models;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.TreeSet;
 import views.formdata.BusinessFormData;
 
 /**
@@ -16,7 +17,7 @@ import views.formdata.BusinessFormData;
  * <li> Some fields and methods to "fake" a database of Duration.
  * </ul>
  */
-public class Duration {
+public class Duration implements CatalogEntry {
   private long id;
   private String name;
 
@@ -44,36 +45,46 @@ public class Duration {
   /**
    * Create a map of Duration name -> boolean where the boolean is true if the Duration corresponds to the business.
    * @param business A business with a Duration.
-   * @return A map of Duration to boolean indicating which one is the business's Duration.
+   * @return A read-only map of Duration to boolean indicating which one is the business's Duration,
+   * sorted by Duration name.
    */
   public static Map<String, Boolean> makeDurationMap(BusinessFormData business) {
-    Map<String, Boolean> durationMap = new TreeMap<String, Boolean>();
-    for (Duration period : allDuration) {
-      durationMap.put(period.getName(),  (business == null) ? false : (business.period != null && business.period.equals(period.getName())));
-    }
-    return durationMap;
+    return (business == null) ? durationOptions.noneChecked() : durationOptions.checked(business.period);
   }
 
   /**
    * @return A list of Duration ranges in sorted order.
    */
   public static List<String> getPeriodList() {
-    String[] nameArray = {"4 weeks", "3 weeks", "2 weeks", "1 week"};
-    return Arrays.asList(nameArray);
+    return periodList;
   }
 
+  private static final List<String> periodList =
+      Collections.unmodifiableList(Arrays.asList("4 weeks", "3 weeks", "2 weeks", "1 week"));
+
   /**
    * Return the Duration instance in the database with name 'period' or null if not found.
    * @param Duration The period
    * @return The Duration instance, or null.
    */
   public static Duration findDuration(String periodName) {
-    for (Duration period : allDuration) {
-      if (periodName.equals(period.getName())) {
-        return period;
-      }
-    }
-    return null;
+    return catalog.findByName(periodName);
+  }
+
+  /**
+   * Return the Duration instance in the database with the given id or null if not found.
+   * @param id The Duration id.
+   * @return The Duration instance, or null.
+   */
+  public static Duration findDuration(long id) {
+    return catalog.findById(id);
+  }
+
+  /**
+   * @return The catalog of all Durations.
+   */
+  public static Catalog<Duration> getCatalog() {
+    return catalog;
   }
 
   /**
@@ -90,16 +101,16 @@ public class Duration {
   }
 
   /** Fake a database of Duration. */
-  private static List<Duration> allDuration = new ArrayList<>();
+  private static final Catalog<Duration> catalog = new Catalog<>(Arrays.asList(
+    new Duration(1L, "4 weeks"),
+    new Duration(2L, "3 weeks"),
+    new Duration(3L, "2 weeks"),
+    new Duration(4L, "1 week")
+  ));
 
-  /** Instantiate the fake database of Duration. */
-  static {
-    allDuration.add(new Duration(1L, "4 weeks"));
-    allDuration.add(new Duration(2L, "3 weeks"));
-    allDuration.add(new Duration(3L, "2 weeks"));
-    allDuration.add(new Duration(4L, "1 week"));
+  /** The Duration names, sorted and compiled once for form display. */
+  private static final OptionList durationOptions = new OptionList(new ArrayList<>(new TreeSet<>(catalog.getNames())));
 
-  }
 
 
 }
@@ -0,0 +1,265 @@
+package models;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent hash map keyed by primitive longs, so lookups never box the key.
+ * This class includes:
+ * <ul>
+ * <li> Segments selected by the high bits of the hash, each guarded by its own lock for writers.
+ * <li> Open-addressed tables per segment. Readers never lock: a slot's value is published with a
+ * volatile write after its key, so a reader that sees a value also sees the matching key.
+ * <li> Tombstones for removed keys. Tables are rebuilt (and grown if needed) once live entries
+ * plus tombstones pass the load factor, and the new table is published with a volatile write.
+ * </ul>
+ * @param <V> The value type.
+ */
+public class LongConcurrentMap<V> {
+
+  /** Marks a slot whose key was removed; the key stays so probe chains remain intact. */
+  private static final Object TOMBSTONE = new Object();
+
+  private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  /**
+   * Creates a map sized for the given number of concurrent writers.
+   * @param concurrencyLevel The expected number of concurrently writing threads.
+   */
+  public LongConcurrentMap(int concurrencyLevel) {
+    int segmentCount = 1;
+    int bits = 0;
+    while (segmentCount < concurrencyLevel) {
+      segmentCount <<= 1;
+      bits++;
+    }
+    this.segments = new Segment[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment();
+    }
+    this.segmentShift = 32 - bits;
+  }
+
+  /** Creates a map with one segment per available core. */
+  public LongConcurrentMap() {
+    this(Runtime.getRuntime().availableProcessors() * 4);
+  }
+
+  /**
+   * @param key The key.
+   * @return The value mapped to key, or null if none.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    int hash = hash(key);
+    Table table = segmentFor(hash).table;
+    int mask = table.keys.length - 1;
+    int i = hash & mask;
+    while (true) {
+      Object value = table.values.get(i);
+      if (value == null) {
+        return null;
+      }
+      if (table.keys[i] == key) {
+        return (value == TOMBSTONE) ? null : (V) value;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /**
+   * @param key The key.
+   * @return True if the key is mapped to a value.
+   */
+  public boolean containsKey(long key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Maps the key to the value, replacing any previous value.
+   * @param key The key.
+   * @param value The value, never null.
+   * @return The previous value, or null if none.
+   */
+  public V put(long key, V value) {
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, checkNotNull(value), false);
+  }
+
+  /**
+   * Maps the key to the value only if the key is not already mapped.
+   * @param key The key.
+   * @param value The value, never null.
+   * @return The current value if the key was already mapped, or null if the value was added.
+   */
+  public V putIfAbsent(long key, V value) {
+    int hash = hash(key);
+    return segmentFor(hash).put(key, hash, checkNotNull(value), true);
+  }
+
+  /**
+   * Removes the key.
+   * @param key The key.
+   * @return The removed value, or null if the key was not mapped.
+   */
+  public V remove(long key) {
+    int hash = hash(key);
+    return segmentFor(hash).remove(key, hash);
+  }
+
+  /**
+   * @return The number of mapped keys.
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Passes every value to the action. Weakly consistent: concurrent updates may or may not be seen.
+   * @param action The action to perform on each value.
+   */
+  @SuppressWarnings("unchecked")
+  public void forEachValue(Consumer<? super V> action) {
+    for (Segment segment : segments) {
+      Table table = segment.table;
+      for (int i = 0; i < table.keys.length; i++) {
+        Object value = table.values.get(i);
+        if (value != null && value != TOMBSTONE) {
+          action.accept((V) value);
+        }
+      }
+    }
+  }
+
+  private Segment segmentFor(int hash) {
+    return (segmentShift == 32) ? segments[0] : segments[hash >>> segmentShift];
+  }
+
+  private static <T> T checkNotNull(T value) {
+    if (value == null) {
+      throw new NullPointerException("LongConcurrentMap does not accept null values");
+    }
+    return value;
+  }
+
+  /** Spreads the bits of the key (the murmur3 64-bit finalizer, folded to an int). */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  /** A slot array; never modified again once a segment has replaced it. */
+  private static final class Table {
+    final long[] keys;
+    final AtomicReferenceArray<Object> values;
+
+    Table(int capacity) {
+      this.keys = new long[capacity];
+      this.values = new AtomicReferenceArray<>(capacity);
+    }
+  }
+
+  /** One lock-guarded partition of the map. */
+  private static final class Segment {
+    volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+    /** Live entries. */
+    volatile int size;
+    /** Live entries plus tombstones. */
+    int used;
+
+    @SuppressWarnings("unchecked")
+    synchronized <V> V put(long key, int hash, V value, boolean onlyIfAbsent) {
+      Table table = this.table;
+      int mask = table.keys.length - 1;
+      int i = hash & mask;
+      while (true) {
+        Object current = table.values.get(i);
+        if (current == null) {
+          break;
+        }
+        if (table.keys[i] == key) {
+          if (current == TOMBSTONE) {
+            table.values.set(i, value);
+            size++;
+            return null;
+          }
+          if (!onlyIfAbsent) {
+            table.values.set(i, value);
+          }
+          return (V) current;
+        }
+        i = (i + 1) & mask;
+      }
+      if ((used + 1) * 4 > table.keys.length * 3) {
+        table = rebuild(table);
+        mask = table.keys.length - 1;
+        i = hash & mask;
+        while (table.values.get(i) != null) {
+          i = (i + 1) & mask;
+        }
+      }
+      table.keys[i] = key;
+      table.values.set(i, value);
+      used++;
+      size++;
+      return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <V> V remove(long key, int hash) {
+      Table table = this.table;
+      int mask = table.keys.length - 1;
+      int i = hash & mask;
+      while (true) {
+        Object current = table.values.get(i);
+        if (current == null) {
+          return null;
+        }
+        if (table.keys[i] == key) {
+          if (current == TOMBSTONE) {
+            return null;
+          }
+          table.values.set(i, TOMBSTONE);
+          size--;
+          return (V) current;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    /** Copies live entries into a fresh table, doubling it if it is mostly live, and publishes it. */
+    private Table rebuild(Table old) {
+      int capacity = old.keys.length;
+      if (size * 2 >= capacity) {
+        capacity <<= 1;
+      }
+      Table fresh = new Table(capacity);
+      int mask = capacity - 1;
+      for (int j = 0; j < old.keys.length; j++) {
+        Object value = old.values.get(j);
+        if (value != null && value != TOMBSTONE) {
+          int i = hash(old.keys[j]) & mask;
+          while (fresh.values.get(i) != null) {
+            i = (i + 1) & mask;
+          }
+          fresh.keys[i] = old.keys[j];
+          fresh.values.lazySet(i, value);
+        }
+      }
+      used = size;
+      this.table = fresh;
+      return fresh;
+    }
+  }
+}
@@ -2,9 +2,7 @@ package models;
 
 import views.formdata.BusinessFormData;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -16,7 +14,7 @@ import java.util.Map;
  * <li> Some fields and methods to "fake" a database of Majors.
  * </ul>
  */
-public class Major {
+public class Major implements CatalogEntry {
   private long id;
   private String name;
 
@@ -46,14 +44,11 @@ public class Major {
    * and setting the boolean to true if the given Major is associated with the passed business.
    * @param business A business who may have zero or more Majors, or null to create a Major list
    * with all unchecked boxes.
-   * @return A map of Major names to booleans indicating the majors associated with the business.
+   * @return A read-only map of Major names to booleans indicating the majors associated with the business,
+   * in the order the majors were defined.
    */
   public static Map<String, Boolean> makeMajorMap(BusinessFormData business) {
-    Map<String, Boolean> majorMap = new HashMap<String, Boolean>();
-    for (Major major : allMajors) {
-      majorMap.put(major.getName(),  (business == null) ? false : business.majors.contains(major.getName()));
-    }
-    return majorMap;
+    return (business == null) ? catalog.getOptions().noneChecked() : catalog.getOptions().checked(business.majors);
   }
 
   /**
@@ -62,12 +57,23 @@ public class Major {
    * @return The Major instance, or null.
    */
   public static Major findMajor(String majorName) {
-    for (Major major : allMajors) {
-      if (majorName.equals(major.getName())) {
-        return major;
-      }
-    }
-    return null;
+    return catalog.findByName(majorName);
+  }
+
+  /**
+   * Return the Major instance in the database with the given id or null if not found.
+   * @param id The Major id.
+   * @return The Major instance, or null.
+   */
+  public static Major findMajor(long id) {
+    return catalog.findById(id);
+  }
+
+  /**
+   * @return The catalog of all Majors.
+   */
+  public static Catalog<Major> getCatalog() {
+    return catalog;
   }
 
   @Override
@@ -76,15 +82,13 @@ public class Major {
   }
 
   /** Fake a database of majors. */
-  private static List<Major> allMajors = new ArrayList<>();
-
-  /** Instantiate the fake database of Majors. */
-  static {
-    allMajors.add(new Major(1L, "Restaurant"));
-    allMajors.add(new Major(2L, "Grocery"));
-    allMajors.add(new Major(3L, "Theatre"));
-    allMajors.add(new Major(4L, "Hotel"));
-  }
+  private static final Catalog<Major> catalog = new Catalog<>(Arrays.asList(
+    new Major(1L, "Restaurant"),
+    new Major(2L, "Grocery"),
+    new Major(3L, "Theatre"),
+    new Major(4L, "Hotel")
+  ));
+
 
 
 }
@@ -2,9 +2,7 @@ package models;
 
 import views.formdata.BusinessFormData;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -16,7 +14,7 @@ import java.util.Map;
  * <li> Some fields and methods to "fake" a database of Methods.
  * </ul>
  */
-public class Method {
+public class Method implements CatalogEntry {
   private long id;
   private String name;
 
@@ -46,14 +44,11 @@ public class Method {
    * and setting the boolean to true if a given method is associated with the passed business.
    * @param business A business who may have zero or more methods, or null to create a method list
    * with all unchecked boxes.
-   * @return A map of method names to booleans indicating the methods associated with the business.
+   * @return A read-only map of method names to booleans indicating the methods associated with the business,
+   * in the order the methods were defined.
    */
   public static Map<String, Boolean> makeMethodMap(BusinessFormData business) {
-    Map<String, Boolean> methodMap = new HashMap<String, Boolean>();
-    for (Method method : allMethods) {
-      methodMap.put(method.getName(), (business != null && business.methods.contains(method.getName())));
-    }
-    return methodMap;
+    return (business == null) ? catalog.getOptions().noneChecked() : catalog.getOptions().checked(business.methods);
   }
 
   /**
@@ -62,12 +57,23 @@ public class Method {
    * @return The Method instance, or null.
    */
   public static Method findMethod(String methodName) {
-    for (Method method : allMethods) {
-      if (methodName.equals(method.getName())) {
-        return method;
-      }
-    }
-    return null;
+    return catalog.findByName(methodName);
+  }
+
+  /**
+   * Return the Method instance in the database with the given id or null if not found.
+   * @param id The Method id.
+   * @return The Method instance, or null.
+   */
+  public static Method findMethod(long id) {
+    return catalog.findById(id);
+  }
+
+  /**
+   * @return The catalog of all Methods.
+   */
+  public static Catalog<Method> getCatalog() {
+    return catalog;
   }
 
   @Override
@@ -76,15 +82,13 @@ public class Method {
   }
 
   /** Fake a database of methods. */
-  private static List<Method> allMethods = new ArrayList<>();
-
-  /** Instantiate the fake database of methods. */
-  static {
-    allMethods.add(new Method(1L, "Web"));
-    allMethods.add(new Method(2L, "Email"));
-    allMethods.add(new Method(3L, "Text"));
-    allMethods.add(new Method(4L, "Mail"));
-  }
+  private static final Catalog<Method> catalog = new Catalog<>(Arrays.asList(
+    new Method(1L, "Web"),
+    new Method(2L, "Email"),
+    new Method(3L, "Text"),
+    new Method(4L, "Mail")
+  ));
+
 
 
 }
@@ -0,0 +1,97 @@
+package models;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, ordered list of option names, compiled once for form display.
+ * This class includes:
+ * <ul>
+ * <li> The names in display order, and an index from name to position.
+ * <li> Shared, immutable map entries for each name in its checked and unchecked state.
+ * <li> Methods to make OptionMap views that mark some of the names as checked.
+ * </ul>
+ * Rendering a form then needs one small OptionMap per field instead of a freshly filled map.
+ */
+public final class OptionList {
+
+  /** OptionMap keeps the checked state in a long. */
+  static final int MAX_OPTIONS = 64;
+
+  final String[] names;
+  final Map.Entry<String, Boolean>[] checkedEntries;
+  final Map.Entry<String, Boolean>[] uncheckedEntries;
+  private final Map<String, Integer> positions;
+  private final OptionMap noneChecked;
+
+  /**
+   * Compiles a list of option names.
+   * @param names The names, in display order.
+   */
+  @SuppressWarnings("unchecked")
+  public OptionList(List<String> names) {
+    if (names.size() > MAX_OPTIONS) {
+      throw new IllegalArgumentException("At most " + MAX_OPTIONS + " options are supported, got " + names.size());
+    }
+    this.names = names.toArray(new String[names.size()]);
+    this.checkedEntries = new Map.Entry[this.names.length];
+    this.uncheckedEntries = new Map.Entry[this.names.length];
+    this.positions = new HashMap<>();
+    for (int i = 0; i < this.names.length; i++) {
+      checkedEntries[i] = new SimpleImmutableEntry<>(this.names[i], Boolean.TRUE);
+      uncheckedEntries[i] = new SimpleImmutableEntry<>(this.names[i], Boolean.FALSE);
+      positions.put(this.names[i], i);
+    }
+    this.noneChecked = new OptionMap(this, 0L);
+  }
+
+  /**
+   * @return The number of options.
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * @param name An option name.
+   * @return The position of the name, or -1 if it is not an option.
+   */
+  public int positionOf(Object name) {
+    Integer position = positions.get(name);
+    return (position == null) ? -1 : position;
+  }
+
+  /**
+   * @return A shared map with every option unchecked.
+   */
+  public OptionMap noneChecked() {
+    return noneChecked;
+  }
+
+  /**
+   * @param checkedName The name of the checked option, or null.
+   * @return A map with only that option checked.
+   */
+  public OptionMap checked(String checkedName) {
+    int position = positionOf(checkedName);
+    return (position < 0) ? noneChecked : new OptionMap(this, 1L << position);
+  }
+
+  /**
+   * @param checkedNames The names of the checked options. Names that are not options are ignored.
+   * @return A map with those options checked.
+   */
+  public OptionMap checked(Collection<String> checkedNames) {
+    long bits = 0L;
+    for (String name : checkedNames) {
+      int position = positionOf(name);
+      if (position >= 0) {
+        bits |= 1L << position;
+      }
+    }
+    return (bits == 0L) ? noneChecked : new OptionMap(this, bits);
+  }
+}
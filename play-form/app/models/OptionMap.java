@@ -0,0 +1,82 @@
+package models;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only map of option name -> checked, as expected by the checkbox and select helpers.
+ * It is a view over a shared OptionList plus one bit per option, so making one allocates
+ * only this object, and iterating it returns the OptionList's shared entries in display order.
+ */
+public final class OptionMap extends AbstractMap<String, Boolean> {
+
+  private final OptionList options;
+  private final long checked;
+
+  OptionMap(OptionList options, long checked) {
+    this.options = options;
+    this.checked = checked;
+  }
+
+  /**
+   * @param name An option name.
+   * @return True if the option is checked.
+   */
+  public boolean isChecked(String name) {
+    int position = options.positionOf(name);
+    return position >= 0 && (checked & (1L << position)) != 0;
+  }
+
+  @Override
+  public int size() {
+    return options.names.length;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return options.positionOf(key) >= 0;
+  }
+
+  @Override
+  public Boolean get(Object key) {
+    int position = options.positionOf(key);
+    if (position < 0) {
+      return null;
+    }
+    return (checked & (1L << position)) != 0;
+  }
+
+  @Override
+  public Set<Entry<String, Boolean>> entrySet() {
+    return new AbstractSet<Entry<String, Boolean>>() {
+      @Override
+      public int size() {
+        return options.names.length;
+      }
+
+      @Override
+      public Iterator<Entry<String, Boolean>> iterator() {
+        return new Iterator<Entry<String, Boolean>>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < options.names.length;
+          }
+
+          @Override
+          public Entry<String, Boolean> next() {
+            if (next >= options.names.length) {
+              throw new NoSuchElementException();
+            }
+            int position = next++;
+            return ((checked & (1L << position)) != 0) ? options.checkedEntries[position] : options.uncheckedEntries[position];
+          }
+        };
+      }
+    };
+  }
+}
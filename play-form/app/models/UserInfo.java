@@ -0,0 +1,66 @@
+package models;
+
+/**
+ * A simple representation of a user, as stored in UserInfoDB.
+ * The password field holds the BCrypt hash, never the clear text.
+ * @author Philip Johnson
+ */
+public class UserInfo {
+  private String name;
+  private String email;
+  private String password;
+
+  /**
+   * Creates a new UserInfo instance.
+   * @param name The name.
+   * @param email The email.
+   * @param password The BCrypt hash of the password.
+   */
+  public UserInfo(String name, String email, String password) {
+    this.name = name;
+    this.email = email;
+    this.password = password;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name the name to set
+   */
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the email
+   */
+  public String getEmail() {
+    return email;
+  }
+
+  /**
+   * @param email the email to set
+   */
+  public void setEmail(String email) {
+    this.email = email;
+  }
+
+  /**
+   * @return the BCrypt hash of the password
+   */
+  public String getPassword() {
+    return password;
+  }
+
+  /**
+   * @param password the BCrypt hash to set
+   */
+  public void setPassword(String password) {
+    this.password = password;
+  }
+}
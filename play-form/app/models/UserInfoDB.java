@@ -0,0 +1,258 @@
+package models;
+
+import services.BloomFilter;
+import services.PasswordHasher;
+import services.PasswordPolicy;
+import services.VerifiedCredentialCache;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Provides an in-memory repository for UserInfo.
+ * The repository is a ConcurrentHashMap, so lookups never lock and concurrent signups only
+ * contend when they land in the same bin. Emails are trimmed and lower-cased before use as keys,
+ * so "Val@Example.com " and "val@example.com" are the same user.
+ * An email can only be signed up once. A BloomFilter of the known emails answers most checks for a new email
+ * without the map; the map's putIfAbsent remains the authoritative, atomic check.
+ * Once a UserInfoStore is attached (see Global), every change is also written to the database.
+ * @author Philip Johnson
+ */
+public class UserInfoDB {
+
+  private static final ConcurrentMap<String, UserInfo> userinfos = new ConcurrentHashMap<String, UserInfo>();
+
+  /**
+   * Checked instead of a real hash when the email is unknown, so that rejecting an unknown email
+   * costs the same BCrypt work as rejecting a wrong password and does not reveal which accounts exist.
+   * Remade whenever the PasswordPolicy cost changes, so it keeps costing the same as a real hash.
+   */
+  private static volatile String dummyHash = PasswordPolicy.hash("dummy password");
+
+  /** The database behind the map, or null to keep users in memory only. */
+  private static volatile UserInfoStore store;
+
+  /** Holds every key of the map; a key is added to it before it is added to the map. */
+  private static volatile BloomFilter emails = new BloomFilter(1_000_000, 0.01);
+
+  private static final LongAdder filterNegatives = new LongAdder();
+  private static final LongAdder filterFalsePositives = new LongAdder();
+
+  /**
+   * Replaces the filter of known emails with an empty one of the given size, filled from the map.
+   * Called at startup, before the store is attached.
+   * @param expectedEmails How many emails the filter is sized for.
+   * @param falsePositiveRate The rate at which it sends a new email to the map, e.g. 0.01.
+   */
+  public static void configureFilter(long expectedEmails, double falsePositiveRate) {
+    BloomFilter filter = new BloomFilter(expectedEmails, falsePositiveRate);
+    for (String key : userinfos.keySet()) {
+      filter.put(key);
+    }
+    emails = filter;
+  }
+
+  /**
+   * Starts persisting users to the store, after loading the users it holds.
+   * Users only known in memory are written to the store.
+   * @param newStore The store.
+   */
+  public static void attach(UserInfoStore newStore) {
+    BloomFilter filter = emails;
+    for (UserInfo userInfo : newStore.findAll()) {
+      String key = normalize(userInfo.getEmail());
+      filter.put(key);
+      userinfos.put(key, userInfo);
+    }
+    for (String key : userinfos.keySet()) {
+      newStore.sync(key);
+    }
+    store = newStore;
+  }
+
+  /** Stops persisting users; they are kept in memory only. */
+  public static void detach() {
+    store = null;
+  }
+
+  /**
+   * Signs up the specified user, unless a user with the same email already exists.
+   * @param name Their name.
+   * @param email Their email.
+   * @param password Their password.
+   * @return True if the user was added, false if the email was already taken.
+   */
+  public static boolean addUserInfo(String name, String email, String password) {
+    return addUserInfoIfAbsent(name, email, password);
+  }
+
+  /**
+   * Adds the specified user to the UserInfoDB unless a user with the same email already exists.
+   * When several threads sign up the same email at once, exactly one of them wins.
+   * Emails the filter has never seen skip the lookup; the others are looked up before paying for the hash.
+   * @param name Their name.
+   * @param email Their email.
+   * @param password Their password.
+   * @return True if the user was added, false if the email was already taken.
+   */
+  public static boolean addUserInfoIfAbsent(String name, String email, String password) {
+    String key = normalize(email);
+    if (isKnown(key)) {
+      // Skip the hash when the answer is already known.
+      return false;
+    }
+    UserInfo userInfo = new UserInfo(name, email, PasswordHasher.hashNow(password));
+    emails.put(key);
+    if (userinfos.putIfAbsent(key, userInfo) != null) {
+      return false;
+    }
+    sync(key);
+    return true;
+  }
+
+  /**
+   * Returns true if the email represents a known user.
+   * @param email The email.
+   * @return True if known user.
+   */
+  public static boolean isUser(String email) {
+    return (email != null) && isKnown(normalize(email));
+  }
+
+  /** @return True if the key is in the map, asking the filter first. */
+  private static boolean isKnown(String key) {
+    if (!emails.mightContain(key)) {
+      filterNegatives.increment();
+      return false;
+    }
+    if (!userinfos.containsKey(key)) {
+      filterFalsePositives.increment();
+      return false;
+    }
+    return true;
+  }
+
+
+  /**
+   * Returns the UserInfo associated with the email, or null if not found.
+   * @param email The email.
+   * @return The UserInfo.
+   */
+  public static UserInfo getUser(String email) {
+    return userinfos.get((email == null) ? "" : normalize(email));
+  }
+
+  /**
+   * Returns the UserInfo stored under a key, as UserInfoStore needs when writing it out.
+   * @param key The normalized email.
+   * @return The UserInfo, or null if not found.
+   */
+  public static UserInfo getStored(String key) {
+    return userinfos.get(key);
+  }
+
+  /**
+   * Returns true if email and password are valid credentials.
+   * Unknown emails are checked against a dummy hash, so every call with a password costs one BCrypt check,
+   * unless the same credentials were verified recently (see VerifiedCredentialCache).
+   * This is CPU heavy: request handlers should go through services.CredentialVerifier instead.
+   * @param email The email.
+   * @param password The password.
+   * @return True if email is a valid user email and password is valid for that email.
+   */
+  public static boolean isValid(String email, String password) {
+    if (email == null || password == null) {
+      return false;
+    }
+    return VerifiedCredentialCache.isVerified(normalize(email), password) || checkPassword(email, password);
+  }
+
+  /**
+   * Checks the credentials with BCrypt, bypassing the VerifiedCredentialCache lookup,
+   * and remembers them in the cache if they are valid.
+   * @param email The email.
+   * @param password The password.
+   * @return True if email is a valid user email and password is valid for that email.
+   */
+  public static boolean checkPassword(String email, String password) {
+    if (email == null || password == null) {
+      return false;
+    }
+    String key = normalize(email);
+    // Read the user once; a second lookup could see it removed or replaced in between.
+    UserInfo userInfo = userinfos.get(key);
+    if (userInfo == null) {
+      PasswordHasher.checkNow(password, dummyHash());
+      return false;
+    }
+    if (!PasswordHasher.checkNow(password, userInfo.getPassword())) {
+      return false;
+    }
+    if (PasswordPolicy.needsRehash(userInfo.getPassword())) {
+      // The password was hashed at a lower cost than this host now uses; upgrade it while we know it.
+      UserInfo upgraded = new UserInfo(userInfo.getName(), userInfo.getEmail(), PasswordHasher.hashNow(password));
+      if (userinfos.replace(key, userInfo, upgraded)) {
+        userInfo = upgraded;
+        sync(key);
+      }
+    }
+    VerifiedCredentialCache.remember(key, password);
+    // If the user was replaced meanwhile, e.g. by a rehash, don't keep a stale entry.
+    if (userinfos.get(key) != userInfo) {
+      VerifiedCredentialCache.invalidate(key);
+    }
+    return true;
+  }
+
+  /**
+   * @return The dummy hash, made at the current PasswordPolicy cost.
+   */
+  private static String dummyHash() {
+    String hash = dummyHash;
+    if (PasswordPolicy.logRoundsOf(hash) != PasswordPolicy.getLogRounds()) {
+      hash = PasswordPolicy.hash("dummy password");
+      dummyHash = hash;
+    }
+    return hash;
+  }
+
+  /** Queues a write of the user's current state, if a store is attached. */
+  private static void sync(String key) {
+    UserInfoStore currentStore = store;
+    if (currentStore != null) {
+      currentStore.sync(key);
+    }
+  }
+
+  /**
+   * @return The number of emails found new by the filter alone.
+   */
+  public static long getFilterNegatives() {
+    return filterNegatives.sum();
+  }
+
+  /**
+   * @return The number of emails the filter took for known that weren't.
+   */
+  public static long getFilterFalsePositives() {
+    return filterFalsePositives.sum();
+  }
+
+  /**
+   * @return The number of known users.
+   */
+  public static int size() {
+    return userinfos.size();
+  }
+
+  /**
+   * Turns an email into the key it is stored under.
+   * @param email The email.
+   * @return The trimmed, lower-cased email.
+   */
+  public static String normalize(String email) {
+    return email.trim().toLowerCase(Locale.ENGLISH);
+  }
+}
@@ -0,0 +1,82 @@
+package models;
+
+import play.libs.F.Promise;
+import services.GroupCommitWriter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the users of UserInfoDB in the database.
+ * Users are read once at startup and written through a GroupCommitWriter, keyed by their normalized email.
+ * As in BusinessStore, a write stores whatever UserInfoDB holds for the key when its batch is built.
+ * The schema is in conf/evolutions/default/1.sql.
+ */
+public class UserInfoStore {
+
+  private static final String SELECT_ALL = "SELECT name, email, password FROM user_info";
+  private static final String MERGE = "MERGE INTO user_info (email_key, name, email, password) KEY (email_key) VALUES (?, ?, ?, ?)";
+  private static final String DELETE = "DELETE FROM user_info WHERE email_key = ?";
+
+  private final DataSource dataSource;
+  private final GroupCommitWriter writer;
+  private final Function<String, UserInfo> current;
+
+  /**
+   * @param dataSource Where reads get their connections.
+   * @param writer The writer applying the writes.
+   * @param current Gives the current in-memory user for a normalized email, or null if there is none.
+   */
+  public UserInfoStore(DataSource dataSource, GroupCommitWriter writer, Function<String, UserInfo> current) {
+    this.dataSource = dataSource;
+    this.writer = writer;
+    this.current = current;
+  }
+
+  /**
+   * @return Every stored user.
+   */
+  public List<UserInfo> findAll() {
+    try (Connection connection = dataSource.getConnection();
+         PreparedStatement select = connection.prepareStatement(SELECT_ALL);
+         ResultSet rows = select.executeQuery()) {
+      List<UserInfo> users = new ArrayList<>();
+      while (rows.next()) {
+        users.add(new UserInfo(rows.getString(1), rows.getString(2), rows.getString(3)));
+      }
+      return users;
+    }
+    catch (SQLException e) {
+      throw new RuntimeException("Couldn't load the users", e);
+    }
+  }
+
+  /**
+   * Queues a write of the user stored under this key.
+   * @param key The normalized email of the user.
+   * @return A promise redeemed when the write has been committed.
+   */
+  public Promise<Void> sync(final String key) {
+    return writer.submit(batch -> {
+      UserInfo userInfo = current.apply(key);
+      if (userInfo == null) {
+        PreparedStatement delete = batch.statement(DELETE);
+        delete.setString(1, key);
+        delete.addBatch();
+        return;
+      }
+      PreparedStatement merge = batch.statement(MERGE);
+      merge.setString(1, key);
+      merge.setString(2, userInfo.getName());
+      merge.setString(3, userInfo.getEmail());
+      merge.setString(4, userInfo.getPassword());
+      merge.addBatch();
+    });
+  }
+}
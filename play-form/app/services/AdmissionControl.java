@@ -0,0 +1,90 @@
+package services;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests for CPU-heavy actions go ahead, before they cost anything. See Admitted.
+ * This class includes:
+ * <ul>
+ * <li> Token buckets per client IP and per submitted name, so a few clients or one target can't take every core.
+ * <li> A ConcurrencyLimiter over all clients, whose limit follows the latency of the admitted requests.
+ * <li> Counters of the requests turned away by each of them.
+ * </ul>
+ * Admission control is off until enabled through configure(), see Global.
+ */
+public class AdmissionControl {
+
+  private static volatile boolean enabled = false;
+  private static volatile TokenBucketLimiter ipLimiter = new TokenBucketLimiter(20, 2, 10 * 60 * 1000);
+  private static volatile TokenBucketLimiter nameLimiter = new TokenBucketLimiter(5, 0.2, 10 * 60 * 1000);
+  private static volatile ConcurrencyLimiter concurrency = new ConcurrencyLimiter(16, 1, 256, 2);
+
+  private static final LongAdder ipRejections = new LongAdder();
+  private static final LongAdder nameRejections = new LongAdder();
+
+  /**
+   * Turns admission control on or off and replaces its limiters.
+   * @param enable True to limit requests.
+   * @param perIp The bucket of each client IP.
+   * @param perName The bucket of each submitted name.
+   * @param limiter The limit on requests in flight.
+   */
+  public static void configure(boolean enable, TokenBucketLimiter perIp, TokenBucketLimiter perName,
+      ConcurrencyLimiter limiter) {
+    ipLimiter = perIp;
+    nameLimiter = perName;
+    concurrency = limiter;
+    enabled = enable;
+  }
+
+  /**
+   * @return True if requests are limited.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Takes a token for the client and, if given, for the name.
+   * The name's token is only taken once the client's was, so a client over its limit can't use up a name's.
+   * @param remoteAddress The address of the client.
+   * @param name The submitted name, or null.
+   * @return 0 if the request may go ahead, otherwise the number of seconds to wait, at least 1.
+   */
+  public static long checkRate(String remoteAddress, String name) {
+    long wait = ipLimiter.tryAcquire(remoteAddress);
+    if (wait > 0) {
+      ipRejections.increment();
+    }
+    else if (name != null && !name.isEmpty()) {
+      wait = nameLimiter.tryAcquire(name.trim().toLowerCase(Locale.ROOT));
+      if (wait > 0) {
+        nameRejections.increment();
+      }
+    }
+    return (wait == 0) ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait));
+  }
+
+  /**
+   * @return The limiter of requests in flight.
+   */
+  public static ConcurrencyLimiter getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * @return The number of requests turned away by the per IP buckets.
+   */
+  public static long getIpRejections() {
+    return ipRejections.sum();
+  }
+
+  /**
+   * @return The number of requests turned away by the per name buckets.
+   */
+  public static long getNameRejections() {
+    return nameRejections.sum();
+  }
+}
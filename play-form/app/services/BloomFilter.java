@@ -0,0 +1,105 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of strings that many threads may add to and query at once.
+ * This class includes:
+ * <ul>
+ * <li> Sizing from the expected number of strings and the accepted false positive rate,
+ * e.g. about 12MB and 7 hashes for 10 million strings at 1%.
+ * <li> Bits kept in an AtomicLongArray, set with compare-and-set: adds never lock, and a string
+ * is reported as present by every query that starts after its add returns.
+ * <li> The k bit positions derived from one 64-bit hash of the string by double hashing.
+ * </ul>
+ * mightContain() never answers false for a string that was added; it answers true for a string that wasn't
+ * at about the configured rate, until more strings than expected have been added.
+ */
+public class BloomFilter {
+
+  private final AtomicLongArray words;
+  private final long bits;
+  private final int hashes;
+
+  /**
+   * Creates an empty filter.
+   * @param expectedInsertions How many strings the filter is sized for.
+   * @param falsePositiveRate The rate of false positives once that many were added, e.g. 0.01.
+   */
+  public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+    if (expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("Need expectedInsertions >= 1 and 0 < falsePositiveRate < 1");
+    }
+    long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    int wordCount = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) >>> 6));
+    this.words = new AtomicLongArray(wordCount);
+    this.bits = (long) wordCount << 6;
+    this.hashes = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+  }
+
+  /**
+   * Adds a string.
+   * @param value The string.
+   */
+  public void put(String value) {
+    long hash = hash(value);
+    long h1 = hash;
+    long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+      int index = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long word = words.get(index);
+      while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+        word = words.get(index);
+      }
+    }
+  }
+
+  /**
+   * @param value The string.
+   * @return False if the string was certainly never added, true if it probably was.
+   */
+  public boolean mightContain(String value) {
+    long hash = hash(value);
+    long h1 = hash;
+    long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = ((h1 + i * h2) & Long.MAX_VALUE) % bits;
+      if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The number of bits.
+   */
+  public long getBits() {
+    return bits;
+  }
+
+  /**
+   * @return The number of bits set per string.
+   */
+  public int getHashes() {
+    return hashes;
+  }
+
+  /** FNV-1a over the characters, then mixed so that every input bit affects every output bit. */
+  private static long hash(String value) {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+    }
+    return mix(hash);
+  }
+
+  /** The finalizer of SplitMix64. */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,129 @@
+package services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import models.Business;
+import models.CatalogEntry;
+import services.BusinessImporter.Format;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Exports every business as CSV or newline-delimited JSON, in the columns BusinessImporter reads.
+ * Rows are written in id order, a chunk of rows at a time, so the whole export is never held in memory.
+ * Password hashes are never exported.
+ */
+public class BusinessExporter {
+
+  /** Rows per chunk passed to the consumer. */
+  static final int CHUNK_ROWS = 256;
+
+  private static final String CSV_HEADER = "id,name,level,period,methods,majors\n";
+
+  /**
+   * Writes every business.
+   * @param format The output format.
+   * @param out Receives the output, a chunk at a time.
+   */
+  public static void export(Format format, Consumer<String> out) {
+    long[] ids = ids();
+    Arrays.sort(ids);
+    StringWriter chunk = new StringWriter(CHUNK_ROWS * 96);
+    if (format == Format.CSV) {
+      chunk.write(CSV_HEADER);
+    }
+    int rows = 0;
+    for (long id : ids) {
+      Business business = Business.getRepository().get(id);
+      if (business == null) {
+        // Deleted since the ids were taken.
+        continue;
+      }
+      if (format == Format.CSV) {
+        writeCsv(business, chunk);
+      }
+      else {
+        writeJson(business, chunk);
+      }
+      if (++rows % CHUNK_ROWS == 0) {
+        out.accept(chunk.toString());
+        chunk.getBuffer().setLength(0);
+      }
+    }
+    if (chunk.getBuffer().length() > 0) {
+      out.accept(chunk.toString());
+    }
+  }
+
+  private static long[] ids() {
+    long[][] ids = {new long[Math.max(16, Business.getRepository().size())]};
+    int[] count = {0};
+    Business.getRepository().forEach(business -> {
+      if (count[0] == ids[0].length) {
+        ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+      }
+      ids[0][count[0]++] = business.getId();
+    });
+    return Arrays.copyOf(ids[0], count[0]);
+  }
+
+  private static void writeCsv(Business business, StringWriter out) {
+    out.write(Long.toString(business.getId()));
+    out.write(',');
+    writeCsvField(business.getName(), out);
+    out.write(',');
+    writeCsvField(business.getLevel(), out);
+    out.write(',');
+    writeCsvField((business.getDuration() == null) ? "" : business.getDuration().getName(), out);
+    out.write(',');
+    writeCsvField(joinNames(business.getMethods()), out);
+    out.write(',');
+    writeCsvField(joinNames(business.getMajors()), out);
+    out.write('\n');
+  }
+
+  /** Quotes the field if it holds a comma, a quote or a line break, doubling its quotes. */
+  private static void writeCsvField(String value, StringWriter out) {
+    if (value == null) {
+      return;
+    }
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char c = value.charAt(i);
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if (!quote) {
+      out.write(value);
+      return;
+    }
+    out.write('"');
+    out.write(value.replace("\"", "\"\""));
+    out.write('"');
+  }
+
+  private static String joinNames(List<? extends CatalogEntry> entries) {
+    StringBuilder names = new StringBuilder();
+    for (CatalogEntry entry : entries) {
+      if (names.length() > 0) {
+        names.append(';');
+      }
+      names.append(entry.getName());
+    }
+    return names.toString();
+  }
+
+  private static void writeJson(Business business, StringWriter out) {
+    try (JsonGenerator generator = BusinessJson.FACTORY.createGenerator(out)) {
+      BusinessJson.write(generator, business);
+    }
+    catch (IOException e) {
+      // A StringWriter never fails.
+      throw new UncheckedIOException(e);
+    }
+    out.write('\n');
+  }
+}
@@ -0,0 +1,458 @@
+package services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import models.Business;
+import play.Logger;
+import play.data.validation.ValidationError;
+import play.libs.F.Promise;
+import views.formdata.BusinessFormData;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Imports businesses in bulk from a CSV or newline-delimited JSON stream.
+ * This class includes:
+ * <ul>
+ * <li> Row-at-a-time parsing, so a body of any size is read without holding it in memory.
+ * <li> Validation of each row by the rules of BusinessFormData.validate, as for the form, a batch at a time
+ * on the fork-join pool.
+ * <li> Password hashing on the PasswordHasher pool, a few rows ahead of the row being stored,
+ * falling back to the import thread when the pool is saturated.
+ * <li> Storage in batches: each batch waits for one Business.flush, and its results are only reported after it.
+ * <li> One JSON line of results per row, then a summary line.
+ * </ul>
+ * A CSV input starts with a header naming its columns among id, name, password, level, period, methods and majors.
+ * Several methods or majors go in one cell, separated by semicolons. A JSON row is an object with the same fields,
+ * methods and majors being arrays. A row with an id updates that business, keeping its password if the row's is blank;
+ * otherwise a new one is created.
+ */
+public class BusinessImporter {
+
+  /** The supported input formats. */
+  public enum Format {
+    /** Comma-separated values with a header. */
+    CSV,
+    /** One JSON object per line. */
+    NDJSON;
+
+    /**
+     * @param contentType A Content-Type header, or null.
+     * @return The matching format, or null if not supported.
+     */
+    public static Format of(String contentType) {
+      if (contentType == null) {
+        return null;
+      }
+      String type = contentType.toLowerCase(Locale.ENGLISH);
+      if (type.startsWith("text/csv")) {
+        return CSV;
+      }
+      if (type.startsWith("application/x-ndjson") || type.startsWith("application/ndjson")
+          || type.startsWith("application/json")) {
+        return NDJSON;
+      }
+      return null;
+    }
+  }
+
+  /** Rows stored per Business.flush. */
+  static final int BATCH_SIZE = 128;
+
+  /** How long a row may wait for its hash, or a batch for its flush. */
+  private static final long TIMEOUT_SECONDS = 60;
+
+  /** Imports allowed at once; each keeps up to a pool's worth of hashes in flight. */
+  private static final int MAX_IMPORTS = 2;
+
+  private static final Semaphore running = new Semaphore(MAX_IMPORTS);
+
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  private static final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "bulk-import-" + threadCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Reserves a slot for an import, to be passed on to start().
+   * @return True if a slot was free.
+   */
+  public static boolean tryReserve() {
+    return running.tryAcquire();
+  }
+
+  /**
+   * Releases a slot reserved by tryReserve() that will not be passed on to start().
+   */
+  public static void release() {
+    running.release();
+  }
+
+  /**
+   * Runs an import on a background thread, in a slot reserved by tryReserve().
+   * @param body The input. Closed when the import ends.
+   * @param format The format of the input.
+   * @param out Receives the results, a batch of JSON lines at a time.
+   * @param done Called once the last results were passed to out.
+   */
+  public static void start(InputStream body, Format format, Consumer<String> out, Runnable done) {
+    executor.execute(() -> {
+      try (InputStream in = body) {
+        new BusinessImporter(format, out).run(in);
+      }
+      catch (IOException | RuntimeException e) {
+        Logger.error("Bulk import failed", e);
+      }
+      finally {
+        running.release();
+        done.run();
+      }
+    });
+  }
+
+  private final Format format;
+  private final Consumer<String> out;
+  private final Map<String, Integer> counts = new LinkedHashMap<>();
+
+  private BusinessImporter(Format format, Consumer<String> out) {
+    this.format = format;
+    this.out = out;
+    for (String status : new String[] {"created", "updated", "invalid", "failed"}) {
+      counts.put(status, 0);
+    }
+  }
+
+  private void run(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    RowReader rows = (format == Format.CSV) ? new CsvRows(reader) : new JsonRows(reader);
+    List<Row> batch = new ArrayList<>(BATCH_SIZE);
+    boolean more = true;
+    while (more) {
+      Row row;
+      try {
+        row = rows.next();
+      }
+      catch (IOException e) {
+        // The input cannot be resynchronized, e.g. after an unterminated quote.
+        row = new Row(rows.failedRow());
+        row.error = e.getMessage();
+        more = false;
+      }
+      if (row == null) {
+        more = false;
+      }
+      else {
+        batch.add(row);
+      }
+      if (batch.size() == BATCH_SIZE || (!more && !batch.isEmpty())) {
+        store(batch);
+        batch.clear();
+      }
+    }
+    StringWriter summary = new StringWriter();
+    try (JsonGenerator generator = BusinessJson.FACTORY.createGenerator(summary)) {
+      generator.writeStartObject();
+      generator.writeObjectFieldStart("summary");
+      for (Map.Entry<String, Integer> count : counts.entrySet()) {
+        generator.writeNumberField(count.getKey(), count.getValue());
+      }
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+    out.accept(summary.append('\n').toString());
+  }
+
+  /** Validates the parsed rows of a batch together, on the fork-join pool. */
+  private static void validate(List<Row> batch) {
+    List<BusinessFormData> forms = new ArrayList<>(batch.size());
+    for (Row row : batch) {
+      if (row.error == null) {
+        forms.add(row.data);
+      }
+    }
+    List<List<ValidationError>> errors = BusinessFormData.validateAll(forms);
+    int next = 0;
+    for (Row row : batch) {
+      if (row.error == null) {
+        row.errors = errors.get(next++);
+      }
+    }
+  }
+
+  /** Validates, hashes and stores a batch, then reports its results. */
+  private void store(List<Row> batch) throws IOException {
+    // Let the database catch up rather than grow the write-behind log past its bound.
+    while (Business.isBacklogged()) {
+      try {
+        Thread.sleep(100);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for the database", e);
+      }
+    }
+    validate(batch);
+    int inFlightLimit = PasswordHasher.getPoolSize();
+    int oldestPending = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      Row row = batch.get(i);
+      if (!row.isValid() || Business.keepsPassword(row.data)) {
+        continue;
+      }
+      // Stay at most a pool's worth of hashes ahead, so signups keep getting a share of the pool.
+      while (countHashing(batch, oldestPending, i) >= inFlightLimit) {
+        await(batch.get(oldestPending));
+        oldestPending++;
+      }
+      try {
+        row.hashing = PasswordHasher.hash(row.data.password);
+      }
+      catch (RejectedExecutionException e) {
+        row.hash = PasswordHasher.hashNow(row.data.password);
+      }
+    }
+    boolean anyStored = false;
+    for (Row row : batch) {
+      if (!row.isValid()) {
+        continue;
+      }
+      await(row);
+      if (row.error != null) {
+        continue;
+      }
+      Business business = Business.makeInstance(row.data, row.hash);
+      if (business.getId() == 0) {
+        Business.save(business);
+        row.status = "created";
+      }
+      else if (Business.update(business)) {
+        PageCache.invalidate(business.getId());
+        row.status = "updated";
+      }
+      else {
+        row.error = "Couldn't find business " + business.getId() + ".";
+        continue;
+      }
+      row.id = business.getId();
+      anyStored = true;
+    }
+    if (anyStored) {
+      try {
+        Business.flush().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+      catch (RuntimeException e) {
+        Logger.error("Couldn't store a batch of imported businesses", e);
+        for (Row row : batch) {
+          if (row.status != null) {
+            row.status = null;
+            row.error = "Couldn't store the business: " + e.getMessage();
+          }
+        }
+      }
+    }
+    report(batch);
+  }
+
+  private static int countHashing(List<Row> batch, int from, int to) {
+    int hashing = 0;
+    for (int i = from; i < to; i++) {
+      if (batch.get(i).hashing != null) {
+        hashing++;
+      }
+    }
+    return hashing;
+  }
+
+  /** Waits for the row's hash, if it is being computed on the pool. */
+  private static void await(Row row) {
+    if (row.hashing == null) {
+      return;
+    }
+    try {
+      row.hash = row.hashing.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    catch (RuntimeException e) {
+      row.error = "Couldn't hash the password: " + e.getMessage();
+    }
+    row.hashing = null;
+  }
+
+  private void report(List<Row> batch) throws IOException {
+    StringWriter lines = new StringWriter(batch.size() * 64);
+    try (JsonGenerator generator = BusinessJson.FACTORY.createGenerator(lines)) {
+      for (Row row : batch) {
+        String status = (row.status != null) ? row.status : (row.errors != null) ? "invalid" : "failed";
+        counts.put(status, counts.get(status) + 1);
+        generator.writeStartObject();
+        generator.writeNumberField("row", row.number);
+        generator.writeStringField("status", status);
+        if (row.status != null) {
+          generator.writeNumberField("id", row.id);
+        }
+        else if (row.errors != null) {
+          generator.writeFieldName("errors");
+          BusinessJson.writeErrors(generator, row.errors);
+        }
+        else {
+          generator.writeStringField("error", row.error);
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+      }
+    }
+    out.accept(lines.toString());
+  }
+
+  /** One input row on its way through the import. */
+  private static final class Row {
+    final long number;
+    BusinessFormData data = new BusinessFormData();
+    /** Why the row could not be read or stored, or null. */
+    String error;
+    /** The validation errors, or null if the row is valid. */
+    List<ValidationError> errors;
+    Promise<String> hashing;
+    String hash;
+    String status;
+    long id;
+
+    Row(long number) {
+      this.number = number;
+    }
+
+    boolean isValid() {
+      return error == null && errors == null;
+    }
+  }
+
+  /** Reads rows, skipping blank lines. */
+  private interface RowReader {
+    /**
+     * @return The next row, or null at the end of the input.
+     * @throws IOException If the input cannot be read any further.
+     */
+    Row next() throws IOException;
+
+    /**
+     * @return The number of the row next() just failed to read.
+     */
+    long failedRow();
+  }
+
+  /** Reads CSV rows, numbered by the line they start on. */
+  private static final class CsvRows implements RowReader {
+    private final CsvReader csv;
+    private Map<String, Integer> columns;
+
+    CsvRows(BufferedReader reader) {
+      this.csv = new CsvReader(reader);
+    }
+
+    @Override
+    public Row next() throws IOException {
+      if (columns == null) {
+        List<String> header = csv.readRecord();
+        if (header == null) {
+          return null;
+        }
+        columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+          columns.put(header.get(i).trim().toLowerCase(Locale.ENGLISH), i);
+        }
+      }
+      List<String> cells;
+      do {
+        cells = csv.readRecord();
+      } while (cells != null && cells.size() == 1 && cells.get(0).isEmpty());
+      if (cells == null) {
+        return null;
+      }
+      Row row = new Row(csv.getRecordLine());
+      BusinessFormData data = row.data;
+      data.id = cell(cells, "id");
+      data.name = cell(cells, "name");
+      data.password = cell(cells, "password");
+      data.level = cell(cells, "level");
+      data.period = cell(cells, "period");
+      data.methods = split(cell(cells, "methods"));
+      data.majors = split(cell(cells, "majors"));
+      return row;
+    }
+
+    @Override
+    public long failedRow() {
+      // The reader takes the line of a record before reading it.
+      return csv.getRecordLine();
+    }
+
+    private String cell(List<String> cells, String column) {
+      Integer index = columns.get(column);
+      return (index == null || index >= cells.size()) ? "" : cells.get(index).trim();
+    }
+
+    private static List<String> split(String cell) {
+      List<String> values = new ArrayList<>();
+      for (String value : cell.split(";")) {
+        if (!value.trim().isEmpty()) {
+          values.add(value.trim());
+        }
+      }
+      return values;
+    }
+  }
+
+  /** Reads one JSON object per line, numbered by line. */
+  private static final class JsonRows implements RowReader {
+    private final BufferedReader reader;
+    private long line = 0;
+
+    JsonRows(BufferedReader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public Row next() throws IOException {
+      String text;
+      do {
+        text = reader.readLine();
+        line++;
+      } while (text != null && text.trim().isEmpty());
+      if (text == null) {
+        return null;
+      }
+      Row row = new Row(line);
+      try (JsonParser parser = BusinessJson.FACTORY.createParser(text)) {
+        row.data = BusinessJson.read(parser);
+      }
+      catch (IOException e) {
+        // A malformed line only spoils its own row.
+        row.error = "Invalid JSON: " + e.getMessage();
+      }
+      return row;
+    }
+
+    @Override
+    public long failedRow() {
+      return line + 1;
+    }
+  }
+}
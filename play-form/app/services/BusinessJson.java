@@ -0,0 +1,151 @@
+package services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import models.Business;
+import models.CatalogEntry;
+import play.data.validation.ValidationError;
+import views.formdata.BusinessFormData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The JSON representation of businesses, read and written token by token with the Jackson streaming API.
+ * This class includes:
+ * <ul>
+ * <li> Reading a business object into a BusinessFormData, to be validated like the form.
+ * <li> Writing a business, without its password.
+ * <li> Writing validation errors, grouped by field.
+ * </ul>
+ * A business is an object with id, name, password, level and period fields, and methods and majors arrays.
+ * No tree of nodes is built either way.
+ */
+public class BusinessJson {
+
+  /** Shared by every parser and generator; thread safe once configured. */
+  public static final JsonFactory FACTORY = new JsonFactory();
+
+  /**
+   * Reads the next business object. Unknown fields are skipped.
+   * @param parser The parser, before the start of the object.
+   * @return The form data.
+   * @throws IOException If the input is not JSON, or not an object.
+   */
+  public static BusinessFormData read(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new JsonParseException("Expected a JSON object.", parser.getCurrentLocation());
+    }
+    BusinessFormData data = new BusinessFormData();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      switch (field) {
+        case "id":
+          data.id = scalar(parser, value);
+          break;
+        case "name":
+          data.name = scalar(parser, value);
+          break;
+        case "password":
+          data.password = scalar(parser, value);
+          break;
+        case "level":
+          data.level = scalar(parser, value);
+          break;
+        case "period":
+          data.period = scalar(parser, value);
+          break;
+        case "methods":
+          data.methods = strings(parser, value);
+          break;
+        case "majors":
+          data.majors = strings(parser, value);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Writes a business as an object. The password hash is never written.
+   * @param generator The generator.
+   * @param business The business.
+   * @throws IOException If the output cannot be written.
+   */
+  public static void write(JsonGenerator generator, Business business) throws IOException {
+    generator.writeStartObject();
+    generator.writeNumberField("id", business.getId());
+    generator.writeStringField("name", business.getName());
+    generator.writeStringField("level", business.getLevel());
+    generator.writeStringField("period", (business.getDuration() == null) ? null : business.getDuration().getName());
+    writeNames(generator, "methods", business.getMethods());
+    writeNames(generator, "majors", business.getMajors());
+    generator.writeEndObject();
+  }
+
+  /**
+   * Writes validation errors as an object from each field to its messages.
+   * @param generator The generator.
+   * @param errors The errors.
+   * @throws IOException If the output cannot be written.
+   */
+  public static void writeErrors(JsonGenerator generator, List<ValidationError> errors) throws IOException {
+    Map<String, List<String>> byField = new LinkedHashMap<>();
+    for (ValidationError error : errors) {
+      byField.computeIfAbsent(error.key(), key -> new ArrayList<>()).add(error.message());
+    }
+    generator.writeStartObject();
+    for (Map.Entry<String, List<String>> field : byField.entrySet()) {
+      generator.writeArrayFieldStart(field.getKey());
+      for (String message : field.getValue()) {
+        generator.writeString(message);
+      }
+      generator.writeEndArray();
+    }
+    generator.writeEndObject();
+  }
+
+  private static void writeNames(JsonGenerator generator, String field, List<? extends CatalogEntry> entries)
+      throws IOException {
+    generator.writeArrayFieldStart(field);
+    for (CatalogEntry entry : entries) {
+      generator.writeString(entry.getName());
+    }
+    generator.writeEndArray();
+  }
+
+  private static String scalar(JsonParser parser, JsonToken value) throws IOException {
+    if (value == JsonToken.VALUE_NULL) {
+      return "";
+    }
+    if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return "";
+    }
+    return parser.getText();
+  }
+
+  private static List<String> strings(JsonParser parser, JsonToken value) throws IOException {
+    List<String> values = new ArrayList<>();
+    if (value == JsonToken.START_ARRAY) {
+      JsonToken element = parser.nextToken();
+      while (element != null && element != JsonToken.END_ARRAY) {
+        values.add(scalar(parser, element));
+        element = parser.nextToken();
+      }
+    }
+    else if (value != JsonToken.VALUE_NULL) {
+      values.add(scalar(parser, value));
+    }
+    return values;
+  }
+}
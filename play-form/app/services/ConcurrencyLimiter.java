@@ -0,0 +1,122 @@
+package services;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how many requests may do CPU-heavy work at once, with a bound that follows their latency.
+ * This class includes:
+ * <ul>
+ * <li> Admission with a single compare-and-set on the in-flight count: a request over the limit is turned away
+ * without waiting or locking.
+ * <li> A baseline latency, the lowest seen recently, drifting up slowly so it follows a host that got slower.
+ * <li> An additive increase of the limit while requests finish near the baseline and the limit is in use,
+ * and a multiplicative decrease, at most once per baseline, when they take much longer or are dropped
+ * (Vegas and AIMD congestion control, applied to work instead of packets).
+ * </ul>
+ */
+public class ConcurrencyLimiter {
+
+  /** How much of the limit is kept on a decrease. */
+  private static final double BACKOFF = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+
+  /** Written under the lock, read without it on every admission. */
+  private volatile double limit;
+
+  private long baselineNanos = Long.MAX_VALUE;
+  private long lastDecrease = System.nanoTime();
+
+  /**
+   * Creates a limiter.
+   * @param initialLimit The limit before any latency has been seen.
+   * @param minLimit The lowest the limit may go.
+   * @param maxLimit The highest the limit may go.
+   * @param tolerance How many times the baseline latency a request may take before it counts as congestion, e.g. 2.
+   */
+  public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+    if (minLimit < 1 || minLimit > maxLimit || tolerance <= 1) {
+      throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit and tolerance > 1");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Admits a request if fewer than the limit are in flight. An admitted request must call release() once done.
+   * @return True if admitted.
+   */
+  public boolean tryAcquire() {
+    int max = (int) limit;
+    int current = inFlight.get();
+    while (current < max) {
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+      current = inFlight.get();
+    }
+    rejected.increment();
+    return false;
+  }
+
+  /**
+   * Ends an admitted request and adjusts the limit to its latency.
+   * @param startNanos When the request was admitted, from System.nanoTime().
+   * @param dropped True if the request was turned away further on, e.g. by a full pool, which counts as congestion.
+   */
+  public void release(long startNanos, boolean dropped) {
+    long now = System.nanoTime();
+    int current = inFlight.getAndDecrement();
+    sample(now, now - startNanos, current, dropped);
+  }
+
+  private synchronized void sample(long now, long latencyNanos, int inFlightAtEnd, boolean dropped) {
+    if (latencyNanos < baselineNanos) {
+      baselineNanos = Math.max(1, latencyNanos);
+    }
+    else {
+      baselineNanos += (latencyNanos - baselineNanos) >> 8;
+    }
+    double current = limit;
+    if (dropped || latencyNanos > tolerance * baselineNanos) {
+      // Decrease once per round trip, however many of its requests report the congestion.
+      if (now - lastDecrease > Math.max(baselineNanos, TimeUnit.MILLISECONDS.toNanos(1))) {
+        limit = Math.max(minLimit, current * BACKOFF);
+        lastDecrease = now;
+      }
+    }
+    else if (inFlightAtEnd * 2 >= current) {
+      // Only grow a limit that is being used, by about one per limit's worth of requests.
+      limit = Math.min(maxLimit, current + 1 / current);
+    }
+  }
+
+  /**
+   * @return The current limit.
+   */
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return The number of requests admitted and not released.
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * @return The number of requests turned away so far.
+   */
+  public long getRejected() {
+    return rejected.sum();
+  }
+}
@@ -0,0 +1,110 @@
+package services;
+
+import models.UserInfoDB;
+import play.libs.F.Promise;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks login credentials without letting a flood of attempts take over the server.
+ * This class includes:
+ * <ul>
+ * <li> Token-bucket rate limits per client IP and per email, applied before any BCrypt work.
+ * <li> A lookup in the VerifiedCredentialCache, which answers repeat logins without BCrypt.
+ * <li> The BCrypt check itself, run on the PasswordHasher pool rather than a request thread.
+ * Unknown emails are checked against a dummy hash (see UserInfoDB.checkPassword) so they cost the same.
+ * <li> A cap on in-flight verifications, so logins can use at most half the hashing pool
+ * and signups keep making progress during a credential-stuffing flood.
+ * </ul>
+ */
+public class CredentialVerifier {
+
+  /** The possible outcomes of a verification. */
+  public enum Outcome {
+    /** The credentials are valid. */
+    VALID,
+    /** The email is unknown or the password is wrong. */
+    INVALID,
+    /** The client IP or the email has made too many attempts. */
+    RATE_LIMITED,
+    /** Too many verifications are already in progress. */
+    OVERLOADED
+  }
+
+  /** The result of a verification, with a retry delay for the rejected outcomes. */
+  public static class Verification {
+    private final Outcome outcome;
+    private final long retryAfterSeconds;
+
+    Verification(Outcome outcome, long retryAfterSeconds) {
+      this.outcome = outcome;
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the outcome
+     */
+    public Outcome getOutcome() {
+      return outcome;
+    }
+
+    /**
+     * @return the number of seconds to wait before retrying, or 0 if the check ran
+     */
+    public long getRetryAfterSeconds() {
+      return retryAfterSeconds;
+    }
+  }
+
+  private static final Verification VALID = new Verification(Outcome.VALID, 0);
+  private static final Verification INVALID = new Verification(Outcome.INVALID, 0);
+  private static final Verification OVERLOADED = new Verification(Outcome.OVERLOADED, 1);
+
+  /** Per client IP: bursts of 20 attempts, then one every 3 seconds. */
+  private static final TokenBucketLimiter ipLimiter = new TokenBucketLimiter(20, 1.0 / 3, 10 * 60 * 1000);
+
+  /** Per email: bursts of 5 attempts, then one every 12 seconds. */
+  private static final TokenBucketLimiter emailLimiter = new TokenBucketLimiter(5, 1.0 / 12, 10 * 60 * 1000);
+
+  /** Verifications allowed to run or wait on the hashing pool at once. */
+  private static final Semaphore inFlight = new Semaphore(Math.max(1, PasswordHasher.getPoolSize() / 2));
+
+  /**
+   * Verifies the credentials on the hashing pool, subject to rate limits.
+   * @param email The email.
+   * @param password The password.
+   * @param remoteAddress The address of the client making the attempt.
+   * @return A promise of the verification.
+   */
+  public static Promise<Verification> verify(final String email, final String password, String remoteAddress) {
+    long wait = ipLimiter.tryAcquire(remoteAddress);
+    if (wait == 0 && email != null) {
+      wait = emailLimiter.tryAcquire(UserInfoDB.normalize(email));
+    }
+    if (wait > 0) {
+      return Promise.pure(new Verification(Outcome.RATE_LIMITED, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait))));
+    }
+    if (email != null && password != null && VerifiedCredentialCache.isVerified(UserInfoDB.normalize(email), password)) {
+      return Promise.pure(VALID);
+    }
+    if (!inFlight.tryAcquire()) {
+      return Promise.pure(OVERLOADED);
+    }
+    try {
+      return PasswordHasher.submit(() -> {
+        try {
+          return UserInfoDB.checkPassword(email, password) ? VALID : INVALID;
+        }
+        finally {
+          inFlight.release();
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      inFlight.release();
+      return Promise.pure(OVERLOADED);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package services;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV records one at a time from a character stream, as in RFC 4180.
+ * This class includes:
+ * <ul>
+ * <li> Quoted fields, which may hold commas, line breaks and doubled quotes.
+ * <li> LF, CRLF or lone CR line endings.
+ * <li> The line number each record starts on, for error reports.
+ * </ul>
+ * Only one record is held in memory at a time, so arbitrarily long inputs can be read.
+ */
+public class CsvReader {
+
+  private final Reader in;
+  private final char[] buffer = new char[8192];
+  private int position = 0;
+  private int limit = 0;
+  private long line = 1;
+  private long recordLine = 0;
+
+  /**
+   * @param in The characters to read. Not buffered further by the caller.
+   */
+  public CsvReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads the next record.
+   * @return The fields of the record, or null at the end of the input.
+   * @throws IOException If the input cannot be read, or ends inside a quoted field.
+   */
+  public List<String> readRecord() throws IOException {
+    long startLine = line;
+    int c = read();
+    if (c == -1) {
+      return null;
+    }
+    recordLine = startLine;
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    while (true) {
+      if (quoted) {
+        if (c == -1) {
+          throw new IOException("Unterminated quoted field in the record starting on line " + recordLine);
+        }
+        if (c == '"') {
+          int next = read();
+          if (next == '"') {
+            field.append('"');
+          }
+          else {
+            quoted = false;
+            c = next;
+            continue;
+          }
+        }
+        else {
+          field.append((char) c);
+        }
+      }
+      else if (c == '"' && field.length() == 0) {
+        quoted = true;
+      }
+      else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      }
+      else if (c == '\r' || c == '\n' || c == -1) {
+        if (c == '\r') {
+          skipLineFeed();
+        }
+        fields.add(field.toString());
+        return fields;
+      }
+      else {
+        field.append((char) c);
+      }
+      c = read();
+    }
+  }
+
+  /**
+   * @return The line number the last record read started on.
+   */
+  public long getRecordLine() {
+    return recordLine;
+  }
+
+  private int read() throws IOException {
+    if (position == limit) {
+      limit = in.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    char c = buffer[position++];
+    if (c == '\n') {
+      line++;
+    }
+    return c;
+  }
+
+  /** Consumes the LF of a CRLF pair, if present, or counts a lone CR as a line break. */
+  private void skipLineFeed() throws IOException {
+    int c = read();
+    if (c != '\n' && c != -1) {
+      // A lone CR: put the character back. The read just advanced within the buffer, so this is safe.
+      position--;
+      line++;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package services;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import play.Logger;
+import play.libs.F.Promise;
+import play.libs.F.RedeemablePromise;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Applies database writes on a single thread, committing many of them in one transaction.
+ * This class includes:
+ * <ul>
+ * <li> A queue of pending writes. While one batch commits, the writes arriving meanwhile queue up
+ * and go into the next batch, so the cost of a commit is shared by every write in it.
+ * <li> A promise per write, redeemed once the transaction holding it has committed,
+ * or failed if the transaction was rolled back.
+ * <li> JDBC batching of consecutive rows using the same statement, with statements prepared
+ * once per batch. Writes are still applied in the order they were submitted.
+ * <li> A retry of each write of a failed batch in its own transaction, so one bad write fails alone.
+ * </ul>
+ */
+public class GroupCommitWriter {
+
+  /** A write to apply as part of a batch. */
+  public interface Write {
+    /**
+     * Adds this write's rows to the batch.
+     * @param batch The batch being built.
+     * @throws SQLException If a statement cannot be prepared or filled in.
+     */
+    void addTo(Batch batch) throws SQLException;
+  }
+
+  /** The statements of one transaction. */
+  public static final class Batch {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+    private PreparedStatement pending;
+
+    Batch(Connection connection) {
+      this.connection = connection;
+    }
+
+    /**
+     * Returns the statement for the SQL, to be filled in and added with addBatch().
+     * Rows added to the previous statement are sent first, so writes keep their order.
+     * @param sql The SQL of the statement.
+     * @return The prepared statement.
+     * @throws SQLException If the statement cannot be prepared.
+     */
+    public PreparedStatement statement(String sql) throws SQLException {
+      PreparedStatement statement = statements.get(sql);
+      if (statement == null) {
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+      }
+      if (pending != null && pending != statement) {
+        pending.executeBatch();
+      }
+      pending = statement;
+      return statement;
+    }
+
+    void execute() throws SQLException {
+      if (pending != null) {
+        pending.executeBatch();
+        pending = null;
+      }
+    }
+
+    void close() {
+      for (PreparedStatement statement : statements.values()) {
+        try {
+          statement.close();
+        }
+        catch (SQLException e) {
+          Logger.warn("Couldn't close statement", e);
+        }
+      }
+    }
+  }
+
+  private static final LatencyHistogram commitDuration = Metrics.histograms(
+      "db_group_commit_duration_seconds", "Time to apply and commit one batch of writes.", "writer").labelled("default");
+
+  private final DataSource dataSource;
+  private final int maxBatchSize;
+  private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates a writer and starts its thread.
+   * @param dataSource Where to get connections from.
+   * @param maxBatchSize The most writes committed in one transaction.
+   */
+  public GroupCommitWriter(DataSource dataSource, int maxBatchSize) {
+    this.dataSource = dataSource;
+    this.maxBatchSize = maxBatchSize;
+    this.thread = new Thread(this::run, "group-commit-writer");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Queues a write for the next batch.
+   * @param write The write.
+   * @return A promise redeemed when the write has been committed.
+   * @throws RejectedExecutionException If the writer has been closed.
+   */
+  public Promise<Void> submit(Write write) {
+    if (closed) {
+      throw new RejectedExecutionException("The writer is closed");
+    }
+    RedeemablePromise<Void> committed = RedeemablePromise.empty();
+    queue.add(new Pending(write, committed));
+    return committed;
+  }
+
+  /**
+   * Returns a promise redeemed once every write submitted so far has been committed.
+   * Batches are committed in order, so this is a write with no rows behind all the others.
+   * @return The promise.
+   */
+  public Promise<Void> flush() {
+    return submit(batch -> { });
+  }
+
+  /**
+   * @return The number of writes waiting for a batch.
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Stops accepting writes, commits the queued ones and stops the thread.
+   * @param timeoutMillis How long to wait for the queued writes.
+   */
+  public void close(long timeoutMillis) {
+    // Not interrupted: H2 closes its files when a thread is interrupted during I/O.
+    closed = true;
+    try {
+      thread.join(timeoutMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    List<Pending> batch = new ArrayList<>(maxBatchSize);
+    while (!closed || !queue.isEmpty()) {
+      try {
+        Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      }
+      catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch, maxBatchSize - 1);
+      commit(batch);
+      batch.clear();
+    }
+    // Writes that raced with close() are turned away rather than left waiting forever.
+    Pending write;
+    while ((write = queue.poll()) != null) {
+      write.committed.failure(new RejectedExecutionException("The writer is closed"));
+    }
+  }
+
+  private void commit(List<Pending> writes) {
+    long start = System.nanoTime();
+    Throwable failure = apply(writes);
+    commitDuration.recordSince(start);
+    if (failure != null && writes.size() > 1) {
+      // One bad row, e.g. a value too wide for its column, rolls back the whole batch.
+      // Each write is retried in its own transaction so only the bad ones fail.
+      Logger.warn("Retrying a failed batch of " + writes.size() + " writes one by one");
+      for (Pending write : writes) {
+        redeem(write, apply(Collections.singletonList(write)));
+      }
+      return;
+    }
+    for (Pending write : writes) {
+      redeem(write, failure);
+    }
+  }
+
+  /** @return Null if the writes were committed, otherwise why they were rolled back. */
+  private Throwable apply(List<Pending> writes) {
+    try (Connection connection = dataSource.getConnection()) {
+      connection.setAutoCommit(false);
+      Batch batch = new Batch(connection);
+      try {
+        for (Pending write : writes) {
+          write.write.addTo(batch);
+        }
+        batch.execute();
+        connection.commit();
+      }
+      catch (SQLException | RuntimeException e) {
+        connection.rollback();
+        throw e;
+      }
+      finally {
+        batch.close();
+        connection.setAutoCommit(true);
+      }
+      return null;
+    }
+    catch (Throwable t) {
+      Logger.error("Couldn't commit a batch of " + writes.size() + " writes", t);
+      return t;
+    }
+  }
+
+  private static void redeem(Pending write, Throwable failure) {
+    if (failure == null) {
+      write.committed.success(null);
+    }
+    else {
+      write.committed.failure(failure);
+    }
+  }
+
+  /** A write and the promise to redeem once it is committed. */
+  private static final class Pending {
+    final Write write;
+    final RedeemablePromise<Void> committed;
+
+    Pending(Write write, RedeemablePromise<Void> committed) {
+      this.write = write;
+      this.committed = committed;
+    }
+  }
+}
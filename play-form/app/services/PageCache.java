@@ -0,0 +1,452 @@
+package services;
+
+import play.cache.Cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps rendered pages so an unchanged Business is not re-rendered on every GET.
+ * This class includes:
+ * <ul>
+ * <li> Rendered bytes per business id, stored in Play's cache together with the business version
+ * they were rendered from. An entry for an older version is never served.
+ * <li> A gzip encoding of each page, compressed once when stored rather than on every response.
+ * <li> A CSRF token slot in each page, filled in per response: pages are shared between users, tokens are not.
+ * <li> Explicit invalidation for when a business is updated or deleted.
+ * <li> ETag and Last-Modified values for conditional GETs. The ETag includes a per-process boot id,
+ * because versions restart when the in-memory store does.
+ * <li> Hit and miss counters.
+ * </ul>
+ * The cache is off until enabled through configure(), see Global.
+ */
+public class PageCache {
+
+  /** The format of HTTP dates, as in "Sun, 06 Nov 1994 08:49:37 GMT". */
+  private static final DateTimeFormatter HTTP_DATE =
+    DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+  private static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
+
+  /**
+   * The CSRF token field of the index form as rendered into shared pages, with an empty value that
+   * Page.getBody(String) and Page.getGzipped(String) fill in with the token of each request.
+   */
+  public static final String TOKEN_FIELD = "<input type=\"hidden\" name=\"csrfToken\" value=\"\">";
+
+  private static final byte[] TOKEN_FIELD_BYTES = TOKEN_FIELD.getBytes(StandardCharsets.UTF_8);
+
+  /** The header of a gzip member as GZIPOutputStream writes it: deflate, no flags, no time, unknown OS. */
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private static volatile boolean enabled = false;
+  private static volatile int ttlSeconds = 3600;
+
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+
+  /**
+   * Turns the cache on or off and sets how long an unused page is kept.
+   * @param enable True to use the cache.
+   * @param ttlMillis How long a page stays in the cache.
+   */
+  public static void configure(boolean enable, long ttlMillis) {
+    ttlSeconds = (int) Math.max(1, ttlMillis / 1000);
+    enabled = enable;
+  }
+
+  /**
+   * Returns the page rendered for this version of the business, if cached.
+   * @param id The id of the business.
+   * @param version The current version of the business.
+   * @return The rendered page, or null on a miss.
+   */
+  public static Page get(long id, long version) {
+    if (!enabled) {
+      return null;
+    }
+    Object cached = Cache.get(key(id));
+    if (cached instanceof Page && ((Page) cached).version == version) {
+      hits.increment();
+      return (Page) cached;
+    }
+    misses.increment();
+    return null;
+  }
+
+  /**
+   * Stores the page rendered for this version of the business.
+   * @param id The id of the business.
+   * @param version The version the page was rendered from.
+   * @param body The rendered page.
+   * @return The page and its gzip encoding, to be served.
+   */
+  public static Page put(long id, long version, byte[] body) {
+    Page page = new Page(version, body);
+    if (enabled) {
+      Cache.set(key(id), page, ttlSeconds);
+    }
+    return page;
+  }
+
+  /**
+   * Prepares a page that is kept elsewhere, e.g. one that never changes.
+   * @param body The rendered page.
+   * @return The page and its gzip encoding.
+   */
+  public static Page of(byte[] body) {
+    return new Page(0, body);
+  }
+
+  /**
+   * Returns true if the Accept-Encoding header allows gzip, i.e. lists gzip or * without q=0.
+   * @param acceptEncoding The Accept-Encoding header, or null.
+   * @return True if a gzip encoded body can be sent.
+   */
+  public static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parameters = coding.split(";");
+      String name = parameters[0].trim();
+      if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+        for (int i = 1; i < parameters.length; i++) {
+          String parameter = parameters[i].trim().replace(" ", "");
+          if (parameter.startsWith("q=") && isZero(parameter.substring(2))) {
+            return false;
+          }
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Fills in TOKEN_FIELD, for pages rendered for a single response.
+   * @param token The CSRF token of the request, or null if it has none.
+   * @return The field holding the token.
+   */
+  public static String tokenField(String token) {
+    if (token == null || !isPlainToken(token)) {
+      return TOKEN_FIELD;
+    }
+    return TOKEN_FIELD.substring(0, TOKEN_FIELD.length() - 2) + token + "\">";
+  }
+
+  /**
+   * Returns true if a CSRF token can go into a page as it is. Play's tokens are hex digits and dashes;
+   * anything else is left out rather than escaped.
+   */
+  private static boolean isPlainToken(String token) {
+    if (token.isEmpty() || token.length() > 1024) {
+      return false;
+    }
+    for (int i = 0; i < token.length(); i++) {
+      char c = token.charAt(i);
+      if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '-' || c == '_')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Drops the page of a business, e.g. because it was updated or deleted.
+   * @param id The id of the business.
+   */
+  public static void invalidate(long id) {
+    Cache.remove(key(id));
+  }
+
+  /**
+   * @param id The id of the business.
+   * @param version The version of the business.
+   * @return The quoted entity tag of the page for this version.
+   */
+  public static String etag(long id, long version) {
+    return "\"" + id + "-" + version + "-" + BOOT_ID + "\"";
+  }
+
+  /**
+   * @param id The id of the business.
+   * @param version The version of the business.
+   * @param session Identifies the CSRF token the page will carry, e.g. the token kept in the session, or null.
+   * @return The quoted entity tag of the page for this version and token, so a copy holding another
+   * session's token is never revalidated.
+   */
+  public static String etag(long id, long version, String session) {
+    if (session == null) {
+      return etag(id, version);
+    }
+    return "\"" + id + "-" + version + "-" + BOOT_ID + "-" + Integer.toHexString(session.hashCode()) + "\"";
+  }
+
+  /**
+   * @param representation Names a representation other than the page, e.g. "json", so that its tags differ.
+   * @param id The id of the business.
+   * @param version The version of the business.
+   * @return The quoted entity tag of that representation of this version.
+   */
+  public static String etag(String representation, long id, long version) {
+    return "\"" + representation + "-" + id + "-" + version + "-" + BOOT_ID + "\"";
+  }
+
+  /**
+   * Returns true if an If-Match precondition holds, comparing tags strongly as in RFC 7232.
+   * @param ifMatch The If-Match header, or null.
+   * @param etag The current entity tag.
+   * @return True if there is no If-Match, or it lists the current tag or "*".
+   */
+  public static boolean matches(String ifMatch, String etag) {
+    if (ifMatch == null) {
+      return true;
+    }
+    for (String tag : ifMatch.split(",")) {
+      String trimmed = tag.trim();
+      if (trimmed.equals(etag) || trimmed.equals("*")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param millis A time in milliseconds since the epoch.
+   * @return The time as an HTTP date.
+   */
+  public static String httpDate(long millis) {
+    return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+  }
+
+  /**
+   * Returns true if the client's copy, described by its conditional headers, is still current.
+   * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232.
+   * @param ifNoneMatch The If-None-Match header, or null.
+   * @param ifModifiedSince The If-Modified-Since header, or null.
+   * @param etag The current entity tag.
+   * @param lastModified The current modification time, in milliseconds since the epoch.
+   * @return True if a 304 Not Modified can be sent.
+   */
+  public static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, String etag, long lastModified) {
+    if (ifNoneMatch != null) {
+      for (String tag : ifNoneMatch.split(",")) {
+        String trimmed = tag.trim();
+        if (trimmed.equals(etag) || trimmed.equals("*") || trimmed.equals("W/" + etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (ifModifiedSince != null) {
+      try {
+        // HTTP dates have a one second resolution.
+        return lastModified / 1000 <= Instant.from(HTTP_DATE.parse(ifModifiedSince.trim())).getEpochSecond();
+      }
+      catch (DateTimeParseException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The number of pages served from the cache.
+   */
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return The number of pages that had to be rendered.
+   */
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  private static String key(long id) {
+    return "page.index." + id;
+  }
+
+  /** @return True if an Accept-Encoding quality value is 0, i.e. the coding is refused. A malformed one is not. */
+  private static boolean isZero(String quality) {
+    try {
+      return Double.parseDouble(quality) == 0;
+    }
+    catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deflates part of a page without a zlib or gzip wrapper, so the parts of one page can be joined into one stream.
+   * @param last True to end the stream, false to stop on a byte boundary with the stream left open.
+   * @return The deflated bytes.
+   */
+  private static byte[] deflate(byte[] body, int from, int to, boolean last) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      deflater.setInput(body, from, to - from);
+      ByteArrayOutputStream deflated = new ByteArrayOutputStream((to - from) / 4 + 64);
+      byte[] buffer = new byte[4096];
+      if (last) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          deflated.write(buffer, 0, deflater.deflate(buffer));
+        }
+      }
+      else {
+        int length;
+        do {
+          length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          deflated.write(buffer, 0, length);
+        } while (length == buffer.length);
+      }
+      return deflated.toByteArray();
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  /** @return The index of the first occurrence of the pattern in the bytes, or -1. */
+  private static int indexOf(byte[] bytes, byte[] pattern) {
+    outer:
+    for (int i = 0; i + pattern.length <= bytes.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (bytes[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /** @return The body gzip encoded at the best compression, as clients accepting gzip get it. */
+  private static byte[] gzip(byte[] body) {
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (GZIPOutputStream out = new GZIPOutputStream(gzipped) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    }) {
+      out.write(body);
+    }
+    catch (IOException e) {
+      // A ByteArrayOutputStream never fails.
+      throw new UncheckedIOException(e);
+    }
+    return gzipped.toByteArray();
+  }
+
+  /**
+   * A rendered page and the business version it shows, together with its gzip encoding made once
+   * when it was rendered.
+   */
+  public static final class Page implements Serializable {
+    private static final long serialVersionUID = 3L;
+    private final long version;
+    private final byte[] body;
+    private final byte[] gzipped;
+    /** Where the token goes in the body, i.e. inside the value of TOKEN_FIELD, or -1 if there is no TOKEN_FIELD. */
+    private final int tokenAt;
+    /** The gzip header and the body up to tokenAt, deflated up to a byte boundary with the stream left open. */
+    private final byte[] gzippedHead;
+    /** The body from tokenAt on, deflated on its own, ending the stream. */
+    private final byte[] deflatedTail;
+
+    private Page(long version, byte[] body) {
+      this.version = version;
+      this.body = body;
+      this.gzipped = gzip(body);
+      int field = indexOf(body, TOKEN_FIELD_BYTES);
+      if (field < 0) {
+        tokenAt = -1;
+        gzippedHead = null;
+        deflatedTail = null;
+        return;
+      }
+      // Just before the closing quote of the value.
+      tokenAt = field + TOKEN_FIELD_BYTES.length - 2;
+      byte[] head = deflate(body, 0, tokenAt, false);
+      gzippedHead = new byte[GZIP_HEADER.length + head.length];
+      System.arraycopy(GZIP_HEADER, 0, gzippedHead, 0, GZIP_HEADER.length);
+      System.arraycopy(head, 0, gzippedHead, GZIP_HEADER.length, head.length);
+      deflatedTail = deflate(body, tokenAt, body.length, true);
+    }
+
+    /**
+     * @return The page, its CSRF token field left empty.
+     */
+    public byte[] getBody() {
+      return body;
+    }
+
+    /**
+     * @return The page, gzip encoded at the best compression, its CSRF token field left empty.
+     */
+    public byte[] getGzipped() {
+      return gzipped;
+    }
+
+    /**
+     * @param token The CSRF token of the request, or null if it has none.
+     * @return The page, its CSRF token field holding the token.
+     */
+    public byte[] getBody(String token) {
+      if (tokenAt < 0 || token == null || !isPlainToken(token)) {
+        return body;
+      }
+      byte[] value = token.getBytes(StandardCharsets.US_ASCII);
+      byte[] page = new byte[body.length + value.length];
+      System.arraycopy(body, 0, page, 0, tokenAt);
+      System.arraycopy(value, 0, page, tokenAt, value.length);
+      System.arraycopy(body, tokenAt, page, tokenAt + value.length, body.length - tokenAt);
+      return page;
+    }
+
+    /**
+     * Joins the deflated parts of the page around the token, so the page isn't compressed again for each request.
+     * The token goes in a stored block, uncompressed: it is never compressed together with the page,
+     * so the size of a response tells nothing about the token (BREACH).
+     * @param token The CSRF token of the request, or null if it has none.
+     * @return The page, gzip encoded, its CSRF token field holding the token.
+     */
+    public byte[] getGzipped(String token) {
+      if (tokenAt < 0 || token == null || !isPlainToken(token)) {
+        return gzipped;
+      }
+      byte[] value = token.getBytes(StandardCharsets.US_ASCII);
+      CRC32 crc = new CRC32();
+      crc.update(body, 0, tokenAt);
+      crc.update(value);
+      crc.update(body, tokenAt, body.length - tokenAt);
+      int size = body.length + value.length;
+      ByteBuffer page = ByteBuffer.allocate(gzippedHead.length + 5 + value.length + deflatedTail.length + 8)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      page.put(gzippedHead);
+      // A stored block that isn't the last: its three header bits padded to a byte, then LEN and NLEN.
+      page.put((byte) 0).putShort((short) value.length).putShort((short) ~value.length);
+      page.put(value);
+      page.put(deflatedTail);
+      page.putInt((int) crc.getValue()).putInt(size);
+      return page.array();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package services;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import org.mindrot.jbcrypt.BCrypt;
+import play.libs.F.Promise;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs BCrypt hashing on a dedicated WorkerPool instead of Play's request threads.
+ * This class includes:
+ * <ul>
+ * <li> A pool with one thread per core by default, since BCrypt is purely CPU bound.
+ * <li> A bounded queue of pending hashes. When it is full, new work is rejected right away
+ * so callers can answer 503 instead of letting a signup burst pile up behind the pool.
+ * </ul>
+ * The pool is the hashing context of application.conf, see configure.
+ */
+public class PasswordHasher {
+
+  /** One hashing thread per core, unless configured otherwise. */
+  private static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+  private static final LatencyHistogram hashDuration = Metrics.BCRYPT_DURATION.labelled("hash");
+  private static final LatencyHistogram checkDuration = Metrics.BCRYPT_DURATION.labelled("check");
+
+  private static volatile WorkerPool pool = new WorkerPool("password-hasher", DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE * 16);
+
+  /**
+   * Replaces the hashing pool. Hashes already queued on the previous pool still complete.
+   * @param newPool The new pool.
+   */
+  public static void configure(WorkerPool newPool) {
+    WorkerPool previous = pool;
+    pool = newPool;
+    previous.shutdown();
+  }
+
+  /**
+   * @return The pool hashing runs on.
+   */
+  public static WorkerPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Hashes the password with a fresh salt, at the PasswordPolicy cost, on the hashing pool.
+   * @param password The clear-text password.
+   * @return A promise of the BCrypt hash.
+   * @throws RejectedExecutionException If the pool's queue is full.
+   */
+  public static Promise<String> hash(final String password) {
+    return submit(() -> hashNow(password));
+  }
+
+  /**
+   * Checks a password against a BCrypt hash on the hashing pool.
+   * @param password The clear-text password.
+   * @param hash The BCrypt hash.
+   * @return A promise of true if the password matches the hash.
+   * @throws RejectedExecutionException If the pool's queue is full.
+   */
+  public static Promise<Boolean> check(final String password, final String hash) {
+    return submit(() -> checkNow(password, hash));
+  }
+
+  /**
+   * Runs any other BCrypt-heavy work on the hashing pool.
+   * @param work The work to run.
+   * @param <T> The type of the work's result.
+   * @return A promise of the work's result.
+   * @throws RejectedExecutionException If the pool's queue is full.
+   */
+  public static <T> Promise<T> submit(final Callable<T> work) {
+    return pool.submit(work);
+  }
+
+  /**
+   * Hashes the password with a fresh salt, at the PasswordPolicy cost, on the calling thread.
+   * Only for callers that are already off the request threads.
+   * @param password The clear-text password.
+   * @return The BCrypt hash.
+   */
+  public static String hashNow(String password) {
+    long start = System.nanoTime();
+    String hash = PasswordPolicy.hash(password);
+    hashDuration.recordSince(start);
+    return hash;
+  }
+
+  /**
+   * Checks a password against a BCrypt hash on the calling thread.
+   * Only for callers that are already off the request threads.
+   * @param password The clear-text password.
+   * @param hash The BCrypt hash.
+   * @return True if the password matches the hash.
+   */
+  public static boolean checkNow(String password, String hash) {
+    long start = System.nanoTime();
+    boolean matches = BCrypt.checkpw(password, hash);
+    checkDuration.recordSince(start);
+    return matches;
+  }
+
+  /**
+   * @return The number of hashing threads.
+   */
+  public static int getPoolSize() {
+    return pool.getPoolSize();
+  }
+
+  /**
+   * @return The number of hashes waiting for a free thread.
+   */
+  public static int getQueueDepth() {
+    return pool.getQueueDepth();
+  }
+
+  /**
+   * @return The number of threads currently hashing.
+   */
+  public static int getActiveCount() {
+    return pool.getActiveCount();
+  }
+}
@@ -0,0 +1,122 @@
+package services;
+
+import org.mindrot.jbcrypt.BCrypt;
+import play.Logger;
+
+/**
+ * Chooses the BCrypt cost factor (log rounds) for this host.
+ * This class includes:
+ * <ul>
+ * <li> A startup benchmark that picks the highest cost whose hash time stays within a target latency.
+ * <li> Salt generation at the chosen cost, used for every new hash.
+ * <li> Reading the cost back out of a stored hash, so hashes made at a lower cost can be upgraded
+ * the next time their password is verified (see UserInfoDB.checkPassword).
+ * </ul>
+ */
+public class PasswordPolicy {
+
+  /** Never hash below this cost, however slow the host. */
+  public static final int MIN_LOG_ROUNDS = 8;
+
+  /** Never hash above this cost, however fast the host. */
+  public static final int MAX_LOG_ROUNDS = 16;
+
+  /** The cost BCrypt.gensalt() uses, in effect until calibrate() has run. */
+  private static volatile int logRounds = 10;
+
+  /**
+   * Benchmarks BCrypt on this host and picks the highest cost whose hash takes at most targetMillis.
+   * Each extra round doubles the work, so the search stops as soon as a cost overshoots.
+   * @param targetMillis The target time for one hash.
+   * @return The chosen cost.
+   */
+  public static int calibrate(long targetMillis) {
+    // Warm up so the JIT has compiled BCrypt before anything is timed.
+    for (int i = 0; i < 3; i++) {
+      BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_LOG_ROUNDS));
+    }
+    int chosen = MIN_LOG_ROUNDS;
+    for (int rounds = MIN_LOG_ROUNDS; rounds <= MAX_LOG_ROUNDS; rounds++) {
+      long elapsedMillis = timeHash(rounds);
+      Logger.debug("BCrypt cost " + rounds + " takes " + elapsedMillis + "ms");
+      if (elapsedMillis > targetMillis) {
+        break;
+      }
+      chosen = rounds;
+      // The next round will take about twice as long; don't spend time measuring a sure miss.
+      if (elapsedMillis * 2 > targetMillis) {
+        break;
+      }
+    }
+    logRounds = chosen;
+    Logger.info("Using BCrypt cost " + chosen + " for a target of " + targetMillis + "ms per hash");
+    return chosen;
+  }
+
+  /**
+   * Fixes the cost without benchmarking.
+   * @param rounds The cost, clamped to [MIN_LOG_ROUNDS, MAX_LOG_ROUNDS].
+   */
+  public static void setLogRounds(int rounds) {
+    logRounds = Math.max(MIN_LOG_ROUNDS, Math.min(MAX_LOG_ROUNDS, rounds));
+  }
+
+  /**
+   * @return The cost used for new hashes.
+   */
+  public static int getLogRounds() {
+    return logRounds;
+  }
+
+  /**
+   * @return A fresh salt at the current cost.
+   */
+  public static String gensalt() {
+    return BCrypt.gensalt(logRounds);
+  }
+
+  /**
+   * Hashes the password at the current cost on the calling thread.
+   * @param password The clear-text password.
+   * @return The BCrypt hash.
+   */
+  public static String hash(String password) {
+    return BCrypt.hashpw(password, gensalt());
+  }
+
+  /**
+   * Returns the cost a hash was made with. BCrypt stores it in the hash itself, as in "$2a$10$...".
+   * @param hash A BCrypt hash.
+   * @return The cost, or -1 if the hash is not in BCrypt format.
+   */
+  public static int logRoundsOf(String hash) {
+    if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(1) != '2') {
+      return -1;
+    }
+    int offset = (hash.charAt(2) == '$') ? 3 : 4;
+    if (hash.length() < offset + 3 || hash.charAt(offset + 2) != '$') {
+      return -1;
+    }
+    char tens = hash.charAt(offset);
+    char units = hash.charAt(offset + 1);
+    if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+      return -1;
+    }
+    return (tens - '0') * 10 + (units - '0');
+  }
+
+  /**
+   * @param hash A BCrypt hash.
+   * @return True if the hash was made at a lower cost than the current one and should be redone.
+   */
+  public static boolean needsRehash(String hash) {
+    return logRoundsOf(hash) < logRounds;
+  }
+
+  private static long timeHash(int rounds) {
+    String salt = BCrypt.gensalt(rounds);
+    long start = System.nanoTime();
+    BCrypt.hashpw("calibration", salt);
+    return (System.nanoTime() - start) / 1000000;
+  }
+}
@@ -0,0 +1,128 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signed, expiring tokens naming a logged-in user, so a request is authenticated without BCrypt or a lookup.
+ * This class includes:
+ * <ul>
+ * <li> A token of the form email.expiry.signature: the email base64url encoded, the expiry in epoch seconds,
+ * and an HMAC-SHA256 of both under a key derived from application.secret.
+ * <li> Verification that recomputes the HMAC, compares it in constant time, and checks the expiry.
+ * </ul>
+ * A token stays valid until it expires, even after logout: logging out only discards the client's copy.
+ * Tokens can't be verified until configure() is called, see Global.
+ */
+public class SessionToken {
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private static volatile SecretKeySpec key;
+  private static volatile long ttlMillis = TimeUnit.HOURS.toMillis(12);
+
+  /** Mac instances are not thread-safe, so each thread keeps its own, re-initialized when the key changes. */
+  private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+    try {
+      return Mac.getInstance("HmacSHA256");
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  });
+  private static final ThreadLocal<SecretKeySpec> macKeys = new ThreadLocal<>();
+
+  /**
+   * Sets the signing key and the lifetime of new tokens. Tokens signed with another secret stop verifying.
+   * @param secret The application secret. The key is a hash of it, so tokens never sign with the secret itself.
+   * @param ttl How long a token is valid, in milliseconds.
+   */
+  public static void configure(String secret, long ttl) {
+    if (secret == null || secret.isEmpty()) {
+      throw new IllegalStateException("application.secret must be set to sign session tokens");
+    }
+    try {
+      byte[] derived = MessageDigest.getInstance("SHA-256")
+          .digest(("session-token:" + secret).getBytes(StandardCharsets.UTF_8));
+      key = new SecretKeySpec(derived, "HmacSHA256");
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+    ttlMillis = ttl;
+  }
+
+  /**
+   * Issues a token for a user who just proved their password.
+   * @param email The user's email.
+   * @return The token.
+   */
+  public static String issue(String email) {
+    long expires = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() + ttlMillis);
+    String payload = ENCODER.encodeToString(email.getBytes(StandardCharsets.UTF_8)) + "." + expires;
+    return payload + "." + ENCODER.encodeToString(sign(payload));
+  }
+
+  /**
+   * Verifies a token.
+   * @param token The token, or null.
+   * @return The email it was issued for, or null if it is missing, malformed, forged or expired.
+   */
+  public static String verify(String token) {
+    if (token == null) {
+      return null;
+    }
+    int signatureStart = token.lastIndexOf('.');
+    int expiresStart = (signatureStart > 0) ? token.lastIndexOf('.', signatureStart - 1) : -1;
+    if (expiresStart <= 0) {
+      return null;
+    }
+    String payload = token.substring(0, signatureStart);
+    try {
+      byte[] signature = DECODER.decode(token.substring(signatureStart + 1));
+      if (!MessageDigest.isEqual(signature, sign(payload))) {
+        return null;
+      }
+      long expires = Long.parseLong(token.substring(expiresStart + 1, signatureStart));
+      if (TimeUnit.SECONDS.toMillis(expires) <= System.currentTimeMillis()) {
+        return null;
+      }
+      return new String(DECODER.decode(token.substring(0, expiresStart)), StandardCharsets.UTF_8);
+    }
+    catch (IllegalArgumentException e) {
+      // Bad base64 or a bad number; a NumberFormatException is an IllegalArgumentException.
+      return null;
+    }
+  }
+
+  /**
+   * @return How long a new token is valid, in milliseconds.
+   */
+  public static long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  private static byte[] sign(String payload) {
+    SecretKeySpec current = key;
+    if (current == null) {
+      throw new IllegalStateException("SessionToken is not configured");
+    }
+    Mac mac = macs.get();
+    if (macKeys.get() != current) {
+      try {
+        mac.init(current);
+      }
+      catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Couldn't initialize HmacSHA256", e);
+      }
+      macKeys.set(current);
+    }
+    return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,99 @@
+package services;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-key token buckets, e.g. one bucket per client IP or per email.
+ * This class includes:
+ * <ul>
+ * <li> A bucket per key holding up to burst tokens, refilled continuously at a fixed rate.
+ * <li> Buckets stored in a ConcurrentHashMap, each locked on its own, so different keys never contend.
+ * <li> Eviction of buckets idle long enough to have refilled, done now and then by whichever
+ * caller notices a sweep is due, so the map does not grow with every client ever seen.
+ * </ul>
+ */
+public class TokenBucketLimiter {
+
+  private final double burst;
+  private final double tokensPerNano;
+  private final long idleNanos;
+  private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep;
+
+  /**
+   * Creates a limiter.
+   * @param burst The number of requests a key may make at once.
+   * @param perSecond The sustained number of requests per second a key may make.
+   * @param idleMillis How long a bucket must go unused before it may be evicted.
+   */
+  public TokenBucketLimiter(int burst, double perSecond, long idleMillis) {
+    this.burst = burst;
+    this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+    this.idleNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(idleMillis), (long) (burst / tokensPerNano));
+    this.nextSweep = new AtomicLong(System.nanoTime() + this.idleNanos);
+  }
+
+  /**
+   * Takes a token from the key's bucket if one is available.
+   * @param key The key, e.g. an IP address.
+   * @return 0 if a token was taken, otherwise the number of nanoseconds until one will be available.
+   */
+  public long tryAcquire(String key) {
+    long now = System.nanoTime();
+    Bucket bucket = buckets.get(key);
+    if (bucket == null) {
+      bucket = buckets.computeIfAbsent(key, k -> new Bucket(burst, now));
+    }
+    long wait = bucket.take(now);
+    maybeSweep(now);
+    return wait;
+  }
+
+  /**
+   * @return The number of keys currently tracked.
+   */
+  public int size() {
+    return buckets.size();
+  }
+
+  /** Removes idle buckets if a sweep is due and no other thread has claimed it. */
+  private void maybeSweep(long now) {
+    long due = nextSweep.get();
+    if (now - due < 0 || !nextSweep.compareAndSet(due, now + idleNanos)) {
+      return;
+    }
+    for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+      if (entry.getValue().isIdle(now)) {
+        buckets.remove(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  /** The tokens of a single key. */
+  private final class Bucket {
+    private double tokens;
+    private long lastRefill;
+
+    Bucket(double tokens, long now) {
+      this.tokens = tokens;
+      this.lastRefill = now;
+    }
+
+    synchronized long take(long now) {
+      tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+      lastRefill = now;
+      if (tokens >= 1) {
+        tokens -= 1;
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    synchronized boolean isIdle(long now) {
+      return now - lastRefill > idleNanos;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Remembers recently verified credentials so a client re-authenticating on every call
+ * pays for BCrypt once per TTL instead of once per request.
+ * This class includes:
+ * <ul>
+ * <li> A size-bounded, least-recently-used map from email to an HMAC of the verified password.
+ * The password itself is never stored, and the HMAC key is random and lives only in this process.
+ * <li> A time to live after which an entry no longer counts as verified.
+ * <li> Hit, miss and eviction counters.
+ * </ul>
+ * The cache is off until enabled through configure(), see Global.
+ */
+public class VerifiedCredentialCache {
+
+  private static volatile boolean enabled = false;
+  private static volatile long ttlNanos = TimeUnit.MINUTES.toNanos(1);
+  private static volatile int maxEntries = 10000;
+
+  private static final LongAdder hits = new LongAdder();
+  private static final LongAdder misses = new LongAdder();
+  private static final LongAdder evictions = new LongAdder();
+
+  private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() > maxEntries) {
+        evictions.increment();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  private static final byte[] key = new byte[32];
+  static {
+    new SecureRandom().nextBytes(key);
+  }
+
+  /** Mac instances are not thread-safe, so each thread keeps its own. */
+  private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac;
+    }
+    catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  });
+
+  /**
+   * Turns the cache on or off and sets its limits. Turning it off empties it.
+   * @param enable True to use the cache.
+   * @param ttlMillis How long a verification stays valid.
+   * @param size The maximum number of remembered emails.
+   */
+  public static void configure(boolean enable, long ttlMillis, int size) {
+    ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    maxEntries = size;
+    enabled = enable;
+    if (!enable) {
+      synchronized (entries) {
+        entries.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns true if this exact email and password were verified within the TTL.
+   * @param normalizedEmail The email, normalized as by UserInfoDB.normalize.
+   * @param password The password.
+   * @return True on a cache hit.
+   */
+  public static boolean isVerified(String normalizedEmail, String password) {
+    if (!enabled) {
+      return false;
+    }
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(normalizedEmail);
+    }
+    if (entry != null && System.nanoTime() - entry.expiresAt < 0
+        && MessageDigest.isEqual(entry.hmac, hmac(normalizedEmail, password))) {
+      hits.increment();
+      return true;
+    }
+    misses.increment();
+    return false;
+  }
+
+  /**
+   * Records that the email and password were just verified.
+   * @param normalizedEmail The email, normalized as by UserInfoDB.normalize.
+   * @param password The password.
+   */
+  public static void remember(String normalizedEmail, String password) {
+    if (!enabled) {
+      return;
+    }
+    Entry entry = new Entry(hmac(normalizedEmail, password), System.nanoTime() + ttlNanos);
+    synchronized (entries) {
+      entries.put(normalizedEmail, entry);
+    }
+  }
+
+  /**
+   * Forgets any verification of the email, e.g. because its password changed.
+   * @param normalizedEmail The email, normalized as by UserInfoDB.normalize.
+   */
+  public static void invalidate(String normalizedEmail) {
+    synchronized (entries) {
+      entries.remove(normalizedEmail);
+    }
+  }
+
+  /**
+   * @return The number of lookups answered from the cache.
+   */
+  public static long getHits() {
+    return hits.sum();
+  }
+
+  /**
+   * @return The number of lookups that had to fall back to BCrypt.
+   */
+  public static long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return The number of entries dropped to stay within the size bound.
+   */
+  public static long getEvictions() {
+    return evictions.sum();
+  }
+
+  /** HMAC of the email and password; the email is included so equal passwords give different values. */
+  private static byte[] hmac(String normalizedEmail, String password) {
+    Mac mac = macs.get();
+    mac.update(normalizedEmail.getBytes(StandardCharsets.UTF_8));
+    mac.update((byte) 0);
+    return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** A remembered verification. */
+  private static final class Entry {
+    final byte[] hmac;
+    final long expiresAt;
+
+    Entry(byte[] hmac, long expiresAt) {
+      this.hmac = hmac;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package services;
+
+import metrics.Metrics;
+import play.libs.F.Promise;
+import play.libs.F.RedeemablePromise;
+import play.mvc.Http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named, fixed-size thread pool for blocking work, so that Play's default dispatcher is left to I/O.
+ * This class includes:
+ * <ul>
+ * <li> A bounded queue: when it is full, new work is rejected right away so callers can answer 503.
+ * <li> Work submitted from a request runs with that request's Http.Context, so it can use flash() and the like.
+ * <li> Gauges and counters of the pool's queue, busy threads, completed and rejected work.
+ * </ul>
+ * The pools are configured under contexts in application.conf, see Global.
+ */
+public class WorkerPool {
+
+  private final String name;
+  private final ThreadPoolExecutor executor;
+  private final LongAdder rejected = new LongAdder();
+
+  /**
+   * @param name Names the pool's threads and metrics, e.g. "render".
+   * @param threads The number of threads.
+   * @param queueCapacity How much work may wait for a free thread before new work is turned away.
+   */
+  public WorkerPool(String name, int threads, int queueCapacity) {
+    this.name = name;
+    AtomicInteger count = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(
+        threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity),
+        runnable -> {
+          Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Runs the work on the pool.
+   * @param work The work to run.
+   * @param <T> The type of the work's result.
+   * @return A promise of the work's result.
+   * @throws RejectedExecutionException If the pool's queue is full or the pool is shut down.
+   */
+  public <T> Promise<T> submit(final Callable<T> work) {
+    final RedeemablePromise<T> result = RedeemablePromise.empty();
+    final Http.Context context = Http.Context.current.get();
+    try {
+      executor.execute(() -> {
+        Http.Context.current.set(context);
+        try {
+          result.success(work.call());
+        }
+        catch (Throwable t) {
+          result.failure(t);
+        }
+        finally {
+          Http.Context.current.remove();
+        }
+      });
+    }
+    catch (RejectedExecutionException e) {
+      rejected.increment();
+      throw e;
+    }
+    return result;
+  }
+
+  /**
+   * Exports the pool's state as metrics named after the prefix, e.g. render_pool_queue_depth.
+   * @param prefix The prefix of the metric names.
+   */
+  public void registerMetrics(String prefix) {
+    Metrics.gauge(prefix + "_queue_depth", "Work waiting for a free " + name + " thread.", this::getQueueDepth);
+    Metrics.gauge(prefix + "_active_threads", "Busy " + name + " threads.", this::getActiveCount);
+    Metrics.gauge(prefix + "_threads", "Threads in the " + name + " pool.", this::getPoolSize);
+    Metrics.counter(prefix + "_completed_total", "Work completed by the " + name + " pool.", executor::getCompletedTaskCount);
+    Metrics.counter(prefix + "_rejected_total", "Work turned away because the " + name + " queue was full.", rejected::sum);
+  }
+
+  /**
+   * Lets the work already submitted finish, and rejects new work.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  /**
+   * @return The number of threads.
+   */
+  public int getPoolSize() {
+    return executor.getCorePoolSize();
+  }
+
+  /**
+   * @return The amount of work waiting for a free thread.
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * @return The number of threads currently busy.
+   */
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+}
@@ -0,0 +1,577 @@
+package services;
+
+import play.Logger;
+import play.libs.F.Promise;
+import play.libs.F.RedeemablePromise;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A durable, bounded queue of records on local disk, drained in the background to a slower sink such as a database.
+ * This class includes:
+ * <ul>
+ * <li> An append-only log of memory-mapped segment files. Each record is its length, a CRC32 and its bytes,
+ * so a record torn by a crash is detected and dropped on recovery.
+ * <li> Group fsync: one thread forces the segments to disk, and every append made while a force runs
+ * is covered by the next one. An append's promise is redeemed once its record is on disk.
+ * <li> A drainer thread handing forced records to the sink in batches, retrying a failed batch with backoff.
+ * A checkpoint file records how far the sink has got, and fully drained segments are deleted.
+ * <li> Quarantine of records the sink can never store: a batch failing for good is drained again one record
+ * at a time, and each record still failing is copied to the quarantine file and skipped.
+ * <li> Recovery on open: records past the checkpoint are offered again, first to the caller
+ * (see forEachPending) and then to the sink.
+ * </ul>
+ * Positions are logical: segment number times segment size plus the offset within the segment.
+ */
+public class WriteBehindLog {
+
+  /** Where drained records go. */
+  public interface Sink {
+    /**
+     * Durably stores a batch of records. Called from a single thread, in log order.
+     * A record may be offered again after a crash, so storing it must be idempotent.
+     * @param records The records.
+     * @throws Exception If the batch could not be stored; it will be retried unless isPermanent() says otherwise.
+     */
+    void write(List<byte[]> records) throws Exception;
+
+    /**
+     * Tells a failure that retrying can't fix from one that it may. By default, SQL data exceptions
+     * (SQLState class 22), such as a value too long for its column, are permanent.
+     * @param failure What write() threw.
+     * @return True if the records would fail again however often they were retried.
+     */
+    default boolean isPermanent(Exception failure) {
+      for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+        for (SQLException e = (cause instanceof SQLException) ? (SQLException) cause : null; e != null;
+            e = e.getNextException()) {
+          if (e.getSQLState() != null && e.getSQLState().startsWith("22")) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final int HEADER_SIZE = 8;
+  private static final String SUFFIX = ".log";
+  private static final String QUARANTINE = "quarantine";
+  private static final long MAX_BACKOFF_MILLIS = 30000;
+
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final int batchSize;
+  private final Sink sink;
+
+  /** Open segments by number. Guarded by this. */
+  private final TreeMap<Long, Segment> segments = new TreeMap<>();
+  /** Appends waiting for a force, in position order. Guarded by this. */
+  private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+  /** The end of the last append. Guarded by this. */
+  private long appended;
+  /** Everything before this position is on disk. Guarded by this. */
+  private long forced;
+  /** Everything before this position is in the sink. Only moved by the drainer, read under this. */
+  private volatile long drained;
+  private volatile boolean closed = false;
+  private final LongAdder quarantined = new LongAdder();
+
+  private Thread syncThread;
+  private Thread drainThread;
+
+  private WriteBehindLog(File directory, int segmentSize, int maxSegments, int batchSize, Sink sink) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.maxSegments = maxSegments;
+    this.batchSize = batchSize;
+    this.sink = sink;
+  }
+
+  /**
+   * Opens the log in the directory, recovering the records that were not drained yet.
+   * Nothing is drained until start() is called.
+   * @param directory The directory holding the segments and the checkpoint, created if missing.
+   * @param segmentSize The size of a segment file, in bytes.
+   * @param maxSegments How many segments may hold undrained records before isFull() says so.
+   * @param batchSize The most records handed to the sink at once.
+   * @param sink Where the records are drained to.
+   * @return The log.
+   * @throws IOException If the directory cannot be read or a segment cannot be mapped.
+   */
+  public static WriteBehindLog open(File directory, int segmentSize, int maxSegments, int batchSize, Sink sink)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Couldn't create " + directory);
+    }
+    WriteBehindLog log = new WriteBehindLog(directory, segmentSize, maxSegments, batchSize, sink);
+    log.recover();
+    return log;
+  }
+
+  /**
+   * Passes every record not drained yet to the action, in log order.
+   * Meant for rebuilding in-memory state after a restart, before start() is called.
+   * @param action The action.
+   */
+  public synchronized void forEachPending(Consumer<byte[]> action) {
+    long position = drained;
+    while (position < appended) {
+      Segment segment = segments.get(position / segmentSize);
+      int offset = (int) (position % segmentSize);
+      int length = (segment == null) ? 0 : segment.lengthAt(offset);
+      if (length == 0) {
+        position = (position / segmentSize + 1) * segmentSize;
+        continue;
+      }
+      action.accept(segment.read(offset, length));
+      position += HEADER_SIZE + length;
+    }
+  }
+
+  /** Starts the threads that force the log to disk and drain it to the sink. */
+  public void start() {
+    syncThread = new Thread(this::syncLoop, "write-behind-sync");
+    syncThread.setDaemon(true);
+    syncThread.start();
+    drainThread = new Thread(this::drainLoop, "write-behind-drain");
+    drainThread.setDaemon(true);
+    drainThread.start();
+  }
+
+  /**
+   * Appends a record.
+   * @param record The record, smaller than a segment.
+   * @return A promise redeemed once the record is on disk.
+   * @throws IOException If a new segment cannot be created.
+   */
+  public Promise<Void> append(byte[] record) throws IOException {
+    if (record.length == 0 || record.length > segmentSize - HEADER_SIZE) {
+      throw new IllegalArgumentException("A record must hold 1 to " + (segmentSize - HEADER_SIZE) + " bytes");
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record);
+    RedeemablePromise<Void> onDisk = RedeemablePromise.empty();
+    synchronized (this) {
+      if (closed) {
+        throw new IllegalStateException("The log is closed");
+      }
+      int offset = (int) (appended % segmentSize);
+      if (offset + HEADER_SIZE + record.length > segmentSize) {
+        // Leave the rest of this segment empty; readers skip to the next one.
+        appended = (appended / segmentSize + 1) * segmentSize;
+        offset = 0;
+      }
+      Segment segment = segmentFor(appended / segmentSize);
+      segment.write(offset, record, (int) crc.getValue());
+      appended += HEADER_SIZE + record.length;
+      waiters.add(new Waiter(appended, onDisk));
+      notifyAll();
+    }
+    return onDisk;
+  }
+
+  /**
+   * @return A promise redeemed once every record appended so far is on disk.
+   */
+  public Promise<Void> flush() {
+    RedeemablePromise<Void> onDisk = RedeemablePromise.empty();
+    synchronized (this) {
+      if (forced >= appended) {
+        onDisk.success(null);
+      }
+      else {
+        waiters.add(new Waiter(appended, onDisk));
+        notifyAll();
+      }
+    }
+    return onDisk;
+  }
+
+  /**
+   * @return True if the undrained records fill maxSegments segments, so callers should hold off appending.
+   */
+  public synchronized boolean isFull() {
+    return appended - drained >= (long) maxSegments * segmentSize;
+  }
+
+  /**
+   * @return The number of bytes appended but not drained yet.
+   */
+  public synchronized long getBacklogBytes() {
+    return appended - drained;
+  }
+
+  /**
+   * @return The number of records set aside in the quarantine file since the log was opened.
+   */
+  public long getQuarantined() {
+    return quarantined.sum();
+  }
+
+  /**
+   * Stops the threads after a last force. Records not drained yet stay in the log for the next open.
+   * @param timeoutMillis How long to wait for each thread.
+   */
+  public void close(long timeoutMillis) {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    join(syncThread, timeoutMillis);
+    join(drainThread, timeoutMillis);
+    synchronized (this) {
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+    }
+  }
+
+  private void syncLoop() {
+    while (true) {
+      long target;
+      List<Segment> dirty = new ArrayList<>();
+      synchronized (this) {
+        while (forced >= appended && !closed) {
+          waitQuietly(1000);
+        }
+        if (forced >= appended) {
+          return;
+        }
+        target = appended;
+        dirty.addAll(segments.subMap(forced / segmentSize, true, (target - 1) / segmentSize, true).values());
+      }
+      for (Segment segment : dirty) {
+        segment.force();
+      }
+      synchronized (this) {
+        forced = target;
+        while (!waiters.isEmpty() && waiters.peek().position <= target) {
+          waiters.poll().onDisk.success(null);
+        }
+        // Wake the drainer, which only reads forced records.
+        notifyAll();
+      }
+    }
+  }
+
+  private void drainLoop() {
+    long backoffMillis = 100;
+    // Up to here, records are drained one at a time to find the ones a failed batch can't store.
+    long isolateUntil = 0;
+    while (true) {
+      List<byte[]> batch = new ArrayList<>(batchSize);
+      long end;
+      synchronized (this) {
+        while (drained >= forced && !closed) {
+          waitQuietly(1000);
+        }
+        if (closed) {
+          // What is left is drained after the next open.
+          return;
+        }
+        end = readBatch(drained, forced, (drained < isolateUntil) ? 1 : batchSize, batch);
+      }
+      if (batch.isEmpty()) {
+        advance(end);
+        continue;
+      }
+      try {
+        sink.write(batch);
+        advance(end);
+        backoffMillis = 100;
+      }
+      catch (Exception e) {
+        if (sink.isPermanent(e)) {
+          if (batch.size() > 1) {
+            Logger.warn("Couldn't drain " + batch.size() + " records, draining them one by one", e);
+            isolateUntil = end;
+          }
+          else {
+            Logger.error("Couldn't drain a record, setting it aside in " + new File(directory, QUARANTINE), e);
+            quarantine(batch.get(0));
+            advance(end);
+          }
+          continue;
+        }
+        Logger.error("Couldn't drain " + batch.size() + " records, retrying in " + backoffMillis + "ms", e);
+        synchronized (this) {
+          if (closed) {
+            return;
+          }
+          waitQuietly(backoffMillis);
+        }
+        backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+      }
+    }
+  }
+
+  /** Reads up to limit records between the positions, returning the position after the last one read. */
+  private long readBatch(long from, long to, int limit, List<byte[]> batch) {
+    long position = from;
+    while (position < to && batch.size() < limit) {
+      Segment segment = segments.get(position / segmentSize);
+      int offset = (int) (position % segmentSize);
+      int length = (segment == null) ? 0 : segment.lengthAt(offset);
+      if (length == 0) {
+        position = Math.min(to, (position / segmentSize + 1) * segmentSize);
+        continue;
+      }
+      batch.add(segment.read(offset, length));
+      position += HEADER_SIZE + length;
+    }
+    return position;
+  }
+
+  /** Records that the sink has everything before the position, and drops the segments it no longer needs. */
+  private void advance(long position) {
+    try {
+      writeCheckpoint(position);
+    }
+    catch (IOException e) {
+      // The records will be offered again after a restart, which the sink tolerates.
+      Logger.warn("Couldn't write the write-behind checkpoint", e);
+    }
+    List<Segment> obsolete = new ArrayList<>();
+    synchronized (this) {
+      drained = position;
+      Map<Long, Segment> head = segments.headMap(position / segmentSize);
+      obsolete.addAll(head.values());
+      head.clear();
+    }
+    for (Segment segment : obsolete) {
+      segment.close();
+      if (!segment.file.delete()) {
+        Logger.warn("Couldn't delete " + segment.file);
+      }
+    }
+  }
+
+  /** Appends a record to the quarantine file, as its length and its bytes, so it can be inspected or replayed by hand. */
+  private void quarantine(byte[] record) {
+    try (RandomAccessFile out = new RandomAccessFile(new File(directory, QUARANTINE), "rw")) {
+      out.seek(out.length());
+      out.writeInt(record.length);
+      out.write(record);
+      out.getFD().sync();
+    }
+    catch (IOException e) {
+      // Skipped all the same: it would otherwise hold back every record behind it.
+      Logger.error("Couldn't quarantine a record of " + record.length + " bytes", e);
+    }
+    quarantined.increment();
+  }
+
+  /** Maps the existing segments and finds the checkpoint and the end of the last valid record. */
+  private void recover() throws IOException {
+    long checkpoint = readCheckpoint();
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    TreeMap<Long, File> found = new TreeMap<>();
+    if (files != null) {
+      for (File file : files) {
+        found.put(Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length())), file);
+      }
+    }
+    long firstNeeded = checkpoint / segmentSize;
+    for (Map.Entry<Long, File> entry : found.entrySet()) {
+      if (entry.getKey() < firstNeeded) {
+        entry.getValue().delete();
+      }
+      else {
+        segments.put(entry.getKey(), Segment.map(entry.getValue(), segmentSize));
+      }
+    }
+    drained = checkpoint;
+    long position = checkpoint;
+    Segment last = null;
+    boolean torn = false;
+    for (Segment segment : new ArrayList<>(segments.values())) {
+      if (torn) {
+        // Segments are forced in order, so nothing after a torn record was acknowledged.
+        segments.remove(segment.number);
+        segment.close();
+        segment.file.delete();
+        continue;
+      }
+      long base = segment.number * segmentSize;
+      int offset = (position > base) ? (int) (position - base) : 0;
+      while (offset + HEADER_SIZE <= segmentSize) {
+        int length = segment.validLengthAt(offset);
+        if (length == 0) {
+          // Either the end of the records, padding before the next segment, or a record that fails its CRC.
+          torn = segment.lengthAt(offset) != 0;
+          break;
+        }
+        offset += HEADER_SIZE + length;
+      }
+      position = base + offset;
+      last = segment;
+    }
+    // Clear whatever follows the last valid record so it is never mistaken for a record.
+    if (last != null && position - last.number * segmentSize < segmentSize) {
+      last.clearFrom((int) (position - last.number * segmentSize));
+    }
+    appended = position;
+    forced = position;
+    if (position > checkpoint) {
+      Logger.info("Recovered " + (position - checkpoint) + " bytes of undrained write-behind records");
+    }
+  }
+
+  private Segment segmentFor(long number) throws IOException {
+    Segment segment = segments.get(number);
+    if (segment == null) {
+      segment = Segment.map(new File(directory, String.format("%016d", number) + SUFFIX), segmentSize);
+      segments.put(number, segment);
+    }
+    return segment;
+  }
+
+  private long readCheckpoint() throws IOException {
+    File file = new File(directory, "checkpoint");
+    if (!file.exists()) {
+      return 0;
+    }
+    return Long.parseLong(new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim());
+  }
+
+  private void writeCheckpoint(long position) throws IOException {
+    File temp = new File(directory, "checkpoint.tmp");
+    try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+      out.setLength(0);
+      out.write(Long.toString(position).getBytes(StandardCharsets.US_ASCII));
+      out.getFD().sync();
+    }
+    Files.move(temp.toPath(), new File(directory, "checkpoint").toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void waitQuietly(long millis) {
+    try {
+      wait(millis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void join(Thread thread, long timeoutMillis) {
+    if (thread == null) {
+      return;
+    }
+    try {
+      thread.join(timeoutMillis);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** One memory-mapped segment file. Writes happen under the log's lock. */
+  private static final class Segment {
+    final long number;
+    final File file;
+    final FileChannel channel;
+    final MappedByteBuffer buffer;
+
+    private Segment(long number, File file, FileChannel channel, MappedByteBuffer buffer) {
+      this.number = number;
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+
+    static Segment map(File file, int size) throws IOException {
+      String name = file.getName();
+      long number = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      FileChannel channel = raf.getChannel();
+      return new Segment(number, file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    void write(int offset, byte[] record, int crc) {
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset + HEADER_SIZE);
+      view.put(record);
+      view.putInt(offset + 4, crc);
+      // The length goes last: a reader seeing it non-zero sees the whole record.
+      view.putInt(offset, record.length);
+    }
+
+    int lengthAt(int offset) {
+      return (offset + HEADER_SIZE > buffer.capacity()) ? 0 : buffer.getInt(offset);
+    }
+
+    /** Returns the length of the record at the offset, or 0 if there is none or it fails its CRC. */
+    int validLengthAt(int offset) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+        return 0;
+      }
+      CRC32 crc = new CRC32();
+      crc.update(read(offset, length));
+      return ((int) crc.getValue() == buffer.getInt(offset + 4)) ? length : 0;
+    }
+
+    byte[] read(int offset, int length) {
+      byte[] record = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset + HEADER_SIZE);
+      view.get(record);
+      return record;
+    }
+
+    void clearFrom(int offset) {
+      ByteBuffer view = buffer.duplicate();
+      view.position(offset);
+      while (view.hasRemaining()) {
+        view.put((byte) 0);
+      }
+      buffer.force();
+    }
+
+    void force() {
+      buffer.force();
+    }
+
+    void close() {
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        Logger.warn("Couldn't close " + file, e);
+      }
+    }
+  }
+
+  /** An append waiting for its record to be forced. */
+  private static final class Waiter {
+    final long position;
+    final RedeemablePromise<Void> onDisk;
+
+    Waiter(long position, RedeemablePromise<Void> onDisk) {
+      this.position = position;
+      this.onDisk = onDisk;
+    }
+  }
+}
@@ -0,0 +1,769 @@
+package views;
+
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import models.DistanceApply;
+import play.data.Form;
+import play.data.validation.ValidationError;
+import play.libs.F;
+import play.mvc.Http;
+import services.PageCache;
+import views.formdata.BusinessFormData;
+import views.html.Index;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Writes the index page as UTF-8 bytes, without building it as a string first, to a buffer or to a stream of chunks.
+ * This class includes:
+ * <ul>
+ * <li> Pre-encoded static segments cut from the Index template itself. At startup the template is rendered with
+ * marker values, and once more for each part of the page that comes and goes, such as a field's error or the delete
+ * button; comparing the renderings shows where each dynamic part starts and ends. Template edits thus carry over
+ * with no second copy of the markup, and a layout the cutting can't reproduce fails the startup.
+ * <li> Escaping and encoding of the dynamic parts only: field values, errors, checked flags and flash messages.
+ * Catalog option names never change, so they are escaped and encoded once too.
+ * <li> Chunked output: the page is handed over a few kilobytes at a time, the head of the page first.
+ * </ul>
+ * The output is the same as views.html.Index, which remains for pages.streaming=false.
+ */
+public final class IndexRenderer {
+
+  /** Bytes gathered before a chunk is handed over. */
+  private static final int CHUNK_SIZE = 4096;
+
+  private static final LatencyHistogram renderDuration = Metrics.RENDER_DURATION.labelled("IndexStream");
+
+  /** A catalog option name, escaped and encoded, by name. Bounded by the size of the catalogs. */
+  private static final Map<String, byte[]> optionNames = new ConcurrentHashMap<>();
+
+  /** The fields of the form shown in a form group, in page order. */
+  private static final List<String> FIELDS = Arrays.asList("name", "password", "level", "methods", "period", "majors");
+
+  /** The fields among FIELDS whose options are listed as checkboxes or in a select. */
+  private static final List<String> OPTION_FIELDS = Arrays.asList("methods", "period", "majors");
+
+  private static final byte[] TOKEN_FIELD = encode(PageCache.TOKEN_FIELD);
+
+  /** The segments of the page, cut from the Index template when the class is loaded. */
+  private static final Layout LAYOUT = Layout.cut();
+
+  private IndexRenderer() {
+  }
+
+  /**
+   * Cuts the page on startup rather than on the first request.
+   */
+  public static void init() {
+    // Loading the class cut the page.
+  }
+
+  /**
+   * Renders the page into a single array, e.g. for the PageCache. Its CSRF token field is left empty,
+   * as services.PageCache.TOKEN_FIELD.
+   * @param businessForm The form to display.
+   * @param methods The methods, mapped to whether they are checked.
+   * @param period The durations, mapped to whether they are selected.
+   * @param majors The majors, mapped to whether they are selected.
+   * @param success The success message, or null.
+   * @param error The error message, or null.
+   * @return The page.
+   */
+  public static byte[] render(Form<BusinessFormData> businessForm, Map<String, Boolean> methods,
+      Map<String, Boolean> period, Map<String, Boolean> majors, String success, String error) {
+    PageBuffer out = new PageBuffer(null);
+    long start = System.nanoTime();
+    LAYOUT.write(businessForm, methods, period, majors, success, error, null, out);
+    renderDuration.recordSince(start);
+    return out.toByteArray();
+  }
+
+  /**
+   * Renders the page a chunk at a time, the head of the page first.
+   * @param businessForm The form to display.
+   * @param methods The methods, mapped to whether they are checked.
+   * @param period The durations, mapped to whether they are selected.
+   * @param majors The majors, mapped to whether they are selected.
+   * @param success The success message, or null.
+   * @param error The error message, or null.
+   * @param token The CSRF token of the request, or null.
+   * @param chunks Receives the chunks. Each array is handed over for good.
+   */
+  public static void stream(Form<BusinessFormData> businessForm, Map<String, Boolean> methods,
+      Map<String, Boolean> period, Map<String, Boolean> majors, String success, String error, String token,
+      Consumer<byte[]> chunks) {
+    PageBuffer out = new PageBuffer(chunks);
+    long start = System.nanoTime();
+    LAYOUT.write(businessForm, methods, period, majors, success, error, token, out);
+    renderDuration.recordSince(start);
+    out.flush();
+  }
+
+  /** @return The id of the delete button's route, or null if the form holds none or an invalid one. */
+  private static Long deleteId(String id) {
+    try {
+      return id.isEmpty() ? null : Long.valueOf(id);
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static String value(Form<BusinessFormData> businessForm, String field) {
+    String value = businessForm.field(field).value();
+    return (value == null) ? "" : value;
+  }
+
+  private static byte[] escapeAndEncode(String text) {
+    return encode(escape(text));
+  }
+
+  private static byte[] encode(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Escapes the characters HtmlFormat.escape does. */
+  static String escape(String text) {
+    StringBuilder escaped = new StringBuilder(text.length() + 16);
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '<':
+          escaped.append("&lt;");
+          break;
+        case '>':
+          escaped.append("&gt;");
+          break;
+        case '"':
+          escaped.append("&quot;");
+          break;
+        case '\'':
+          escaped.append("&#x27;");
+          break;
+        case '&':
+          escaped.append("&amp;");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  /**
+   * The page as the Index template lays it out: the page itself, with a slot for the CSRF token, the id,
+   * each form group, the delete button and each flash message; each form group with and without its error;
+   * and the markup of one option, repeated for each.
+   */
+  private static final class Layout {
+
+    /** A value no catalog or template holds, used as the id the template is rendered with; it must parse as a long. */
+    private static final String SAMPLE_ID = "918273645546372819";
+
+    private final Template page;
+    private final Map<String, Switch> groups;
+    private final Map<String, Template> options;
+    private final Map<String, Switch> checked;
+    private final Switch delete;
+    private final Switch success;
+    private final Switch error;
+
+    private Layout(Template page, Map<String, Switch> groups, Map<String, Template> options,
+        Map<String, Switch> checked, Switch delete, Switch success, Switch error) {
+      this.page = page;
+      this.groups = groups;
+      this.options = options;
+      this.checked = checked;
+      this.delete = delete;
+      this.success = success;
+      this.error = error;
+    }
+
+    /**
+     * Renders the Index template with markers, and with each dynamic part in turn switched on, and cuts the page
+     * where the renderings differ. Then checks that the cut page writes what the template renders.
+     * @return The layout.
+     * @throws IllegalStateException if the template's renderings can't be cut apart, e.g. if a template change
+     * made two dynamic parts overlap.
+     */
+    static Layout cut() {
+      String base = new Sample().render();
+      List<Cut> pageCuts = new ArrayList<>();
+
+      int token = base.indexOf(PageCache.TOKEN_FIELD);
+      require(token >= 0 && base.indexOf(PageCache.TOKEN_FIELD, token + 1) < 0, "one CSRF token field");
+      pageCuts.add(new Cut(token, token + PageCache.TOKEN_FIELD.length(), Template.slot("token")));
+
+      // The id shows twice: in the hidden field, and in the route of the delete button, which only shows with an id.
+      int id = base.indexOf(SAMPLE_ID);
+      int deleteRoute = base.indexOf(SAMPLE_ID, id + 1);
+      require(id >= 0 && deleteRoute >= 0 && base.indexOf(SAMPLE_ID, deleteRoute + 1) < 0, "the id twice");
+      pageCuts.add(new Cut(id, id + SAMPLE_ID.length(), Template.slot("id")));
+      Sample withoutId = new Sample();
+      withoutId.id = "";
+      String noId = withoutId.render();
+      String withIdLeftOut = base.substring(0, id) + base.substring(id + SAMPLE_ID.length());
+      Difference button = Difference.of(withIdLeftOut, noId, false);
+      int shift = SAMPLE_ID.length();
+      require(button.start >= id && button.start + shift <= deleteRoute
+          && button.end + shift >= deleteRoute + SAMPLE_ID.length(), "the delete button apart from the id");
+      pageCuts.add(new Cut(button.start + shift, button.end + shift, Template.slot("delete")));
+      Switch delete = new Switch(
+          Template.compile(button.second(noId)),
+          Template.compile(button.first(withIdLeftOut).replace(SAMPLE_ID, Template.slot("deleteId"))));
+
+      Map<String, Switch> groups = new HashMap<>();
+      Map<String, Template> options = new HashMap<>();
+      Map<String, Switch> checked = new HashMap<>();
+      for (String field : FIELDS) {
+        Sample inError = new Sample();
+        inError.errors.add(field);
+        String errored = inError.render();
+        Difference group = Difference.of(base, errored, false);
+        pageCuts.add(new Cut(group.start, group.end, Template.slot("field:" + field)));
+        String plain = group.first(base);
+        String withError = group.second(errored);
+        if (OPTION_FIELDS.contains(field)) {
+          Sample oneOption = new Sample();
+          oneOption.options.get(field).put(Template.slot("option"), false);
+          String unchecked = oneOption.render();
+          Difference option = Difference.of(base, unchecked, false);
+          require(option.isInsertion() && option.start >= group.start && option.start <= group.end,
+              "the options of " + field + " inside its form group");
+          String markup = option.second(unchecked);
+          plain = new Cut(option.start - group.start, option.start - group.start, Template.slot("options"))
+              .applyTo(plain);
+
+          inError.options.get(field).put(Template.slot("option"), false);
+          String erroredOption = inError.render();
+          Difference optionInError = Difference.of(errored, erroredOption, false);
+          int at = optionInError.start - group.start;
+          require(optionInError.isInsertion() && optionInError.second(erroredOption).equals(markup)
+              && at >= 0 && at <= withError.length(), "the options of " + field + " the same with an error");
+          withError = new Cut(at, at, Template.slot("options")).applyTo(withError);
+
+          oneOption.options.get(field).put(Template.slot("option"), true);
+          String selected = oneOption.render();
+          Difference flag = Difference.of(unchecked, selected, false);
+          require(flag.start >= option.start && flag.end <= option.start + markup.length(),
+              "the checked flag of " + field + " inside its option");
+          options.put(field, Template.compile(
+              new Cut(flag.start - option.start, flag.end - option.start, Template.slot("checked")).applyTo(markup)));
+          checked.put(field,
+              new Switch(Template.compile(flag.first(unchecked)), Template.compile(flag.second(selected))));
+        }
+        groups.put(field, new Switch(Template.compile(plain), Template.compile(withError)));
+      }
+
+      // Both messages go in at about the same place: the success one as early as it can, the error one as late.
+      Sample succeeded = new Sample();
+      succeeded.success = Template.slot("message");
+      String successPage = succeeded.render();
+      Difference successMessage = Difference.of(base, successPage, true);
+      require(successMessage.isInsertion(), "the success message on its own");
+      pageCuts.add(new Cut(successMessage.start, successMessage.start, Template.slot("flash:success")));
+      Sample failed = new Sample();
+      failed.error = Template.slot("message");
+      String errorPage = failed.render();
+      Difference errorMessage = Difference.of(base, errorPage, false);
+      require(errorMessage.isInsertion() && errorMessage.start >= successMessage.start, "the error message on its own");
+      pageCuts.add(new Cut(errorMessage.start, errorMessage.start, Template.slot("flash:error")));
+
+      Layout layout = new Layout(Template.compile(Cut.applyAll(base, pageCuts)), groups, options, checked, delete,
+          new Switch(Template.compile(""), Template.compile(successMessage.second(successPage))),
+          new Switch(Template.compile(""), Template.compile(errorMessage.second(errorPage))));
+      layout.verify();
+      return layout;
+    }
+
+    /**
+     * Checks that the layout writes what the template renders, for the empty form and for a form with every part on.
+     */
+    private void verify() {
+      Form<BusinessFormData> empty = Sample.form(Collections.singletonMap("id", ""), Collections.emptyMap());
+      verify(empty, new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>(), null, null);
+
+      Map<String, String> data = new HashMap<>();
+      data.put("id", "42");
+      data.put("name", "<Ada> & 'Co'");
+      data.put("password", "p\"w");
+      data.put("level", "ada@example.com");
+      Map<String, List<ValidationError>> errors = new HashMap<>();
+      for (String field : FIELDS) {
+        errors.put(field, Arrays.asList(new ValidationError(field, "First <" + field + ">"),
+            new ValidationError(field, "Second")));
+      }
+      Map<String, Boolean> choices = new LinkedHashMap<>();
+      choices.put("One & two", false);
+      choices.put("\"Three\"", true);
+      verify(Sample.form(data, errors), choices, choices, choices, "Saved <it>", "Don't");
+    }
+
+    private void verify(Form<BusinessFormData> form, Map<String, Boolean> methods, Map<String, Boolean> period,
+        Map<String, Boolean> majors, String successMessage, String errorMessage) {
+      String expected = Sample.render(form, methods, period, majors, successMessage, errorMessage);
+      PageBuffer out = new PageBuffer(null);
+      write(form, methods, period, majors, successMessage, errorMessage, null, out);
+      require(new String(out.toByteArray(), StandardCharsets.UTF_8).equals(expected), "the page the template renders");
+    }
+
+    private static void require(boolean condition, String what) {
+      if (!condition) {
+        throw new IllegalStateException("Couldn't cut the Index template into segments: expected " + what + ".");
+      }
+    }
+
+    /** Writes the page, see IndexRenderer.stream. */
+    void write(Form<BusinessFormData> businessForm, Map<String, Boolean> methods, Map<String, Boolean> period,
+        Map<String, Boolean> majors, String successMessage, String errorMessage, String token, PageBuffer out) {
+      Map<String, List<ValidationError>> errors = businessForm.errors();
+      String id = value(businessForm, "id");
+      Long deleteId = deleteId(id);
+
+      page.write(out, (slot, buffer) -> {
+        switch (slot) {
+          case "token":
+            buffer.write((token == null) ? TOKEN_FIELD : encode(PageCache.tokenField(token)));
+            // The head of the page, its scripts and styles, goes out before any field is written.
+            buffer.flush();
+            break;
+          case "id":
+            buffer.writeEscaped(id);
+            break;
+          case "delete":
+            delete.write(deleteId != null, buffer,
+                (deleteSlot, deleteBuffer) -> deleteBuffer.writeEscaped(deleteId.toString()));
+            break;
+          case "flash:success":
+            success.write(successMessage != null, buffer,
+                (messageSlot, messageBuffer) -> messageBuffer.writeEscaped(successMessage));
+            break;
+          case "flash:error":
+            error.write(errorMessage != null, buffer,
+                (messageSlot, messageBuffer) -> messageBuffer.writeEscaped(errorMessage));
+            break;
+          default:
+            String field = slot.substring("field:".length());
+            writeGroup(field, businessForm, errors, optionsOf(field, methods, period, majors), buffer);
+        }
+      });
+    }
+
+    private void writeGroup(String field, Form<BusinessFormData> businessForm,
+        Map<String, List<ValidationError>> errors, Map<String, Boolean> fieldOptions, PageBuffer out) {
+      List<ValidationError> fieldErrors = errors.get(field);
+      boolean hasError = fieldErrors != null && !fieldErrors.isEmpty();
+      groups.get(field).write(hasError, out, (slot, buffer) -> {
+        switch (slot) {
+          case "value":
+            buffer.writeEscaped(value(businessForm, field));
+            break;
+          case "error":
+            // The first error only, as the bootstrap3 helpers show.
+            buffer.writeEscaped(fieldErrors.get(0).message());
+            break;
+          default:
+            writeOptions(field, fieldOptions, buffer);
+        }
+      });
+    }
+
+    private void writeOptions(String field, Map<String, Boolean> fieldOptions, PageBuffer out) {
+      Template option = options.get(field);
+      Switch flag = checked.get(field);
+      for (Map.Entry<String, Boolean> entry : fieldOptions.entrySet()) {
+        byte[] name = optionNames.computeIfAbsent(entry.getKey(), IndexRenderer::escapeAndEncode);
+        option.write(out, (slot, buffer) -> {
+          if (slot.equals("option")) {
+            buffer.write(name);
+          }
+          else {
+            flag.write(entry.getValue(), buffer, null);
+          }
+        });
+      }
+    }
+
+    private static Map<String, Boolean> optionsOf(String field, Map<String, Boolean> methods,
+        Map<String, Boolean> period, Map<String, Boolean> majors) {
+      switch (field) {
+        case "methods":
+          return methods;
+        case "period":
+          return period;
+        case "majors":
+          return majors;
+        default:
+          return null;
+      }
+    }
+  }
+
+  /**
+   * The values the Index template is rendered with while the page is being cut: markers for the text values,
+   * and which errors, options and flash messages show.
+   */
+  private static final class Sample {
+    String id = Layout.SAMPLE_ID;
+    final List<String> errors = new ArrayList<>();
+    final Map<String, Map<String, Boolean>> options = new HashMap<>();
+    String success;
+    String error;
+
+    Sample() {
+      for (String field : OPTION_FIELDS) {
+        options.put(field, new LinkedHashMap<>());
+      }
+    }
+
+    /** @return The page the template renders for these values. */
+    String render() {
+      Map<String, String> data = new HashMap<>();
+      data.put("id", id);
+      for (String field : FIELDS) {
+        if (!OPTION_FIELDS.contains(field)) {
+          data.put(field, Template.slot("value"));
+        }
+      }
+      Map<String, List<ValidationError>> fieldErrors = new HashMap<>();
+      for (String field : errors) {
+        fieldErrors.put(field, Collections.singletonList(new ValidationError(field, Template.slot("error"))));
+      }
+      return render(form(data, fieldErrors), options.get("methods"), options.get("period"), options.get("majors"),
+          success, error);
+    }
+
+    static Form<BusinessFormData> form(Map<String, String> data, Map<String, List<ValidationError>> errors) {
+      return new Form<>(null, BusinessFormData.class, data, errors, F.Option.<BusinessFormData>None());
+    }
+
+    /**
+     * Renders the Index template with the flash messages in a context of its own, restoring the current one after.
+     */
+    static String render(Form<BusinessFormData> form, Map<String, Boolean> methods, Map<String, Boolean> period,
+        Map<String, Boolean> majors, String success, String error) {
+      Map<String, String> flash = new HashMap<>();
+      if (success != null) {
+        flash.put("success", success);
+      }
+      if (error != null) {
+        flash.put("error", error);
+      }
+      Http.Context previous = Http.Context.current.get();
+      Http.Context.current.set(new Http.Context(0L, null, null, new HashMap<String, String>(), flash,
+          new HashMap<String, Object>()));
+      try {
+        return Index.render(form, methods, DistanceApply.getNameList(), period, majors).body();
+      }
+      finally {
+        if (previous == null) {
+          Http.Context.current.remove();
+        }
+        else {
+          Http.Context.current.set(previous);
+        }
+      }
+    }
+  }
+
+  /**
+   * Where two renderings differ: the first from start up to end, the second from start up to
+   * the same distance from its end.
+   */
+  private static final class Difference {
+    final int start;
+    final int end;
+    final int tail;
+
+    private Difference(int start, int end, int tail) {
+      this.start = start;
+      this.end = end;
+      this.tail = tail;
+    }
+
+    /**
+     * @param first A rendering.
+     * @param second A rendering differing from it in one place.
+     * @param early True to place the difference as early as it can go, where text repeats around it,
+     * false to place it as late.
+     * @return The difference.
+     */
+    static Difference of(String first, String second, boolean early) {
+      int limit = Math.min(first.length(), second.length());
+      int prefix;
+      int suffix;
+      if (early) {
+        suffix = commonSuffix(first, second, limit);
+        prefix = commonPrefix(first, second, limit - suffix);
+      }
+      else {
+        prefix = commonPrefix(first, second, limit);
+        suffix = commonSuffix(first, second, limit - prefix);
+      }
+      if (prefix == first.length() && prefix == second.length()) {
+        throw new IllegalStateException("Couldn't cut the Index template into segments: two renderings are the same.");
+      }
+      return new Difference(prefix, first.length() - suffix, suffix);
+    }
+
+    /** @return True if the second rendering only adds text to the first. */
+    boolean isInsertion() {
+      return start == end;
+    }
+
+    String first(String rendering) {
+      return rendering.substring(start, end);
+    }
+
+    String second(String rendering) {
+      return rendering.substring(start, rendering.length() - tail);
+    }
+
+    private static int commonPrefix(String first, String second, int limit) {
+      int length = 0;
+      while (length < limit && first.charAt(length) == second.charAt(length)) {
+        length++;
+      }
+      return length;
+    }
+
+    private static int commonSuffix(String first, String second, int limit) {
+      int length = 0;
+      while (length < limit
+          && first.charAt(first.length() - 1 - length) == second.charAt(second.length() - 1 - length)) {
+        length++;
+      }
+      return length;
+    }
+  }
+
+  /** Replaces the text from start up to end with other text, e.g. a slot marker. */
+  private static final class Cut {
+    final int start;
+    final int end;
+    final String replacement;
+
+    Cut(int start, int end, String replacement) {
+      this.start = start;
+      this.end = end;
+      this.replacement = replacement;
+    }
+
+    String applyTo(String text) {
+      return applyAll(text, Collections.singletonList(this));
+    }
+
+    /**
+     * @param text The text.
+     * @param cuts The cuts, which must not overlap. Cuts at the same place are applied in list order.
+     * @return The text with every cut applied.
+     */
+    static String applyAll(String text, List<Cut> cuts) {
+      List<Cut> ordered = new ArrayList<>(cuts);
+      // A stable sort, so cuts at the same place keep their order.
+      ordered.sort((a, b) -> Integer.compare(a.start, b.start));
+      StringBuilder out = new StringBuilder(text.length());
+      int from = 0;
+      for (Cut cut : ordered) {
+        if (cut.start < from || cut.end > text.length()) {
+          throw new IllegalStateException("Couldn't cut the Index template into segments: two parts overlap.");
+        }
+        out.append(text, from, cut.start).append(cut.replacement);
+        from = cut.end;
+      }
+      return out.append(text, from, text.length()).toString();
+    }
+  }
+
+  /** Writes the content of a slot. */
+  @FunctionalInterface
+  private interface SlotWriter {
+    /**
+     * @param slot The name of the slot.
+     * @param out Where to write its content.
+     */
+    void write(String slot, PageBuffer out);
+  }
+
+  /** A part of the page that shows one of two ways, e.g. a form group with or without its error. */
+  private static final class Switch {
+    private final Template off;
+    private final Template on;
+
+    Switch(Template off, Template on) {
+      this.off = off;
+      this.on = on;
+    }
+
+    /**
+     * @param isOn Which way to write.
+     * @param out Where to write.
+     * @param slotWriter Writes the slots, or null if there are none.
+     */
+    void write(boolean isOn, PageBuffer out, SlotWriter slotWriter) {
+      (isOn ? on : off).write(out, slotWriter);
+    }
+  }
+
+  /**
+   * Markup split at its slot markers into pre-encoded static segments and the slot names between them.
+   */
+  private static final class Template {
+    /** Starts a slot marker. Neither marker character is escaped by the templates, nor found in the page. */
+    private static final char OPEN = '\u0001';
+    /** Ends a slot marker. */
+    private static final char CLOSE = '\u0002';
+
+    private final byte[][] segments;
+    private final String[] slots;
+
+    private Template(byte[][] segments, String[] slots) {
+      this.segments = segments;
+      this.slots = slots;
+    }
+
+    /** @return The marker of the named slot. */
+    static String slot(String name) {
+      return OPEN + name + CLOSE;
+    }
+
+    static Template compile(String markup) {
+      List<byte[]> segments = new ArrayList<>();
+      List<String> slots = new ArrayList<>();
+      int from = 0;
+      int open = markup.indexOf(OPEN);
+      while (open >= 0) {
+        int close = markup.indexOf(CLOSE, open);
+        segments.add(encode(markup.substring(from, open)));
+        slots.add(markup.substring(open + 1, close));
+        from = close + 1;
+        open = markup.indexOf(OPEN, from);
+      }
+      segments.add(encode(markup.substring(from)));
+      return new Template(segments.toArray(new byte[0][]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * @param out Where to write.
+     * @param slotWriter Writes the slots, or null if there are none.
+     */
+    void write(PageBuffer out, SlotWriter slotWriter) {
+      for (int i = 0; i < slots.length; i++) {
+        out.write(segments[i]);
+        slotWriter.write(slots[i], out);
+      }
+      out.write(segments[slots.length]);
+    }
+  }
+
+  /**
+   * A growable byte buffer that encodes and escapes text straight to UTF-8,
+   * handing over a chunk whenever CHUNK_SIZE bytes are gathered if it has a chunk consumer.
+   */
+  private static final class PageBuffer {
+    private final Consumer<byte[]> chunks;
+    private byte[] bytes = new byte[CHUNK_SIZE * 2];
+    private int length = 0;
+
+    PageBuffer(Consumer<byte[]> chunks) {
+      this.chunks = chunks;
+    }
+
+    void write(byte[] segment) {
+      ensureCapacity(segment.length);
+      System.arraycopy(segment, 0, bytes, length, segment.length);
+      length += segment.length;
+      flushIfFull();
+    }
+
+    /** Escapes as HtmlFormat.escape does, encoding to UTF-8 in the same pass. */
+    void writeEscaped(String text) {
+      // At most six bytes per char: "&quot;", or three for a char of a BMP code point.
+      ensureCapacity(text.length() * 6);
+      for (int i = 0; i < text.length(); i++) {
+        char c = text.charAt(i);
+        switch (c) {
+          case '<':
+            ascii("&lt;");
+            break;
+          case '>':
+            ascii("&gt;");
+            break;
+          case '"':
+            ascii("&quot;");
+            break;
+          case '\'':
+            ascii("&#x27;");
+            break;
+          case '&':
+            ascii("&amp;");
+            break;
+          default:
+            if (c < 0x80) {
+              bytes[length++] = (byte) c;
+            }
+            else if (c < 0x800) {
+              bytes[length++] = (byte) (0xc0 | (c >> 6));
+              bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+              int codePoint = Character.toCodePoint(c, text.charAt(++i));
+              bytes[length++] = (byte) (0xf0 | (codePoint >> 18));
+              bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+              bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+              bytes[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+              // An unpaired surrogate, replaced as String.getBytes does.
+              bytes[length++] = (byte) '?';
+            }
+            else {
+              bytes[length++] = (byte) (0xe0 | (c >> 12));
+              bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+              bytes[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+      }
+      flushIfFull();
+    }
+
+    /** Hands over what was gathered so far, if there is a chunk consumer. */
+    void flush() {
+      if (chunks != null && length > 0) {
+        chunks.accept(Arrays.copyOf(bytes, length));
+        length = 0;
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+
+    private void ascii(String entity) {
+      for (int i = 0; i < entity.length(); i++) {
+        bytes[length++] = (byte) entity.charAt(i);
+      }
+    }
+
+    private void flushIfFull() {
+      if (length >= CHUNK_SIZE) {
+        flush();
+      }
+    }
+
+    private void ensureCapacity(int more) {
+      if (length + more > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+      }
+    }
+  }
+}
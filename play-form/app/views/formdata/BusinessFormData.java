@@ -1,5 +1,6 @@
 package views.formdata;
 
+import binder.FormBinder;
 import models.DistanceApply;
 import models.Duration;
 import models.Method;
@@ -8,6 +9,7 @@ import play.data.validation.ValidationError;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /**
  * Backing class for the Business data form.
@@ -18,9 +20,12 @@ import java.util.List;
  * <li> A public no-arg constructor.
  * <li> A validate() method that returns null or a List[ValidationError].
  * </ul>
+ * Submissions are bound by BusinessFormDataBinder, generated from the fields at compile time, see FormBinder.
  */
+@FormBinder
 public class BusinessFormData {
 
+  public String id = "";
   public String name = "";
   public String password = "";
   public List<String> methods = new ArrayList<>();
@@ -34,16 +39,17 @@ public class BusinessFormData {
 
   /**
    * Creates an initialized form instance. Assumes the passed data is valid. 
+   * The password is left blank, to be filled in only when changing it.
+   * @param id The id of the business.
    * @param name The name.
-   * @param password The password.
    * @param level The level.
    * @param period The duration.
    * @param methods The methods.
    * @param majors The majors. 
    */
-  public BusinessFormData(String name, String password, String level, Duration period, List<Method> methods, List<Major> majors) {
+  public BusinessFormData(long id, String name, String level, Duration period, List<Method> methods, List<Major> majors) {
+    this.id = String.valueOf(id);
     this.name = name;
-    this.password = password;
     this.level = level;
     this.period = period.getName();
     for(Method method : methods) {
@@ -60,64 +66,114 @@ public class BusinessFormData {
    * 
    * Validation checks include:
    * <ul>
+   * <li> Id is optional, but if specified, must be a number.
    * <li> Name must be non-empty.
-   * <li> Password must be at least five characters.
-   * <li> method (plural) are optional, but if specified, must exist in database.
+   * <li> Password must be at least five characters. It may be left blank when the id names a stored business,
+   * which then keeps its password.
+   * <li> Name, password and level fit their VARCHAR(255) columns, see conf/evolutions/default/1.sql.
+   * <li> method (plural) are optional, but if specified, must exist in database, and there can be no more of them than known methods.
    * <li> Level is required and must exist in database.
    * <li> duration is required and must exist in database.
-   * <li> Majors (plural) are optional, but if specified, must exist in database.
+   * <li> Majors (plural) are optional, but if specified, must exist in database, and there can be no more of them than known majors.
    * </ul>
    *
    * @return Null if valid, or a List[ValidationError] if problems found.
    */
   public List<ValidationError> validate() {
+    return PLAN.validate(this);
+  }
 
-    List<ValidationError> errors = new ArrayList<>();
+  /**
+   * Validates many forms, e.g. the rows of a bulk import, in parallel when there are enough of them.
+   * @param forms The forms.
+   * @return For each form, in order, what its validate() would return.
+   */
+  public static List<List<ValidationError>> validateAll(List<BusinessFormData> forms) {
+    return PLAN.validateAll(forms);
+  }
 
-    if (name == null || name.length() == 0) {
-      errors.add(new ValidationError("username", "No username was given."));
-    }
+  /** The width of the name, password and level columns. */
+  private static final int MAX_LENGTH = 255;
+
+  /** The rules of validate(), one group per field. Errors are only built for failing rules. */
+  private static final ValidationPlan<BusinessFormData> PLAN = ValidationPlan.<BusinessFormData>builder()
+      .group()
+      .rule(form -> isEmpty(form.id) || isDigits(form.id, 18),
+          (form, errors) -> errors.add(new ValidationError("id", "Invalid id: " + form.id + ".")))
+      .group()
+      .rule(form -> !isEmpty(form.name), "username", "No username was given.")
+      .rule(form -> form.name.length() <= MAX_LENGTH, "username", "Username is longer than " + MAX_LENGTH + " characters.")
+      .group()
+      .rule(form -> !isEmpty(form.password) || !isEmpty(form.id), "password", "No password was given.")
+      .rule(form -> isEmpty(form.password) || form.password.length() >= 5, "password", "Given password is less than five characters.")
+      .rule(form -> form.password.length() <= MAX_LENGTH, "password", "Password is longer than " + MAX_LENGTH + " characters.")
+      // method are optional, but if supplied must exist in database.
+      // Each method can be checked once, so more values than methods are rejected without looking them up.
+      .group()
+      .rule(form -> size(form.methods) <= Method.getCatalog().size(), "method", "Too many methods were given.")
+      .rule(form -> allMatch(form.methods, method -> Method.findMethod(method) != null),
+          (form, errors) -> {
+            for (String method : form.methods) {
+              if (Method.findMethod(method) == null) {
+                errors.add(new ValidationError("method", "Unknown method: " + method + "."));
+              }
+            }
+          })
+      // Level is required and must exist in database.
+      .group()
+      .rule(form -> !isEmpty(form.level), "distance", "No distance level was given.")
+      .rule(form -> form.level.length() <= MAX_LENGTH, "distance", "Distance level is longer than " + MAX_LENGTH + " characters.")
+      // duration is required and must exist in database.
+      .group()
+      .rule(form -> !isEmpty(form.period), "duration", "No duration was given.")
+      .rule(form -> Duration.findDuration(form.period) != null,
+          (form, errors) -> errors.add(new ValidationError("duration", "Invalid duration: " + form.period + ".")))
+      // Majors are optional, but if supplied must exist in database.
+      // Each major can be selected once, so more values than majors are rejected without looking them up.
+      .group()
+      .rule(form -> size(form.majors) <= Major.getCatalog().size(), "categories", "Too many categories were given.")
+      .rule(form -> allMatch(form.majors, major -> Major.findMajor(major) != null),
+          (form, errors) -> {
+            for (String major : form.majors) {
+              if (Major.findMajor(major) == null) {
+                errors.add(new ValidationError("categories", "Unknown category: " + major + "."));
+              }
+            }
+          })
+      .build();
+
+  private static boolean isEmpty(String value) {
+    return value == null || value.length() == 0;
+  }
 
-    if (password == null || password.length() == 0) {
-      errors.add(new ValidationError("password", "No password was given."));
-    } else if (password.length() < 5) {
-      errors.add(new ValidationError("password", "Given password is less than five characters."));
+  /** Same as value.matches("\\d{1,max}"), without compiling a pattern. */
+  private static boolean isDigits(String value, int max) {
+    if (value.length() > max) {
+      return false;
     }
-
-    // method are optional, but if supplied must exist in database.
-    if (methods.size() > 0) {
-      for (String method : methods) {
-        if (Method.findMethod(method) == null) {
-          errors.add(new ValidationError("method", "Unknown method: " + method + "."));
-        }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
       }
     }
+    return true;
+  }
 
-    // Level is required and must exist in database.
-    if (level == null || level.length() == 0) {
-      errors.add(new ValidationError("distance", "No distance level was given."));
-    }
-
+  private static int size(List<String> values) {
+    return (values == null) ? 0 : values.size();
+  }
 
-    // duration is required and must exist in database.
-    if (period == null || period.length() == 0) {
-      errors.add(new ValidationError("duration", "No duration was given."));
-    } else if (Duration.findDuration(period) == null) {
-      errors.add(new ValidationError("duration", "Invalid duration: " + period + "."));
+  /** Indexed loop, so the valid path doesn't allocate an iterator. */
+  private static boolean allMatch(List<String> values, Predicate<String> test) {
+    if (values == null) {
+      return true;
     }
-
-    // Majors are optional, but if supplied must exist in database.
-    if (majors.size() > 0) {
-      for (String major : majors) {
-        if (Major.findMajor(major) == null) {
-          errors.add(new ValidationError("categories", "Unknown category: " + major + "."));
-        }
+    for (int i = 0; i < values.size(); i++) {
+      if (!test.test(values.get(i))) {
+        return false;
       }
     }
-
-    if(errors.size() > 0)
-      return errors;
-
-    return null;
+    return true;
   }
 }
@@ -0,0 +1,189 @@
+package views.formdata;
+
+import metrics.Metrics;
+import models.Major;
+import models.Method;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads a url-encoded business form in one pass over its bytes, turning away submissions no browser
+ * would send from the form before they are bound and validated.
+ * This class includes:
+ * <ul>
+ * <li> Limits on the number of fields, the length of a value, and the entries of methods[] and majors[],
+ * which can't hold more entries than there are options.
+ * <li> A check that the password field is present; an empty one is left to validate().
+ * <li> Decoding each field as it is read, with name[] keys numbered as bindFromRequest() does, into a
+ * generated binder such as BusinessFormDataBinder, or into the map Form.bind() takes.
+ * </ul>
+ * Each rejection is counted in Metrics.FORM_PRECHECK_REJECTIONS by its reason.
+ */
+public final class FormPrecheck {
+
+  /** The largest body accepted. The form, filled in, is well under a kilobyte. */
+  public static final int MAX_BODY_BYTES = 16 * 1024;
+
+  /** The most fields accepted: a few scalars, and each method and major at most once. */
+  private static final int MAX_FIELDS = 64;
+
+  /** The longest encoded value accepted. */
+  private static final int MAX_VALUE_BYTES = 1024;
+
+  private FormPrecheck() {
+  }
+
+  /**
+   * Decodes a form body into a map, or rejects it.
+   * @param body The url-encoded body, or null if there was none.
+   * @return The fields by name, the first value of each, or null if the body was rejected.
+   */
+  public static Map<String, String> scan(byte[] body) {
+    Map<String, String> fields = new HashMap<>();
+    return scan(body, fields::putIfAbsent) ? fields : null;
+  }
+
+  /**
+   * Decodes a form body, handing each field to the sink as it is read, or rejects it.
+   * The sink may have been given some fields of a body that ends up rejected.
+   * @param body The url-encoded body, or null if there was none.
+   * @param sink Takes each field's name and value, in the order of the body.
+   * @return True if the body was accepted.
+   */
+  public static boolean scan(byte[] body, BiConsumer<String, String> sink) {
+    if (body == null) {
+      return reject("body");
+    }
+    boolean password = false;
+    int methods = 0;
+    int majors = 0;
+    int count = 0;
+    int start = 0;
+    while (start < body.length) {
+      int end = indexOf(body, (byte) '&', start, body.length);
+      if (end > start) {
+        if (++count > MAX_FIELDS) {
+          return reject("fields");
+        }
+        int equals = indexOf(body, (byte) '=', start, end);
+        int valueStart = Math.min(equals + 1, end);
+        if (end - valueStart > MAX_VALUE_BYTES) {
+          return reject("value");
+        }
+        String key = decode(body, start, equals);
+        String value = decode(body, valueStart, end);
+        if (key == null || value == null) {
+          return reject("encoding");
+        }
+        if (key.startsWith("methods[")) {
+          key = numbered(key, methods);
+          if (++methods > Method.getCatalog().size()) {
+            return reject("methods");
+          }
+        }
+        else if (key.startsWith("majors[")) {
+          key = numbered(key, majors);
+          if (++majors > Major.getCatalog().size()) {
+            return reject("majors");
+          }
+        }
+        else if (key.equals("password")) {
+          password = true;
+        }
+        sink.accept(key, value);
+      }
+      start = end + 1;
+    }
+    return password || reject("password");
+  }
+
+  /**
+   * Finds the first value of a field without decoding the others, e.g. to rate limit by it.
+   * @param body The url-encoded body, or null.
+   * @param field The name of the field.
+   * @return The decoded value, or null if the field is missing or badly encoded.
+   */
+  public static String find(byte[] body, String field) {
+    if (body == null) {
+      return null;
+    }
+    byte[] name = field.getBytes(StandardCharsets.UTF_8);
+    int start = 0;
+    while (start < body.length) {
+      int end = indexOf(body, (byte) '&', start, body.length);
+      int equals = indexOf(body, (byte) '=', start, end);
+      if (equals - start == name.length && regionMatches(body, start, name)) {
+        return decode(body, Math.min(equals + 1, end), end);
+      }
+      start = end + 1;
+    }
+    return null;
+  }
+
+  /** Numbers an array key, e.g. the third methods[] becomes methods[2]. Keys with an index are kept. */
+  private static String numbered(String key, int position) {
+    return key.endsWith("[]") ? key.substring(0, key.length() - 1) + position + "]" : key;
+  }
+
+  /** @return The index of the first b in [from, to), or to if there is none. */
+  private static int indexOf(byte[] bytes, byte b, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return to;
+  }
+
+  private static boolean regionMatches(byte[] bytes, int from, byte[] expected) {
+    for (int i = 0; i < expected.length; i++) {
+      if (bytes[from + i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a url-encoded range as UTF-8. Ranges with neither '+' nor '%' are decoded in place.
+   * @return The string, or null if a '%' isn't followed by two hex digits.
+   */
+  private static String decode(byte[] bytes, int from, int to) {
+    int i = from;
+    while (i < to && bytes[i] != '+' && bytes[i] != '%') {
+      i++;
+    }
+    if (i == to) {
+      return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    }
+    byte[] decoded = new byte[to - from];
+    int length = i - from;
+    System.arraycopy(bytes, from, decoded, 0, length);
+    while (i < to) {
+      byte b = bytes[i++];
+      if (b == '+') {
+        b = ' ';
+      }
+      else if (b == '%') {
+        int high = (i + 1 < to) ? Character.digit(bytes[i], 16) : -1;
+        int low = (high >= 0) ? Character.digit(bytes[i + 1], 16) : -1;
+        if (low < 0) {
+          return null;
+        }
+        b = (byte) ((high << 4) | low);
+        i += 2;
+      }
+      decoded[length++] = b;
+    }
+    return new String(decoded, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /** @return False, having counted the rejection. */
+  private static boolean reject(String reason) {
+    Metrics.FORM_PRECHECK_REJECTIONS.labelled(reason).add(1);
+    return false;
+  }
+}
@@ -0,0 +1,181 @@
+package views.formdata;
+
+import play.data.validation.ValidationError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * Validation rules declared once per field, compiled into a plan reused for every form.
+ * This class includes:
+ * <ul>
+ * <li> Field groups, each an ordered chain of rules where the first failing rule ends the group,
+ * as in "required, else at least five characters".
+ * <li> Checks that are plain predicates, so a valid form is checked without allocating.
+ * <li> Errors built only for the rules that fail, by a reporter given the form.
+ * <li> Validation of many forms at once, split across the common fork-join pool.
+ * </ul>
+ * Groups are independent of each other, so every group runs whatever the others found.
+ * @param <T> The type of form validated.
+ */
+public final class ValidationPlan<T> {
+
+  /** Builds the errors of a failed rule. Only called when its check failed. */
+  @FunctionalInterface
+  public interface Reporter<T> {
+    /**
+     * @param form The form that failed the check.
+     * @param errors Where to add the errors.
+     */
+    void report(T form, List<ValidationError> errors);
+  }
+
+  /** Forms validated by one task before validateAll stops splitting. */
+  private static final int SEQUENTIAL_THRESHOLD = 32;
+
+  private final Predicate<T>[][] checks;
+  private final Reporter<T>[][] reporters;
+
+  private ValidationPlan(Predicate<T>[][] checks, Reporter<T>[][] reporters) {
+    this.checks = checks;
+    this.reporters = reporters;
+  }
+
+  /**
+   * @param <T> The type of form validated.
+   * @return A builder for a plan with no rules.
+   */
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * Runs every group of the plan against the form.
+   * @param form The form.
+   * @return Null if valid, or the errors in the order their rules were declared.
+   */
+  public List<ValidationError> validate(T form) {
+    List<ValidationError> errors = null;
+    for (int group = 0; group < checks.length; group++) {
+      Predicate<T>[] groupChecks = checks[group];
+      for (int rule = 0; rule < groupChecks.length; rule++) {
+        if (!groupChecks[rule].test(form)) {
+          if (errors == null) {
+            errors = new ArrayList<>(2);
+          }
+          reporters[group][rule].report(form, errors);
+          break;
+        }
+      }
+    }
+    return errors;
+  }
+
+  /**
+   * Validates many forms, in parallel when there are enough to be worth it.
+   * @param forms The forms.
+   * @return For each form, in order, null if valid or its errors.
+   */
+  public List<List<ValidationError>> validateAll(List<? extends T> forms) {
+    @SuppressWarnings("unchecked")
+    List<ValidationError>[] results = new List[forms.size()];
+    ForkJoinPool.commonPool().invoke(new ValidateRange(forms, results, 0, forms.size()));
+    return Arrays.asList(results);
+  }
+
+  /** Validates a range of forms, splitting it in halves until it is small. */
+  private final class ValidateRange extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<? extends T> forms;
+    private final List<ValidationError>[] results;
+    private final int from;
+    private final int to;
+
+    ValidateRange(List<? extends T> forms, List<ValidationError>[] results, int from, int to) {
+      this.forms = forms;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = from; i < to; i++) {
+          results[i] = validate(forms.get(i));
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ValidateRange(forms, results, from, middle), new ValidateRange(forms, results, middle, to));
+    }
+  }
+
+  /**
+   * Declares the groups of a plan, in the order their errors are reported.
+   * @param <T> The type of form validated.
+   */
+  public static final class Builder<T> {
+
+    private final List<List<Predicate<T>>> checks = new ArrayList<>();
+    private final List<List<Reporter<T>>> reporters = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Starts a new group of rules, usually one per field.
+     * @return This builder.
+     */
+    public Builder<T> group() {
+      checks.add(new ArrayList<>());
+      reporters.add(new ArrayList<>());
+      return this;
+    }
+
+    /**
+     * Adds a rule to the current group, run only if the rules before it in the group passed.
+     * @param check Passes if the form is valid for this rule.
+     * @param reporter Adds the errors if the check fails.
+     * @return This builder.
+     */
+    public Builder<T> rule(Predicate<T> check, Reporter<T> reporter) {
+      if (checks.isEmpty()) {
+        throw new IllegalStateException("Call group() before adding rules");
+      }
+      checks.get(checks.size() - 1).add(check);
+      reporters.get(reporters.size() - 1).add(reporter);
+      return this;
+    }
+
+    /**
+     * Adds a rule to the current group that reports a single error with a fixed message.
+     * @param check Passes if the form is valid for this rule.
+     * @param key The key of the error.
+     * @param message The message of the error.
+     * @return This builder.
+     */
+    public Builder<T> rule(Predicate<T> check, String key, String message) {
+      return rule(check, (form, errors) -> errors.add(new ValidationError(key, message)));
+    }
+
+    /**
+     * @return The plan, with the rules declared so far.
+     */
+    @SuppressWarnings("unchecked")
+    public ValidationPlan<T> build() {
+      Predicate<T>[][] compiledChecks = new Predicate[checks.size()][];
+      Reporter<T>[][] compiledReporters = new Reporter[reporters.size()][];
+      for (int group = 0; group < checks.size(); group++) {
+        compiledChecks[group] = checks.get(group).toArray(new Predicate[0]);
+        compiledReporters[group] = reporters.get(group).toArray(new Reporter[0]);
+      }
+      return new ValidationPlan<>(compiledChecks, compiledReporters);
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import play.core.j.JavaHelpers$;
+import play.data.Form;
+import play.mvc.Http;
+import play.test.FakeRequest;
+import views.formdata.BusinessFormData;
+import views.formdata.BusinessFormDataBinder;
+import views.formdata.FormPrecheck;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures binding a valid submission into a validated Form: with Play's reflective bindFromRequest() on the
+ * request parsed as a form, and with FormPrecheck feeding the generated BusinessFormDataBinder from the raw body.
+ * bindFromRequest() reads the current Http.Context, so each benchmark thread gets its own inside the
+ * RunningApplication they share.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BindingBenchmark {
+
+  private static final String BODY = "id=&name=Valentin&password=mypassword&level=val%40example.com&period=4+weeks"
+      + "&methods%5B%5D=Web&methods%5B%5D=Email&majors%5B%5D=Restaurant&majors%5B%5D=Hotel";
+
+  private byte[] body;
+
+  /**
+   * @param application Started before this thread's state is set up.
+   */
+  @Setup
+  public void setUp(RunningApplication application) {
+    Map<String, String> fields = new HashMap<>();
+    fields.put("id", "");
+    fields.put("name", "Valentin");
+    fields.put("password", "mypassword");
+    fields.put("level", "val@example.com");
+    fields.put("period", "4 weeks");
+    fields.put("methods[0]", "Web");
+    fields.put("methods[1]", "Email");
+    fields.put("majors[0]", "Restaurant");
+    fields.put("majors[1]", "Hotel");
+    FakeRequest request = new FakeRequest("POST", "/").withFormUrlEncodedBody(fields);
+    Http.Context.current.set(JavaHelpers$.MODULE$.createJavaContext(request.getWrappedRequest()));
+    body = BODY.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Http.Context.current.remove();
+  }
+
+  @Benchmark
+  public Form<BusinessFormData> bindFromRequest() {
+    return Form.form(BusinessFormData.class).bindFromRequest();
+  }
+
+  @Benchmark
+  public Form<BusinessFormData> generatedBinder() {
+    BusinessFormDataBinder binder = new BusinessFormDataBinder();
+    FormPrecheck.scan(body, binder);
+    return binder.toForm();
+  }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import models.Business;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import services.PasswordPolicy;
+import views.formdata.BusinessFormData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Business.makeInstance, once with the password hash computed up front (the conversion alone)
+ * and once hashing for real at each of the given BCrypt costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BusinessBenchmark {
+
+  @Param({"8", "10"})
+  public int logRounds;
+
+  private BusinessFormData formData;
+  private String passwordHash;
+
+  @Setup
+  public void setUp() {
+    PasswordPolicy.setLogRounds(logRounds);
+    formData = Fixtures.validFormData();
+    passwordHash = PasswordPolicy.hash(formData.password);
+  }
+
+  @Benchmark
+  public Business makeInstanceStubbedHash() {
+    return Business.makeInstance(formData, passwordHash);
+  }
+
+  @Benchmark
+  public Business makeInstanceRealHash() {
+    return Business.makeInstance(formData);
+  }
+}
@@ -0,0 +1,51 @@
+package benchmarks;
+
+import models.UserInfoDB;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import services.PasswordPolicy;
+import services.VerifiedCredentialCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures UserInfoDB.isValid for a valid login, a wrong password and an unknown email,
+ * with the verified-credential cache on and off. The wrong-password and unknown-email
+ * cases should cost the same; with the cache on, the valid case should drop to well under a microsecond.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CredentialBenchmark {
+
+  @Param({"false", "true"})
+  public boolean cacheEnabled;
+
+  @Setup
+  public void setUp() {
+    PasswordPolicy.setLogRounds(10);
+    VerifiedCredentialCache.configure(cacheEnabled, TimeUnit.HOURS.toMillis(1), 10000);
+    UserInfoDB.addUserInfo("Bench", "bench@example.com", "benchpassword");
+  }
+
+  @Benchmark
+  public boolean isValidCorrectPassword() {
+    return UserInfoDB.isValid("bench@example.com", "benchpassword");
+  }
+
+  @Benchmark
+  public boolean isValidWrongPassword() {
+    return UserInfoDB.isValid("bench@example.com", "wrongpassword");
+  }
+
+  @Benchmark
+  public boolean isValidUnknownEmail() {
+    return UserInfoDB.isValid("nobody@example.com", "benchpassword");
+  }
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import play.test.Helpers;
+import views.formdata.BusinessFormData;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Form data and application settings shared by the benchmarks.
+ */
+final class Fixtures {
+
+  private Fixtures() {
+  }
+
+  /**
+   * @return A new, valid BusinessFormData with optional data supplied.
+   */
+  static BusinessFormData validFormData() {
+    BusinessFormData data = new BusinessFormData();
+    data.name = "Valentin";
+    data.password = "mypassword";
+    data.level = "val@example.com";
+    data.period = "4 weeks";
+    data.methods.add("Web");
+    data.methods.add("Email");
+    data.majors.add("Restaurant");
+    data.majors.add("Hotel");
+    return data;
+  }
+
+  /**
+   * @return The settings of a fake application on a fresh in-memory database, with the write-behind
+   * log off so no run leaves files under db/write-behind.
+   */
+  static Map<String, String> appSettings() {
+    Map<String, String> settings = new HashMap<>(Helpers.inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import play.data.validation.ValidationError;
+import views.formdata.BusinessFormData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures BusinessFormData.validate() on a valid submission, a submission with a few bad values,
+ * and a hostile one with thousands of methods[] values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormValidationBenchmark {
+
+  private BusinessFormData valid;
+  private BusinessFormData invalid;
+  private BusinessFormData flooded;
+
+  @Setup
+  public void setUp() {
+    valid = Fixtures.validFormData();
+
+    invalid = Fixtures.validFormData();
+    invalid.password = "abc";
+    invalid.period = "5 weeks";
+    invalid.methods.add("Carrier pigeon");
+
+    flooded = Fixtures.validFormData();
+    for (int i = 0; i < 5000; i++) {
+      flooded.methods.add("Method " + i);
+    }
+  }
+
+  @Benchmark
+  public List<ValidationError> validateValid() {
+    return valid.validate();
+  }
+
+  @Benchmark
+  public List<ValidationError> validateInvalid() {
+    return invalid.validate();
+  }
+
+  @Benchmark
+  public List<ValidationError> validateFlooded() {
+    return flooded.validate();
+  }
+}
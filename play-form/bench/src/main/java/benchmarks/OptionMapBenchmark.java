@@ -0,0 +1,46 @@
+package benchmarks;
+
+import models.Duration;
+import models.Major;
+import models.Method;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import views.formdata.BusinessFormData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the option maps passed to Index.render, for an empty form and a filled one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OptionMapBenchmark {
+
+  private BusinessFormData formData;
+
+  @Setup
+  public void setUp() {
+    formData = Fixtures.validFormData();
+  }
+
+  @Benchmark
+  public void makeMapsEmptyForm(Blackhole blackhole) {
+    blackhole.consume(Method.makeMethodMap(null));
+    blackhole.consume(Duration.makeDurationMap(null));
+    blackhole.consume(Major.makeMajorMap(null));
+  }
+
+  @Benchmark
+  public void makeMapsFilledForm(Blackhole blackhole) {
+    blackhole.consume(Method.makeMethodMap(formData));
+    blackhole.consume(Duration.makeDurationMap(formData));
+    blackhole.consume(Major.makeMajorMap(formData));
+  }
+}
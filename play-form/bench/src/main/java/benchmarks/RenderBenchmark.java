@@ -0,0 +1,73 @@
+package benchmarks;
+
+import models.DistanceApply;
+import models.Duration;
+import models.Major;
+import models.Method;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import play.core.j.JavaHelpers$;
+import play.data.Form;
+import play.mvc.Http;
+import play.test.FakeRequest;
+import play.twirl.api.Html;
+import views.formdata.BusinessFormData;
+import views.html.Index;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering Index.scala.html (with fieldset and the bootstrap3 helpers) to a String.
+ * Templates read the flash from the current Http.Context, so each benchmark thread gets its own
+ * context inside the RunningApplication they share.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderBenchmark {
+
+  private BusinessFormData formData;
+  private Form<BusinessFormData> emptyForm;
+  private Form<BusinessFormData> filledForm;
+
+  /**
+   * @param application Started before this thread's state is set up.
+   */
+  @Setup
+  public void setUp(RunningApplication application) {
+    Http.Context.current.set(JavaHelpers$.MODULE$.createJavaContext(new FakeRequest("GET", "/").getWrappedRequest()));
+    formData = Fixtures.validFormData();
+    emptyForm = Form.form(BusinessFormData.class).fill(new BusinessFormData());
+    filledForm = Form.form(BusinessFormData.class).fill(formData);
+  }
+
+  @TearDown
+  public void tearDown() {
+    Http.Context.current.remove();
+  }
+
+  @Benchmark
+  public String renderEmptyForm() {
+    return Index.render(emptyForm,
+      Method.makeMethodMap(null),
+      DistanceApply.getNameList(),
+      Duration.makeDurationMap(null),
+      Major.makeMajorMap(null)).body();
+  }
+
+  @Benchmark
+  public String renderFilledForm() {
+    Html html = Index.render(filledForm,
+      Method.makeMethodMap(formData),
+      DistanceApply.getNameList(),
+      Duration.makeDurationMap(formData),
+      Major.makeMajorMap(formData));
+    return html.body();
+  }
+}
@@ -0,0 +1,32 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import play.test.FakeApplication;
+import play.test.Helpers;
+
+/**
+ * A fake application, started once per trial and shared by every benchmark thread.
+ * Play keeps the running application, and this one's pools and repository, in static state,
+ * so threads starting and stopping applications of their own would pull it from under each other.
+ * Benchmarks that need it take it as a parameter of their @Setup method.
+ */
+@State(Scope.Benchmark)
+public class RunningApplication {
+
+  private FakeApplication app;
+
+  @Setup(Level.Trial)
+  public void start() {
+    app = Helpers.fakeApplication(Fixtures.appSettings());
+    Helpers.start(app);
+  }
+
+  @TearDown(Level.Trial)
+  public void stop() {
+    Helpers.stop(app);
+  }
+}
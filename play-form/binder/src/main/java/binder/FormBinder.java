@@ -0,0 +1,18 @@
+package binder;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a form data class for which FormBinderProcessor generates a binder at compile time, named after the class
+ * with a Binder suffix and in the same package. The class must have a public no-arg constructor, and its public
+ * fields must each be a String or a List of String.
+ * The binder fills an instance field by field as a url-encoded body is read, unbinds an instance into the data map
+ * of a play.data.Form, and builds the Form, validated as bindFromRequest() would, without reflection.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface FormBinder {
+}
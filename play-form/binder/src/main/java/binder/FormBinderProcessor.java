@@ -0,0 +1,265 @@
+package binder;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates the binder of each class annotated with FormBinder.
+ * This class includes:
+ * <ul>
+ * <li> Checking the class: a public no-arg constructor, and public String or List of String fields only.
+ * Anything else is reported as a compile error on the offending element.
+ * <li> Writing the binder source: a switch on the field name for scalars, a prefix check for lists,
+ * and unbind() and fill() listing the fields one by one.
+ * <li> Validation through the class's validate() method, if it has one returning a list of errors, as Play calls it.
+ * </ul>
+ */
+@SupportedAnnotationTypes("binder.FormBinder")
+public class FormBinderProcessor extends AbstractProcessor {
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(FormBinder.class)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@FormBinder only applies to classes.");
+        continue;
+      }
+      TypeElement type = (TypeElement) element;
+      List<VariableElement> scalars = new ArrayList<>();
+      List<VariableElement> lists = new ArrayList<>();
+      if (collectFields(type, scalars, lists) && hasPublicNoArgConstructor(type)) {
+        write(type, scalars, lists, hasValidate(type));
+      }
+    }
+    return true;
+  }
+
+  /** Sorts the public fields into scalars and lists. @return False if one has another type. */
+  private boolean collectFields(TypeElement type, List<VariableElement> scalars, List<VariableElement> lists) {
+    boolean valid = true;
+    for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+      Set<Modifier> modifiers = field.getModifiers();
+      if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+        continue;
+      }
+      if (modifiers.contains(Modifier.FINAL)) {
+        error(field, "A bound field can't be final.");
+        valid = false;
+      }
+      else if (isString(field.asType())) {
+        scalars.add(field);
+      }
+      else if (isListOfString(field.asType())) {
+        lists.add(field);
+      }
+      else {
+        error(field, "A bound field must be a String or a List<String>.");
+        valid = false;
+      }
+    }
+    return valid;
+  }
+
+  private boolean hasPublicNoArgConstructor(TypeElement type) {
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+        return true;
+      }
+    }
+    error(type, "A class with @FormBinder needs a public no-arg constructor.");
+    return false;
+  }
+
+  private boolean hasValidate(TypeElement type) {
+    for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+      if (method.getSimpleName().contentEquals("validate") && method.getParameters().isEmpty()
+          && method.getModifiers().contains(Modifier.PUBLIC) && !method.getModifiers().contains(Modifier.STATIC)
+          && processingEnv.getTypeUtils().erasure(method.getReturnType()).toString().equals("java.util.List")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isString(TypeMirror type) {
+    return type.toString().equals("java.lang.String");
+  }
+
+  private boolean isListOfString(TypeMirror type) {
+    if (type.getKind() != TypeKind.DECLARED) {
+      return false;
+    }
+    List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+    return processingEnv.getTypeUtils().erasure(type).toString().equals("java.util.List")
+        && arguments.size() == 1 && isString(arguments.get(0));
+  }
+
+  private void write(TypeElement type, List<VariableElement> scalars, List<VariableElement> lists, boolean validate) {
+    String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String target = type.getSimpleName().toString();
+    String binder = target + "Binder";
+    StringBuilder out = new StringBuilder();
+    if (!pkg.isEmpty()) {
+      out.append("package ").append(pkg).append(";\n\n");
+    }
+    out.append("import play.data.Form;\n")
+        .append("import play.data.validation.ValidationError;\n")
+        .append("import play.libs.F;\n\n")
+        .append("import java.util.ArrayList;\n")
+        .append("import java.util.HashMap;\n")
+        .append("import java.util.List;\n")
+        .append("import java.util.Map;\n")
+        .append("import java.util.function.BiConsumer;\n\n")
+        .append("/**\n")
+        .append(" * Binds ").append(target).append(" from form fields without reflection.\n")
+        .append(" * Generated by binder.FormBinderProcessor from @FormBinder, do not edit.\n")
+        .append(" */\n")
+        .append("public final class ").append(binder).append(" implements BiConsumer<String, String> {\n\n")
+        .append("  private final ").append(target).append(" value = new ").append(target).append("();\n")
+        .append("  private final boolean[] seen = new boolean[").append(scalars.size()).append("];\n\n");
+
+    // accept(): the first value of a scalar wins, as with bindFromRequest(); list values are added in order.
+    out.append("  /**\n")
+        .append("   * Sets a field from a decoded form field, e.g. name or methods[0].\n")
+        .append("   * @param key The field name.\n")
+        .append("   * @param text The field value.\n")
+        .append("   */\n")
+        .append("  @Override\n")
+        .append("  public void accept(String key, String text) {\n")
+        .append("    switch (key) {\n");
+    for (int i = 0; i < scalars.size(); i++) {
+      String name = scalars.get(i).getSimpleName().toString();
+      out.append("      case \"").append(name).append("\":\n")
+          .append("        if (!seen[").append(i).append("]) {\n")
+          .append("          seen[").append(i).append("] = true;\n")
+          .append("          value.").append(name).append(" = text;\n")
+          .append("        }\n")
+          .append("        return;\n");
+    }
+    for (VariableElement list : lists) {
+      String name = list.getSimpleName().toString();
+      out.append("      case \"").append(name).append("\":\n")
+          .append("        add").append(capitalize(name)).append("(text);\n")
+          .append("        return;\n");
+    }
+    out.append("      default:\n")
+        .append("        break;\n")
+        .append("    }\n");
+    for (VariableElement list : lists) {
+      String name = list.getSimpleName().toString();
+      out.append("    if (key.startsWith(\"").append(name).append("[\")) {\n")
+          .append("      add").append(capitalize(name)).append("(text);\n")
+          .append("    }\n");
+    }
+    out.append("  }\n\n");
+    for (VariableElement list : lists) {
+      String name = list.getSimpleName().toString();
+      out.append("  private void add").append(capitalize(name)).append("(String text) {\n")
+          .append("    if (value.").append(name).append(" == null) {\n")
+          .append("      value.").append(name).append(" = new ArrayList<>();\n")
+          .append("    }\n")
+          .append("    value.").append(name).append(".add(text);\n")
+          .append("  }\n\n");
+    }
+
+    out.append("  /**\n")
+        .append("   * @return The instance bound so far.\n")
+        .append("   */\n")
+        .append("  public ").append(target).append(" get() {\n")
+        .append("    return value;\n")
+        .append("  }\n\n");
+
+    out.append("  /**\n")
+        .append("   * @return A form of the bound instance");
+    out.append(validate ? ", with the errors of its validate() if there are any.\n" : ".\n");
+    out.append("   */\n")
+        .append("  public Form<").append(target).append("> toForm() {\n");
+    if (validate) {
+      out.append("    List<ValidationError> errors = value.validate();\n")
+          .append("    if (errors != null && !errors.isEmpty()) {\n")
+          .append("      Map<String, List<ValidationError>> byKey = new HashMap<>();\n")
+          .append("      for (ValidationError error : errors) {\n")
+          .append("        byKey.computeIfAbsent(error.key(), k -> new ArrayList<>()).add(error);\n")
+          .append("      }\n")
+          .append("      return new Form<>(null, ").append(target).append(".class, unbind(value), byKey, F.Option.<")
+          .append(target).append(">None());\n")
+          .append("    }\n");
+    }
+    out.append("    return fill(value);\n")
+        .append("  }\n\n");
+
+    out.append("  /**\n")
+        .append("   * Same as Form.form(").append(target).append(".class).fill(source), with the data filled in up front\n")
+        .append("   * so the form's fields are read from it rather than through reflection.\n")
+        .append("   * @param source The instance.\n")
+        .append("   * @return The form.\n")
+        .append("   */\n")
+        .append("  public static Form<").append(target).append("> fill(").append(target).append(" source) {\n")
+        .append("    return new Form<>(null, ").append(target).append(".class, unbind(source), ")
+        .append("new HashMap<String, List<ValidationError>>(), F.Option.Some(source));\n")
+        .append("  }\n\n");
+
+    out.append("  /**\n")
+        .append("   * @param source The instance.\n")
+        .append("   * @return Its fields as form data, list elements numbered, e.g. methods[0]. Null values are left out.\n")
+        .append("   */\n")
+        .append("  public static Map<String, String> unbind(").append(target).append(" source) {\n")
+        .append("    Map<String, String> data = new HashMap<>();\n");
+    for (VariableElement scalar : scalars) {
+      String name = scalar.getSimpleName().toString();
+      out.append("    if (source.").append(name).append(" != null) {\n")
+          .append("      data.put(\"").append(name).append("\", source.").append(name).append(");\n")
+          .append("    }\n");
+    }
+    for (VariableElement list : lists) {
+      String name = list.getSimpleName().toString();
+      out.append("    if (source.").append(name).append(" != null) {\n")
+          .append("      for (int i = 0; i < source.").append(name).append(".size(); i++) {\n")
+          .append("        data.put(\"").append(name).append("[\" + i + \"]\", source.").append(name).append(".get(i));\n")
+          .append("      }\n")
+          .append("    }\n");
+    }
+    out.append("    return data;\n")
+        .append("  }\n")
+        .append("}\n");
+
+    String name = pkg.isEmpty() ? binder : pkg + "." + binder;
+    try (Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter()) {
+      writer.write(out.toString());
+    }
+    catch (IOException e) {
+      error(type, "Couldn't write " + name + ": " + e.getMessage());
+    }
+  }
+
+  private static String capitalize(String name) {
+    return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+}
@@ -0,0 +1,41 @@
+# Businesses and users
+
+# --- !Ups
+
+CREATE TABLE business (
+  id BIGINT NOT NULL PRIMARY KEY,
+  name VARCHAR(255),
+  password VARCHAR(255),
+  level VARCHAR(255),
+  duration_id BIGINT,
+  version BIGINT NOT NULL,
+  last_modified BIGINT NOT NULL
+);
+
+CREATE INDEX ix_business_level ON business (level);
+
+CREATE TABLE business_method (
+  business_id BIGINT NOT NULL REFERENCES business (id) ON DELETE CASCADE,
+  method_id BIGINT NOT NULL,
+  PRIMARY KEY (business_id, method_id)
+);
+
+CREATE TABLE business_major (
+  business_id BIGINT NOT NULL REFERENCES business (id) ON DELETE CASCADE,
+  major_id BIGINT NOT NULL,
+  PRIMARY KEY (business_id, major_id)
+);
+
+CREATE TABLE user_info (
+  email_key VARCHAR(255) NOT NULL PRIMARY KEY,
+  name VARCHAR(255),
+  email VARCHAR(255) NOT NULL,
+  password VARCHAR(255) NOT NULL
+);
+
+# --- !Downs
+
+DROP TABLE IF EXISTS user_info;
+DROP TABLE IF EXISTS business_major;
+DROP TABLE IF EXISTS business_method;
+DROP TABLE IF EXISTS business;
@@ -0,0 +1,301 @@
+package loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a mix of GET / and POST / requests against a running server and records their latency.
+ * This class includes:
+ * <ul>
+ * <li> An open workload model: requests start on a fixed schedule at the target rate whether or not
+ * earlier ones have finished, and latency is measured from the scheduled start, so a stalled server
+ * shows up in the percentiles instead of silently lowering the offered load.
+ * <li> A closed workload model: a fixed number of clients each send their next request as soon as
+ * the previous one completes.
+ * <li> One HDR histogram per request kind, plus counts of unexpected statuses and I/O errors.
+ * 429s from admission control are counted apart, as rejections rather than errors.
+ * </ul>
+ */
+public class LoadGenerator {
+
+  /** The kinds of request in the mix, with the status a healthy server answers. */
+  public enum Kind {
+    /** GET / of a known business, or of the empty form. */
+    GET_INDEX(200),
+    /** POST / of a valid form. */
+    POST_VALID(200),
+    /** POST / of a form that fails validation. */
+    POST_INVALID(400);
+
+    final int expectedStatus;
+
+    Kind(int expectedStatus) {
+      this.expectedStatus = expectedStatus;
+    }
+  }
+
+  /** How load is offered. */
+  public enum Model {
+    OPEN, CLOSED
+  }
+
+  /** Answered by admission control to a client or name over its rate limit, or when the server is busy. */
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private static final byte[] VALID_BODY = ("name=Load+Test&password=loadtest&level=load%40example.com"
+      + "&period=4+weeks&methods%5B%5D=Web&methods%5B%5D=Email&majors%5B%5D=Hotel").getBytes(StandardCharsets.UTF_8);
+  private static final byte[] INVALID_BODY = "name=&password=abc&level=&period=".getBytes(StandardCharsets.UTF_8);
+
+  private final String baseUrl;
+  private final Model model;
+  private final double targetRps;
+  private final int concurrency;
+  private final double[] cumulativeWeights;
+  private final Map<Kind, Histogram> histograms = new EnumMap<>(Kind.class);
+  private final Map<Kind, AtomicLong> unexpected = new EnumMap<>(Kind.class);
+  private final Map<Kind, AtomicLong> rejected = new EnumMap<>(Kind.class);
+  private final AtomicLong ioErrors = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Creates a generator.
+   * @param baseUrl The server, e.g. "http://localhost:3333".
+   * @param model The workload model.
+   * @param targetRps Requests per second to offer (open model only).
+   * @param concurrency The number of clients (closed model), or the most requests in flight (open model).
+   * @param mix Relative weights of GET_INDEX, POST_VALID and POST_INVALID, in that order.
+   */
+  public LoadGenerator(String baseUrl, Model model, double targetRps, int concurrency, double... mix) {
+    if (mix.length != Kind.values().length) {
+      throw new IllegalArgumentException("Expected " + Kind.values().length + " weights, got " + mix.length);
+    }
+    this.baseUrl = baseUrl;
+    this.model = model;
+    this.targetRps = targetRps;
+    this.concurrency = concurrency;
+    this.cumulativeWeights = new double[mix.length];
+    double total = 0;
+    for (int i = 0; i < mix.length; i++) {
+      total += mix[i];
+      cumulativeWeights[i] = total;
+    }
+    for (int i = 0; i < mix.length; i++) {
+      cumulativeWeights[i] /= total;
+    }
+    for (Kind kind : Kind.values()) {
+      histograms.put(kind, new Histogram(HIGHEST_TRACKABLE_NANOS, 3));
+      unexpected.put(kind, new AtomicLong());
+      rejected.put(kind, new AtomicLong());
+    }
+  }
+
+  /**
+   * Offers load for the given time, then waits for requests in flight to finish.
+   * @param duration How long to offer load.
+   * @param unit The unit of duration.
+   * @return The report of the run.
+   * @throws InterruptedException If interrupted while running.
+   */
+  public Report run(long duration, TimeUnit unit) throws InterruptedException {
+    ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+    long start = System.nanoTime();
+    long end = start + unit.toNanos(duration);
+    if (model == Model.OPEN) {
+      runOpen(clients, start, end);
+    }
+    else {
+      runClosed(clients, end);
+    }
+    clients.shutdown();
+    clients.awaitTermination(1, TimeUnit.MINUTES);
+    return new Report(System.nanoTime() - start);
+  }
+
+  private void runOpen(ExecutorService clients, long start, long end) throws InterruptedException {
+    final Semaphore inFlight = new Semaphore(concurrency);
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / targetRps);
+    for (long scheduled = start; scheduled < end; scheduled += interval) {
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      if (!inFlight.tryAcquire()) {
+        // Every client is busy: count the request as offered but not sent rather than queue it.
+        dropped.incrementAndGet();
+        continue;
+      }
+      final long intendedStart = scheduled;
+      clients.execute(() -> {
+        try {
+          send(pickKind(), intendedStart);
+        }
+        finally {
+          inFlight.release();
+        }
+      });
+    }
+  }
+
+  private void runClosed(ExecutorService clients, final long end) {
+    for (int i = 0; i < concurrency; i++) {
+      clients.execute(() -> {
+        while (System.nanoTime() < end) {
+          send(pickKind(), System.nanoTime());
+        }
+      });
+    }
+  }
+
+  private Kind pickKind() {
+    double r = ThreadLocalRandom.current().nextDouble();
+    for (int i = 0; i < cumulativeWeights.length; i++) {
+      if (r < cumulativeWeights[i]) {
+        return Kind.values()[i];
+      }
+    }
+    return Kind.values()[cumulativeWeights.length - 1];
+  }
+
+  private void send(Kind kind, long intendedStart) {
+    try {
+      int status;
+      switch (kind) {
+        case GET_INDEX:
+          status = request("GET", "/?id=" + ThreadLocalRandom.current().nextInt(3), null);
+          break;
+        case POST_VALID:
+          status = request("POST", "/", VALID_BODY);
+          break;
+        default:
+          status = request("POST", "/", INVALID_BODY);
+          break;
+      }
+      long latency = System.nanoTime() - intendedStart;
+      Histogram histogram = histograms.get(kind);
+      synchronized (histogram) {
+        histogram.recordValue(Math.min(latency, HIGHEST_TRACKABLE_NANOS));
+      }
+      if (status == TOO_MANY_REQUESTS) {
+        rejected.get(kind).incrementAndGet();
+      }
+      else if (status != kind.expectedStatus) {
+        unexpected.get(kind).incrementAndGet();
+      }
+    }
+    catch (IOException e) {
+      ioErrors.incrementAndGet();
+    }
+  }
+
+  private int request(String method, String path, byte[] body) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+    connection.setRequestMethod(method);
+    connection.setInstanceFollowRedirects(false);
+    if (body != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+      // Not a browser: ask the CSRFFilter to skip the token check rather than fetch a token per client.
+      connection.setRequestProperty("Csrf-Token", "nocheck");
+      connection.setFixedLengthStreamingMode(body.length);
+      try (OutputStream out = connection.getOutputStream()) {
+        out.write(body);
+      }
+    }
+    int status = connection.getResponseCode();
+    // Drain the body so the connection can be reused.
+    InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+    if (in != null) {
+      byte[] buffer = new byte[8192];
+      while (in.read(buffer) >= 0) {
+        // discard
+      }
+      in.close();
+    }
+    return status;
+  }
+
+  /** The outcome of a run. */
+  public class Report {
+    private final long elapsedNanos;
+
+    Report(long elapsedNanos) {
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return The total number of completed requests.
+     */
+    public long completed() {
+      long total = 0;
+      for (Histogram histogram : histograms.values()) {
+        total += histogram.getTotalCount();
+      }
+      return total;
+    }
+
+    /**
+     * @return Completed requests with an unexpected status, plus requests that failed with an I/O error.
+     */
+    public long errors() {
+      long total = ioErrors.get();
+      for (AtomicLong count : unexpected.values()) {
+        total += count.get();
+      }
+      return total;
+    }
+
+    /**
+     * @return Completed requests turned away with 429 by admission control.
+     */
+    public long rejected() {
+      long total = 0;
+      for (AtomicLong count : rejected.values()) {
+        total += count.get();
+      }
+      return total;
+    }
+
+    /**
+     * @param kind A request kind.
+     * @return The latency histogram of that kind, in nanoseconds.
+     */
+    public Histogram histogram(Kind kind) {
+      return histograms.get(kind);
+    }
+
+    @Override
+    public String toString() {
+      double seconds = elapsedNanos / 1e9;
+      StringBuilder out = new StringBuilder();
+      out.append(String.format("%s model, %.1fs, %d requests, %.1f req/s, %d errors (%.2f%%), %d rejected, %d dropped%n",
+          model, seconds, completed(), completed() / seconds, errors(),
+          (completed() == 0) ? 0.0 : 100.0 * errors() / completed(), rejected(), dropped.get()));
+      out.append(String.format("%-13s %8s %10s %10s %10s %10s %8s %8s%n", "kind", "count", "p50 ms", "p99 ms", "p999 ms", "max ms",
+          "errors", "429s"));
+      for (Kind kind : Kind.values()) {
+        Histogram histogram = histograms.get(kind);
+        out.append(String.format("%-13s %8d %10.2f %10.2f %10.2f %10.2f %8d %8d%n", kind, histogram.getTotalCount(),
+            histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+            histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxValue() / 1e6, unexpected.get(kind).get(),
+            rejected.get(kind).get()));
+      }
+      return out.toString();
+    }
+  }
+}
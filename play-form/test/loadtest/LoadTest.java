@@ -0,0 +1,71 @@
+package loadtest;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.running;
+import static play.test.Helpers.testServer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+/**
+ * Runs LoadGenerator against an embedded test server. Skipped unless -Dloadtest=true, e.g.
+ * <pre>
+ * activator -Dloadtest=true -Dloadtest.model=OPEN -Dloadtest.rps=200 -Dloadtest.seconds=30 "testOnly loadtest.LoadTest"
+ * </pre>
+ * Other settings: loadtest.concurrency (clients, or requests in flight),
+ * loadtest.mix (weights of GET, valid POST and invalid POST, default "8,1,1"), and loadtest.admission.
+ * Admission control is off unless loadtest.admission=true: every request comes from one address and
+ * posts one name, so its rate limits would turn most of the load away with 429.
+ */
+public class LoadTest {
+  private final int testPort = 3334;
+
+  /** Offer the configured load and print the latency report. */
+  @Test
+  public void testLoad() {
+    assumeTrue(Boolean.getBoolean("loadtest"));
+    final LoadGenerator.Model model = LoadGenerator.Model.valueOf(System.getProperty("loadtest.model", "OPEN"));
+    final double rps = Double.parseDouble(System.getProperty("loadtest.rps", "100"));
+    final long seconds = Long.getLong("loadtest.seconds", 20);
+    final int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+    String[] weights = System.getProperty("loadtest.mix", "8,1,1").split(",");
+    final double[] mix = new double[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      mix[i] = Double.parseDouble(weights[i].trim());
+    }
+
+    running(testServer(testPort, fakeApplication(settings(Boolean.getBoolean("loadtest.admission")))), new Runnable() {
+      @Override
+      public void run() {
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + testPort, model, rps, concurrency, mix);
+        try {
+          // A short warm-up so the JIT and the connection pool settle before measuring.
+          new LoadGenerator("http://localhost:" + testPort, model, rps, concurrency, mix).run(Math.min(5, seconds), TimeUnit.SECONDS);
+          LoadGenerator.Report report = generator.run(seconds, TimeUnit.SECONDS);
+          System.out.println(report);
+          assertThat(report.completed()).isGreaterThan(0);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * @param admission Whether admission control stays on.
+   * @return The settings of the server's application: a fresh in-memory database, and no write-behind
+   * log, so the businesses a run posts don't pile up under db/write-behind.
+   */
+  private static Map<String, String> settings(boolean admission) {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    settings.put("admission.enabled", String.valueOf(admission));
+    return settings;
+  }
+}
@@ -0,0 +1,126 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.contentAsString;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.fakeRequest;
+import static play.test.Helpers.header;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.route;
+import static play.test.Helpers.running;
+import static play.test.Helpers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import play.mvc.Result;
+import play.test.FakeRequest;
+import services.SessionToken;
+
+/**
+ * Tests the JSON API: creation, conditional requests, cursor pagination, and authentication of writes.
+ */
+public class ApiTest {
+
+  private static final String VALID = "{\"name\":\"Api\",\"password\":\"secret\",\"level\":\"api@example.com\","
+      + "\"period\":\"1 week\",\"methods\":[\"Web\"],\"majors\":[]}";
+
+  /** A created business can be read back, and its ETag answers a conditional GET with 304. */
+  @Test
+  public void testCreateThenConditionalGet() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Result created = route(write("POST", "/api/businesses").withRawBody(bytes(VALID)));
+        assertThat(status(created)).isEqualTo(201);
+        assertThat(contentAsString(created)).contains("\"name\":\"Api\"").excludes("secret");
+        String location = header("Location", created);
+
+        Result read = route(fakeRequest("GET", location));
+        assertThat(status(read)).isEqualTo(200);
+        String etag = header("ETag", read);
+        assertThat(etag).isEqualTo(header("ETag", created));
+
+        Result notModified = route(fakeRequest("GET", location).withHeader("If-None-Match", etag));
+        assertThat(status(notModified)).isEqualTo(304);
+      }
+    });
+  }
+
+  /** An update carrying the ETag of an older version is refused with 412, and invalid bodies with 400. */
+  @Test
+  public void testStaleIfMatchAndValidation() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Result created = route(write("POST", "/api/businesses").withRawBody(bytes(VALID)));
+        String location = header("Location", created);
+        String firstEtag = header("ETag", created);
+
+        Result updated = route(write("PUT", location).withHeader("If-Match", firstEtag)
+            .withRawBody(bytes(VALID.replace("\"Api\"", "\"Api 2\""))));
+        assertThat(status(updated)).isEqualTo(200);
+
+        Result stale = route(write("PUT", location).withHeader("If-Match", firstEtag).withRawBody(bytes(VALID)));
+        assertThat(status(stale)).isEqualTo(412);
+
+        Result invalid = route(write("POST", "/api/businesses").withRawBody(bytes("{\"name\":\"\"}")));
+        assertThat(status(invalid)).isEqualTo(400);
+        assertThat(contentAsString(invalid)).contains("\"password\"");
+
+        Result deleted = route(write("DELETE", location).withHeader("If-Match", header("ETag", updated)));
+        assertThat(status(deleted)).isEqualTo(204);
+      }
+    });
+  }
+
+  /** Following the next cursor visits every business once, in id order. */
+  @Test
+  public void testCursorPagination() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Result first = route(fakeRequest("GET", "/api/businesses?limit=2"));
+        assertThat(status(first)).isEqualTo(200);
+        assertThat(contentAsString(first)).contains("\"id\":1").contains("\"id\":2").contains("\"next\":2");
+
+        Result second = route(fakeRequest("GET", "/api/businesses?after=2&limit=2"));
+        assertThat(contentAsString(second)).contains("\"id\":3").excludes("\"id\":2");
+      }
+    });
+  }
+
+  /** Writes without a session token are refused with 401 and change nothing. */
+  @Test
+  public void testWritesNeedAToken() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Result anonymous = route(fakeRequest("POST", "/api/businesses").withRawBody(bytes(VALID)));
+        assertThat(status(anonymous)).isEqualTo(401);
+
+        Result created = route(write("POST", "/api/businesses").withRawBody(bytes(VALID)));
+        String location = header("Location", created);
+        Result forged = route(fakeRequest("DELETE", location).withHeader("Authorization", "Bearer forged.0.token"));
+        assertThat(status(forged)).isEqualTo(401);
+        assertThat(status(route(fakeRequest("GET", location)))).isEqualTo(200);
+      }
+    });
+  }
+
+  /** A request carrying a session token, as a logged-in client's would. */
+  private static FakeRequest write(String method, String path) {
+    return fakeRequest(method, path).withHeader("Authorization", "Bearer " + SessionToken.issue("api@example.com"));
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,162 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.cookie;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.fakeRequest;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.route;
+import static play.test.Helpers.running;
+import static play.test.Helpers.status;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import models.Business;
+import models.Duration;
+import models.UserInfoDB;
+import org.junit.Test;
+import play.mvc.Http;
+import play.mvc.Result;
+
+/**
+ * Tests signing up, logging in, the writes that need a login, including form posts that name a business,
+ * and the users signed up from auth.users.
+ */
+public class AuthenticationTest {
+
+  /** Emails differ per test run so tests sharing the static store don't see each other's users. */
+  private final String run = "run" + System.nanoTime();
+
+  /** A delete is refused until the user logs in, and goes through with the cookie set at login. */
+  @Test
+  public void testLoginThenDelete() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        String email = "ops@" + run + ".example.com";
+        assertThat(UserInfoDB.addUserInfo("Ops", email, "opspassword")).isTrue();
+        long id = Business.save(new Business(0, "Grace", "hash", "grace@example.com", Duration.findDuration("1 week"))).getId();
+
+        Result anonymous = route(fakeRequest("POST", "/delete/" + id));
+        assertThat(status(anonymous)).isEqualTo(401);
+        assertThat(Business.findById(id)).isNotNull();
+
+        Result wrongPassword = route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "nope")));
+        assertThat(status(wrongPassword)).isEqualTo(400);
+        assertThat(cookie("auth", wrongPassword)).isNull();
+
+        Result login = route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "opspassword")));
+        assertThat(status(login)).isEqualTo(303);
+        Http.Cookie auth = cookie("auth", login);
+        assertThat(auth).isNotNull();
+
+        Result deleted = route(fakeRequest("POST", "/delete/" + id).withCookies(auth));
+        assertThat(status(deleted)).isEqualTo(303);
+        assertThat(Business.findById(id)).isNull();
+      }
+    });
+  }
+
+  /** A form post naming a stored business changes it only for a logged-in user; anyone may still add one. */
+  @Test
+  public void testAnonymousFormCannotUpdate() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Business before = Business.getById(1);
+        Result anonymous = route(fakeRequest("POST", "/").withRawBody(business("1", "Mallory")));
+        assertThat(status(anonymous)).isEqualTo(401);
+        Business after = Business.getById(1);
+        assertThat(after.getName()).isEqualTo(before.getName());
+        assertThat(after.getPassword()).isEqualTo(before.getPassword());
+        assertThat(after.getVersion()).isEqualTo(before.getVersion());
+
+        assertThat(status(route(fakeRequest("POST", "/").withRawBody(business("", "Mallory"))))).isEqualTo(200);
+
+        String email = "editor@" + run + ".example.com";
+        assertThat(UserInfoDB.addUserInfo("Editor", email, "editorpassword")).isTrue();
+        Http.Cookie auth = cookie("auth",
+            route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "editorpassword"))));
+        long id = Business.save(new Business(0, "Grace", "hash", "grace@example.com", Duration.findDuration("1 week"))).getId();
+        Result updated = route(fakeRequest("POST", "/").withCookies(auth).withRawBody(business(String.valueOf(id), "Hopper")));
+        assertThat(status(updated)).isEqualTo(200);
+        assertThat(Business.getById(id).getName()).isEqualTo("Hopper");
+      }
+    });
+  }
+
+  /** An email signs up once, whatever its case, and the account that signed up can log in. */
+  @Test
+  public void testSignupOnce() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        String email = "new@" + run + ".example.com";
+        Map<String, String> form = login(email, "firstpassword");
+        form.put("name", "New");
+        Result signedUp = route(fakeRequest("POST", "/signup").withFormUrlEncodedBody(form));
+        assertThat(status(signedUp)).isEqualTo(303);
+        assertThat(UserInfoDB.isUser(email)).isTrue();
+
+        Map<String, String> again = login(" NEW@" + run + ".example.com", "secondpassword");
+        again.put("name", "New again");
+        Result duplicate = route(fakeRequest("POST", "/signup").withFormUrlEncodedBody(again));
+        assertThat(status(duplicate)).isEqualTo(409);
+
+        Map<String, String> incomplete = login("other@" + run + ".example.com", "");
+        incomplete.put("name", "Other");
+        assertThat(status(route(fakeRequest("POST", "/signup").withFormUrlEncodedBody(incomplete)))).isEqualTo(400);
+        assertThat(UserInfoDB.isUser("other@" + run + ".example.com")).isFalse();
+
+        Result login = route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "firstpassword")));
+        assertThat(status(login)).isEqualTo(303);
+        Result stolen = route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "secondpassword")));
+        assertThat(status(stolen)).isEqualTo(400);
+      }
+    });
+  }
+
+  /** The users listed under auth.users can log in once the application has started. */
+  @Test
+  public void testUsersSeededFromConfiguration() {
+    final String email = "admin@" + run + ".example.com";
+    Map<String, Object> admin = new HashMap<>();
+    admin.put("name", "Admin");
+    admin.put("email", email);
+    admin.put("password", "adminpassword");
+    Map<String, Object> incomplete = new HashMap<>();
+    incomplete.put("email", "nopassword@" + run + ".example.com");
+    Map<String, Object> settings = new HashMap<>(settings());
+    settings.put("auth.users", Arrays.asList(admin, incomplete));
+    running(fakeApplication(settings), new Runnable() {
+      @Override
+      public void run() {
+        assertThat(UserInfoDB.isValid(email, "adminpassword")).isTrue();
+        assertThat(UserInfoDB.isUser("nopassword@" + run + ".example.com")).isFalse();
+        Result login = route(fakeRequest("POST", "/login").withFormUrlEncodedBody(login(email, "adminpassword")));
+        assertThat(status(login)).isEqualTo(303);
+      }
+    });
+  }
+
+  /** @return A form body for a business, the way the index page posts it. */
+  private static byte[] business(String id, String name) {
+    return ("id=" + id + "&name=" + name + "&password=formpassword&level=form%40example.com&period=1+week")
+        .getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static Map<String, String> login(String email, String password) {
+    Map<String, String> form = new HashMap<>();
+    form.put("email", email);
+    form.put("password", password);
+    return form;
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
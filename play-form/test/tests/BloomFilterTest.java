@@ -0,0 +1,78 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import services.BloomFilter;
+
+/**
+ * Tests the Bloom filter in front of UserInfoDB: no false negatives under concurrent adds,
+ * and false positives at about the configured rate.
+ */
+public class BloomFilterTest {
+
+  private static final int THREADS = 8;
+  private static final int PER_THREAD = 25000;
+  private static final int EXPECTED = THREADS * PER_THREAD;
+  private static final double RATE = 0.01;
+
+  /** Strings added by many threads at once are all reported present, in particular where their bits share words. */
+  @Test
+  public void testNoFalseNegativesAfterConcurrentPuts() throws Exception {
+    final BloomFilter filter = new BloomFilter(EXPECTED, RATE);
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<?>> puts = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      puts.add(pool.submit(() -> {
+        start.await();
+        for (int i = 0; i < PER_THREAD; i++) {
+          filter.put(added(thread, i));
+        }
+        return null;
+      }));
+    }
+    start.countDown();
+    for (Future<?> put : puts) {
+      put.get();
+    }
+    pool.shutdown();
+
+    for (int t = 0; t < THREADS; t++) {
+      for (int i = 0; i < PER_THREAD; i++) {
+        assertThat(filter.mightContain(added(t, i))).isTrue();
+      }
+    }
+  }
+
+  /** Filled to its expected size, the filter takes about the configured share of new strings for known. */
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(EXPECTED, RATE);
+    for (int i = 0; i < EXPECTED; i++) {
+      filter.put(added(0, i));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < EXPECTED; i++) {
+      if (filter.mightContain("new" + i + "@example.com")) {
+        falsePositives++;
+      }
+    }
+    double rate = (double) falsePositives / EXPECTED;
+    // 200000 trials at 1% give about 2000 +- 45; these bounds leave room for the rounding of the sizes.
+    assertThat(rate).isGreaterThan(RATE * 0.5);
+    assertThat(rate).isLessThan(RATE * 1.5);
+    assertThat(filter.getHashes()).isEqualTo(7);
+  }
+
+  private static String added(int thread, int i) {
+    return "user" + thread + "-" + i + "@example.com";
+  }
+}
@@ -0,0 +1,186 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.running;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import models.Business;
+import org.junit.Test;
+import services.BusinessExporter;
+import services.BusinessImporter;
+import services.BusinessImporter.Format;
+import views.formdata.BusinessFormData;
+
+/**
+ * Tests bulk import and export: the result reported for each row, and exporting then importing
+ * businesses whose fields need quoting.
+ */
+public class BulkTest {
+
+  /** Each row gets its own result, numbered by the line it starts on, then the summary. */
+  @Test
+  public void testResultPerRow() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        List<String> results = importCsv("id,name,password,level,period,methods,majors\n"
+            + ",Ada,secret1,ada@example.com,1 week,Web;Email,Hotel\n"
+            + ",,secret1,nobody@example.com,1 week,,\n"
+            + ",\"Quoted, \"\"name\"\"\",secret1,q@example.com,4 weeks,,\n"
+            + ",\"Two\nlines\",secret1,t@example.com,1 week,,\n"
+            + "999999999,Gone,secret1,g@example.com,1 week,,\n");
+        assertThat(results).hasSize(6);
+        assertThat(results.get(0)).startsWith("{\"row\":2,\"status\":\"created\",\"id\":");
+        assertThat(results.get(1)).startsWith("{\"row\":3,\"status\":\"invalid\",\"errors\":{\"username\":");
+        assertThat(results.get(2)).startsWith("{\"row\":4,\"status\":\"created\",\"id\":");
+        assertThat(results.get(3)).startsWith("{\"row\":5,\"status\":\"created\",\"id\":");
+        assertThat(results.get(4)).isEqualTo(
+            "{\"row\":7,\"status\":\"failed\",\"error\":\"Couldn't find business 999999999.\"}");
+        assertThat(results.get(5)).isEqualTo(
+            "{\"summary\":{\"created\":3,\"updated\":0,\"invalid\":1,\"failed\":1}}");
+        assertThat(Business.findById(id(results.get(2))).getName()).isEqualTo("Quoted, \"name\"");
+        assertThat(Business.findById(id(results.get(3))).getName()).isEqualTo("Two\nlines");
+      }
+    });
+  }
+
+  /** Rows before an unterminated quote are stored, and the row holding it fails the rest of the input. */
+  @Test
+  public void testUnterminatedQuote() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        List<String> results = importCsv("name,password,level,period\n"
+            + "Ada,secret1,ada@example.com,1 week\n"
+            + "\"Never closed,secret1,n@example.com,1 week\n"
+            + "Lost,secret1,lost@example.com,1 week\n");
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0)).startsWith("{\"row\":2,\"status\":\"created\",\"id\":");
+        assertThat(results.get(1)).startsWith("{\"row\":3,\"status\":\"failed\",\"error\":\"Unterminated quoted field");
+        assertThat(results.get(2)).isEqualTo("{\"summary\":{\"created\":1,\"updated\":0,\"invalid\":0,\"failed\":1}}");
+      }
+    });
+  }
+
+  /** An export imported back, with passwords added, restores the businesses it was taken from. */
+  @Test
+  public void testExportThenImport() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        List<Long> ids = new ArrayList<>();
+        for (String name : new String[] {"Smith, \"Jr.\"", "Two\r\nlines", "Plain"}) {
+          BusinessFormData data = new BusinessFormData();
+          data.name = name;
+          data.password = "secret1";
+          data.level = "export@example.com";
+          data.period = "4 weeks";
+          data.methods.addAll(Arrays.asList("Web", "Email"));
+          data.majors.add("Hotel");
+          ids.add(Business.save(Business.makeInstance(data, "hash")).getId());
+        }
+        StringBuilder export = new StringBuilder();
+        BusinessExporter.export(Format.CSV, export::append);
+        for (long id : ids) {
+          BusinessFormData changed = Business.makeBusinessFormData(id);
+          changed.name = "Changed";
+          assertThat(Business.update(Business.makeInstance(changed, "hash"))).isTrue();
+        }
+
+        List<String> results = importCsv(reimport(export.toString(), ids));
+        assertThat(results).hasSize(ids.size() + 1);
+        for (int i = 0; i < ids.size(); i++) {
+          assertThat(results.get(i)).endsWith("\"status\":\"updated\",\"id\":" + ids.get(i) + "}");
+        }
+        assertThat(Business.getById(ids.get(0)).getName()).isEqualTo("Smith, \"Jr.\"");
+        assertThat(Business.getById(ids.get(1)).getName()).isEqualTo("Two\r\nlines");
+        assertThat(Business.getById(ids.get(2)).getName()).isEqualTo("Plain");
+        Business plain = Business.getById(ids.get(2));
+        assertThat(plain.getDuration().getName()).isEqualTo("4 weeks");
+        assertThat(plain.getMethods()).hasSize(2);
+        assertThat(plain.getMajors()).hasSize(1);
+      }
+    });
+  }
+
+  /**
+   * Imports a CSV body and waits for the results.
+   * @param csv The body.
+   * @return The result lines, the summary last.
+   */
+  private static List<String> importCsv(String csv) {
+    assertThat(BusinessImporter.tryReserve()).isTrue();
+    StringBuilder out = new StringBuilder();
+    CountDownLatch done = new CountDownLatch(1);
+    BusinessImporter.start(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), Format.CSV,
+        chunk -> {
+          synchronized (out) {
+            out.append(chunk);
+          }
+        },
+        done::countDown);
+    try {
+      assertThat(done.await(60, TimeUnit.SECONDS)).isTrue();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    synchronized (out) {
+      return Arrays.asList(out.toString().split("\n"));
+    }
+  }
+
+  /** @return The id in a created or updated row's result. */
+  private static long id(String result) {
+    return Long.parseLong(result.substring(result.indexOf("\"id\":") + 5, result.indexOf('}')));
+  }
+
+  /**
+   * Turns an export into an import of some of its businesses.
+   * @param csv The exported CSV.
+   * @param ids The businesses to keep; the tests before may have left others in the repository.
+   * @return The header and the records of those businesses, with the password column an export leaves out.
+   */
+  private static String reimport(String csv, List<Long> ids) {
+    StringBuilder out = new StringBuilder();
+    StringBuilder record = new StringBuilder();
+    boolean quoted = false;
+    boolean header = true;
+    for (char c : csv.toCharArray()) {
+      if (c == '"') {
+        quoted = !quoted;
+      }
+      if (c != '\n' || quoted) {
+        record.append(c);
+        continue;
+      }
+      String text = record.toString();
+      if (header) {
+        out.append(text).append(",password\n");
+        header = false;
+      }
+      else if (ids.contains(Long.valueOf(text.substring(0, text.indexOf(','))))) {
+        out.append(text).append(",secret1\n");
+      }
+      record.setLength(0);
+    }
+    return out.toString();
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
@@ -0,0 +1,87 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import services.CsvReader;
+
+/**
+ * Tests reading CSV records: quoting, line endings, and the line each record starts on.
+ */
+public class CsvReaderTest {
+
+  /** Quoted fields keep their commas, line breaks and doubled quotes. */
+  @Test
+  public void testQuotedFields() throws IOException {
+    CsvReader csv = new CsvReader(new StringReader(
+        "name,level\n\"Smith, Jr.\",\"two\nlines\"\n\"say \"\"hi\"\"\",\"\"\n"));
+    assertThat(csv.readRecord()).isEqualTo(Arrays.asList("name", "level"));
+    assertThat(csv.readRecord()).isEqualTo(Arrays.asList("Smith, Jr.", "two\nlines"));
+    assertThat(csv.getRecordLine()).isEqualTo(2);
+    assertThat(csv.readRecord()).isEqualTo(Arrays.asList("say \"hi\"", ""));
+    assertThat(csv.getRecordLine()).isEqualTo(4);
+    assertThat(csv.readRecord()).isNull();
+  }
+
+  /** CRLF ends a record once, a lone CR ends one too, and a CR inside quotes is kept. */
+  @Test
+  public void testLineEndings() throws IOException {
+    String text = "a,b\r\nc,d\re,f\n\"g\rh\",i";
+    for (Reader reader : new Reader[] {new StringReader(text), new OneCharReader(text)}) {
+      CsvReader csv = new CsvReader(reader);
+      List<List<String>> records = new ArrayList<>();
+      List<Long> lines = new ArrayList<>();
+      for (List<String> record = csv.readRecord(); record != null; record = csv.readRecord()) {
+        records.add(record);
+        lines.add(csv.getRecordLine());
+      }
+      assertThat(records).isEqualTo(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d"),
+          Arrays.asList("e", "f"), Arrays.asList("g\rh", "i")));
+      assertThat(lines).isEqualTo(Arrays.asList(1L, 2L, 3L, 4L));
+    }
+  }
+
+  /** An input ending inside quotes is an error naming the line the record started on. */
+  @Test
+  public void testUnterminatedQuote() throws IOException {
+    CsvReader csv = new CsvReader(new StringReader("a,b\n\"open,\nnever closed\n"));
+    assertThat(csv.readRecord()).isEqualTo(Arrays.asList("a", "b"));
+    try {
+      csv.readRecord();
+      fail("Expected an IOException");
+    }
+    catch (IOException e) {
+      assertThat(e.getMessage()).contains("line 2");
+    }
+  }
+
+  /** Hands out one character per read, so every CR and LF falls on a buffer boundary. */
+  private static final class OneCharReader extends Reader {
+    private final String text;
+    private int position = 0;
+
+    OneCharReader(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+      if (position == text.length()) {
+        return -1;
+      }
+      buffer[offset] = text.charAt(position++);
+      return 1;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+}
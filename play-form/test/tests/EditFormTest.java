@@ -0,0 +1,101 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.contentAsString;
+import static play.test.Helpers.cookie;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.fakeRequest;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.route;
+import static play.test.Helpers.running;
+import static play.test.Helpers.status;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import models.Business;
+import models.UserInfoDB;
+import org.junit.Test;
+import play.mvc.Http;
+import play.mvc.Result;
+import views.formdata.BusinessFormData;
+
+/**
+ * Tests the form editing a stored business: the stored password hash never reaches the page,
+ * and submitting the form with the password left blank keeps the password.
+ */
+public class EditFormTest {
+
+  /** Emails differ per test run so tests sharing the static store don't see each other's users. */
+  private final String run = "run" + System.nanoTime();
+
+  /** The edit page has an empty password field, and resubmitting it unchanged keeps the password. */
+  @Test
+  public void testUnchangedResubmitKeepsPassword() {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        BusinessFormData data = new BusinessFormData();
+        data.name = "Ada";
+        data.password = "adapassword";
+        data.level = "ada@example.com";
+        data.period = "1 week";
+        long id = Business.save(Business.makeInstance(data)).getId();
+        String hash = Business.getById(id).getPassword();
+        assertThat(hash).startsWith("$2");
+
+        Result page = route(fakeRequest("GET", "/?id=" + id));
+        assertThat(status(page)).isEqualTo(200);
+        String html = contentAsString(page);
+        assertThat(html.contains(hash)).isFalse();
+        assertThat(html.contains("value=\"$2a$")).isFalse();
+
+        BusinessFormData shown = Business.makeBusinessFormData(id);
+        assertThat(shown.password).isEqualTo("");
+        Result resubmitted = route(fakeRequest("POST", "/").withCookies(logIn()).withRawBody(body(shown)));
+        assertThat(status(resubmitted)).isEqualTo(200);
+        assertThat(Business.getById(id).getPassword()).isEqualTo(hash);
+        assertThat(Business.getById(id).getVersion()).isEqualTo(2L);
+
+        // Only a stored business may leave its password blank.
+        shown.id = "";
+        assertThat(status(route(fakeRequest("POST", "/").withRawBody(body(shown))))).isEqualTo(400);
+      }
+    });
+  }
+
+  /** @return The auth cookie of a user signed up for this test. */
+  private Http.Cookie logIn() {
+    String email = "editor@" + run + ".example.com";
+    assertThat(UserInfoDB.addUserInfo("Editor", email, "editorpassword")).isTrue();
+    Map<String, String> form = new HashMap<>();
+    form.put("email", email);
+    form.put("password", "editorpassword");
+    Http.Cookie auth = cookie("auth", route(fakeRequest("POST", "/login").withFormUrlEncodedBody(form)));
+    assertThat(auth).isNotNull();
+    return auth;
+  }
+
+  /** @return The form body the index page posts for the data, which has no methods or majors. */
+  private static byte[] body(BusinessFormData data) {
+    return ("id=" + encode(data.id) + "&name=" + encode(data.name) + "&password=" + encode(data.password)
+        + "&level=" + encode(data.level) + "&period=" + encode(data.period)).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String encode(String text) {
+    try {
+      return URLEncoder.encode(text, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
@@ -0,0 +1,129 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.running;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import play.core.j.JavaHelpers$;
+import play.data.Form;
+import play.data.validation.ValidationError;
+import play.mvc.Http;
+import play.test.FakeRequest;
+import views.formdata.BusinessFormData;
+import views.formdata.BusinessFormDataBinder;
+import views.formdata.FormPrecheck;
+
+/**
+ * Tests that the generated BusinessFormDataBinder, fed by FormPrecheck, binds a body as bindFromRequest() does:
+ * the same errors, the same field values, and list values at the same indices.
+ */
+public class FormBinderTest {
+
+  private static final String[] SCALARS = {"id", "name", "password", "level", "period"};
+
+  /** A valid submission of a saved business. */
+  @Test
+  public void testValidBody() {
+    check("id", "12", "name", "Andr\u00e9 & Co", "password", "mypassword", "level", "5 miles", "period", "4 weeks",
+        "methods[0]", "Web", "methods[1]", "Email", "majors[0]", "Restaurant", "majors[1]", "Hotel");
+  }
+
+  /** A submission failing several rules at once. */
+  @Test
+  public void testInvalidBody() {
+    check("id", "", "name", "", "password", "abc", "level", "", "period", "Forever",
+        "methods[0]", "Web", "methods[1]", "Carrier pigeon", "majors[0]", "Hotel");
+  }
+
+  /** Fields the form doesn't have are ignored, and missing ones keep their defaults. */
+  @Test
+  public void testUnknownAndMissingFields() {
+    check("name", "Ada", "password", "mypassword", "color", "blue", "methods[0]", "Email", "level", "1 mile",
+        "period", "1 week");
+  }
+
+  /**
+   * Binds the body both ways and compares the results.
+   * @param fields The body's fields, as name and value pairs, in order.
+   */
+  private static void check(String... fields) {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Map<String, String> data = new LinkedHashMap<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < fields.length; i += 2) {
+          data.put(fields[i], fields[i + 1]);
+          body.append((body.length() == 0) ? "" : "&").append(encode(fields[i])).append('=').append(encode(fields[i + 1]));
+        }
+        FakeRequest request = new FakeRequest("POST", "/").withFormUrlEncodedBody(data);
+        Http.Context.current.set(JavaHelpers$.MODULE$.createJavaContext(request.getWrappedRequest()));
+        try {
+          Form<BusinessFormData> reflective = Form.form(BusinessFormData.class).bindFromRequest();
+          BusinessFormDataBinder binder = new BusinessFormDataBinder();
+          assertThat(FormPrecheck.scan(body.toString().getBytes(StandardCharsets.UTF_8), binder)).isTrue();
+          Form<BusinessFormData> generated = binder.toForm();
+
+          assertThat(generated.hasErrors()).isEqualTo(reflective.hasErrors());
+          assertThat(messages(generated)).isEqualTo(messages(reflective));
+          if (!reflective.hasErrors()) {
+            assertThat(generated.get().methods).isEqualTo(reflective.get().methods);
+            assertThat(generated.get().majors).isEqualTo(reflective.get().majors);
+          }
+          // Only indices the body has: reading another one through the form would grow the bound lists.
+          List<String> keys = new ArrayList<>(Arrays.asList(SCALARS));
+          for (String key : data.keySet()) {
+            if (key.startsWith("methods[") || key.startsWith("majors[")) {
+              keys.add(key);
+            }
+          }
+          for (String key : keys) {
+            assertThat(generated.field(key).value()).isEqualTo(reflective.field(key).value());
+          }
+        }
+        finally {
+          Http.Context.current.remove();
+        }
+      }
+    });
+  }
+
+  /** @return The error messages of the form, by field. */
+  private static Map<String, List<String>> messages(Form<BusinessFormData> form) {
+    Map<String, List<String>> messages = new HashMap<>();
+    for (Map.Entry<String, List<ValidationError>> entry : form.errors().entrySet()) {
+      List<String> texts = new ArrayList<>();
+      for (ValidationError error : entry.getValue()) {
+        texts.add(error.message());
+      }
+      messages.put(entry.getKey(), texts);
+    }
+    return messages;
+  }
+
+  private static String encode(String text) {
+    try {
+      return URLEncoder.encode(text, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
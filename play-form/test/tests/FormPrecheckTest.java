@@ -0,0 +1,44 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.Test;
+import views.formdata.FormPrecheck;
+
+/**
+ * Tests the single pass over submitted form bodies that runs before binding.
+ */
+public class FormPrecheckTest {
+
+  /** A body the form could send is decoded, with its array fields numbered as bindFromRequest does. */
+  @Test
+  public void testDecodesFormBody() {
+    Map<String, String> fields = FormPrecheck.scan(bytes(
+        "id=&name=Andr%C3%A9+B&password=secret&methods[]=Web&methods[]=Email&period=4+weeks"));
+    assertThat(fields).isNotNull();
+    assertThat(fields.get("name")).isEqualTo("Andr\u00e9 B");
+    assertThat(fields.get("methods[0]")).isEqualTo("Web");
+    assertThat(fields.get("methods[1]")).isEqualTo("Email");
+    assertThat(fields.get("period")).isEqualTo("4 weeks");
+    assertThat(FormPrecheck.find(bytes("names=x&name=Andr%C3%A9"), "name")).isEqualTo("Andr\u00e9");
+  }
+
+  /** Bodies without a password, with bad escapes, or with more methods than exist are rejected. */
+  @Test
+  public void testRejectsMalformedBodies() {
+    assertThat(FormPrecheck.scan(null)).isNull();
+    assertThat(FormPrecheck.scan(bytes("name=Andrew"))).isNull();
+    assertThat(FormPrecheck.scan(bytes("name=%4&password=x"))).isNull();
+    StringBuilder body = new StringBuilder("password=x");
+    for (int i = 0; i < 40; i++) {
+      body.append("&methods[]=Web");
+    }
+    assertThat(FormPrecheck.scan(bytes(body.toString()))).isNull();
+  }
+
+  private static byte[] bytes(String body) {
+    return body.getBytes(StandardCharsets.UTF_8);
+  }
+}
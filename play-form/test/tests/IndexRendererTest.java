@@ -0,0 +1,149 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.fakeRequest;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.running;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import models.DistanceApply;
+import models.Duration;
+import models.Major;
+import models.Method;
+import org.junit.Test;
+import play.core.j.JavaHelpers$;
+import play.data.Form;
+import play.data.validation.ValidationError;
+import play.libs.F;
+import play.mvc.Http;
+import services.PageCache;
+import views.IndexRenderer;
+import views.formdata.BusinessFormData;
+import views.formdata.BusinessFormDataBinder;
+import views.html.Index;
+
+/**
+ * Tests that IndexRenderer writes the same page as the Index template, byte for byte,
+ * for the empty form, a saved business, forms with errors, and flash messages.
+ */
+public class IndexRendererTest {
+
+  /** The empty form. */
+  @Test
+  public void testEmptyForm() {
+    check(BusinessFormDataBinder.fill(new BusinessFormData()), null, null, null);
+  }
+
+  /** A saved business: its values filled in and checked, and the delete button shown. */
+  @Test
+  public void testFilledForm() {
+    BusinessFormData data = new BusinessFormData();
+    data.id = "7";
+    data.name = "Val & \"Co\"";
+    data.password = "mypassword";
+    data.level = "5 miles";
+    data.period = "4 weeks";
+    data.methods.add("Web");
+    data.methods.add("Email");
+    data.majors.add("Restaurant");
+    check(BusinessFormDataBinder.fill(data), data, null, null);
+  }
+
+  /** A submission that failed validation: its values kept, each field with its error. */
+  @Test
+  public void testFormWithErrors() {
+    BusinessFormDataBinder binder = new BusinessFormDataBinder();
+    binder.accept("name", "");
+    binder.accept("password", "abc");
+    binder.accept("level", "<script>");
+    binder.accept("period", "");
+    Form<BusinessFormData> form = binder.toForm();
+    assertThat(form.hasErrors()).isTrue();
+    check(form, null, null, "Please correct errors above.");
+  }
+
+  /** Every form group with its error, the first of two shown, and some options checked. */
+  @Test
+  public void testEveryFieldWithError() {
+    BusinessFormData data = new BusinessFormData();
+    data.methods.add("Text");
+    data.majors.add("Hotel");
+    Map<String, String> values = new HashMap<>();
+    values.put("id", "12");
+    values.put("name", "<b>Bold</b>");
+    values.put("password", "it's");
+    values.put("level", "a&b@example.com");
+    Map<String, List<ValidationError>> errors = new HashMap<>();
+    for (String field : Arrays.asList("name", "password", "level", "methods", "period", "majors")) {
+      errors.put(field, Arrays.asList(new ValidationError(field, "Fix <" + field + ">"),
+          new ValidationError(field, "Not shown")));
+    }
+    Form<BusinessFormData> form =
+        new Form<>(null, BusinessFormData.class, values, errors, F.Option.<BusinessFormData>None());
+    check(form, data, "Saved", "Not saved");
+  }
+
+  /** Flash messages, escaped alike. */
+  @Test
+  public void testFlashMessages() {
+    BusinessFormData data = new BusinessFormData();
+    data.id = "3";
+    data.name = "Ada";
+    data.password = "mypassword";
+    data.level = "1 mile";
+    data.period = "1 week";
+    check(BusinessFormDataBinder.fill(data), data, "Business instance created: <Ada> & 'co'", "Don't <b>panic</b>");
+  }
+
+  /**
+   * Renders the page both ways, with and without a CSRF token, and compares them.
+   * @param form The form to display.
+   * @param data The data whose options are checked, or null.
+   * @param success The success message, or null.
+   * @param error The error message, or null.
+   */
+  private static void check(Form<BusinessFormData> form, BusinessFormData data, String success, String error) {
+    running(fakeApplication(settings()), new Runnable() {
+      @Override
+      public void run() {
+        Http.Context.current.set(JavaHelpers$.MODULE$.createJavaContext(fakeRequest("GET", "/").getWrappedRequest()));
+        try {
+          if (success != null) {
+            Http.Context.current().flash().put("success", success);
+          }
+          if (error != null) {
+            Http.Context.current().flash().put("error", error);
+          }
+          String template = Index.render(form, Method.makeMethodMap(data), DistanceApply.getNameList(),
+              Duration.makeDurationMap(data), Major.makeMajorMap(data)).body();
+
+          byte[] rendered = IndexRenderer.render(form, Method.makeMethodMap(data), Duration.makeDurationMap(data),
+              Major.makeMajorMap(data), success, error);
+          assertThat(new String(rendered, StandardCharsets.UTF_8)).isEqualTo(template);
+
+          String token = "0123456789abcdef-1234567890-abcdef";
+          ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+          IndexRenderer.stream(form, Method.makeMethodMap(data), Duration.makeDurationMap(data),
+              Major.makeMajorMap(data), success, error, token, chunk -> streamed.write(chunk, 0, chunk.length));
+          assertThat(new String(streamed.toByteArray(), StandardCharsets.UTF_8))
+              .isEqualTo(template.replace(PageCache.TOKEN_FIELD, PageCache.tokenField(token)));
+        }
+        finally {
+          Http.Context.current.remove();
+        }
+      }
+    });
+  }
+
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
+}
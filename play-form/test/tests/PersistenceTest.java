@@ -0,0 +1,202 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.inMemoryDatabase;
+import static play.test.Helpers.running;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import models.Business;
+import models.Duration;
+import models.Method;
+import models.UserInfoDB;
+import org.junit.Test;
+import play.db.DB;
+
+/**
+ * Tests that businesses and users reach the database, directly through the group-commit writer
+ * or in the background through the write-behind log.
+ */
+public class PersistenceTest {
+
+  /** Many threads saving at once all end up committed, and a flush waits for them. */
+  @Test
+  public void testConcurrentSavesAreCommitted() {
+    running(fakeApplication(settings(null)), new Runnable() {
+      @Override
+      public void run() {
+        final int threads = 8;
+        final int perThread = 250;
+        // Let the businesses copied in at startup land first.
+        Business.flush().get(10, TimeUnit.SECONDS);
+        long before = count("SELECT COUNT(*) FROM business");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> done = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+          final int thread = t;
+          done.add(pool.submit(() -> {
+            for (int i = 0; i < perThread; i++) {
+              Business business = new Business(0, "Load " + thread + "-" + i, "hash", "load" + thread + "-" + i + "@example.com",
+                  Duration.findDuration("1 week"));
+              business.addMethod(Method.findMethod("Web"));
+              Business.save(business);
+            }
+          }));
+        }
+        for (Future<?> future : done) {
+          await(future);
+        }
+        Business.flush().get(30, TimeUnit.SECONDS);
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        pool.shutdown();
+        System.out.println("Committed " + threads * perThread + " businesses in " + elapsedMillis + "ms ("
+            + (threads * perThread * 1000L / elapsedMillis) + "/s)");
+        assertThat(count("SELECT COUNT(*) FROM business")).isEqualTo(before + threads * perThread);
+        assertThat(count("SELECT COUNT(*) FROM business_method")).isGreaterThanOrEqualTo(threads * perThread);
+      }
+    });
+  }
+
+  /** The database follows updates and deletes, join tables included. */
+  @Test
+  public void testUpdateAndDeleteReachTheDatabase() {
+    running(fakeApplication(settings(null)), new Runnable() {
+      @Override
+      public void run() {
+        Business business = Business.save(new Business(0, "Ada", "hash", "ada@example.com", Duration.findDuration("1 week")));
+        long id = business.getId();
+        Business changed = new Business(id, "Ada L", "hash", "ada@example.com", Duration.findDuration("4 weeks"));
+        changed.addMethod(Method.findMethod("Email"));
+        assertThat(Business.update(changed)).isTrue();
+        Business.flush().get(10, TimeUnit.SECONDS);
+        assertThat(count("SELECT COUNT(*) FROM business WHERE id = " + id + " AND name = 'Ada L'")).isEqualTo(1);
+        assertThat(count("SELECT COUNT(*) FROM business_method WHERE business_id = " + id)).isEqualTo(1);
+
+        Business.delete(id);
+        Business.flush().get(10, TimeUnit.SECONDS);
+        assertThat(count("SELECT COUNT(*) FROM business WHERE id = " + id)).isEqualTo(0);
+        assertThat(count("SELECT COUNT(*) FROM business_method WHERE business_id = " + id)).isEqualTo(0);
+      }
+    });
+  }
+
+  /** A row the database refuses fails alone, without rolling back the writes batched with it. */
+  @Test
+  public void testBadRowDoesNotFailItsBatch() {
+    running(fakeApplication(settings(null)), new Runnable() {
+      @Override
+      public void run() {
+        Business.flush().get(10, TimeUnit.SECONDS);
+        StringBuilder tooLong = new StringBuilder();
+        while (tooLong.length() <= 255) {
+          tooLong.append("x");
+        }
+        List<Long> good = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+          good.add(Business.save(new Business(0, "Row " + i, "hash", "row" + i + "@example.com",
+              Duration.findDuration("1 week"))).getId());
+          if (i == 4) {
+            // Skips validate(), as a write would if a rule were missing.
+            Business.save(new Business(0, tooLong.toString(), "hash", "bad@example.com", Duration.findDuration("1 week")));
+          }
+        }
+        Business.flush().get(10, TimeUnit.SECONDS);
+        for (long id : good) {
+          assertThat(count("SELECT COUNT(*) FROM business WHERE id = " + id)).isEqualTo(1);
+        }
+        assertThat(count("SELECT COUNT(*) FROM business WHERE level = 'bad@example.com'")).isEqualTo(0);
+      }
+    });
+  }
+
+  /** New users are written under their normalized email. */
+  @Test
+  public void testUsersAreCommitted() {
+    running(fakeApplication(settings(null)), new Runnable() {
+      @Override
+      public void run() {
+        assertThat(UserInfoDB.addUserInfoIfAbsent("Grace", " Grace@Example.com", "password")).isTrue();
+        // Users share the writer with businesses, so this flush covers them too.
+        Business.flush().get(10, TimeUnit.SECONDS);
+        assertThat(count("SELECT COUNT(*) FROM user_info WHERE email_key = 'grace@example.com'")).isEqualTo(1);
+      }
+    });
+  }
+
+  /** Changes acknowledged from the write-behind log reach the database in the background. */
+  @Test
+  public void testWriteBehindDrainsToTheDatabase() throws Exception {
+    final File logDir = Files.createTempDirectory("write-behind").toFile();
+    running(fakeApplication(settings(logDir)), new Runnable() {
+      @Override
+      public void run() {
+        Business business = Business.save(new Business(0, "Alan", "hash", "alan@example.com", Duration.findDuration("1 week")));
+        // Only waits for the local log.
+        Business.flush().get(10, TimeUnit.SECONDS);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (count("SELECT COUNT(*) FROM business WHERE id = " + business.getId()) == 0
+            && System.currentTimeMillis() < deadline) {
+          sleep(10);
+        }
+        assertThat(count("SELECT COUNT(*) FROM business WHERE id = " + business.getId())).isEqualTo(1);
+      }
+    });
+  }
+
+  /**
+   * @param writeBehindDir The directory of the write-behind log, or null to write to the database directly.
+   * @return The settings of a test application on a fresh in-memory database.
+   */
+  private static Map<String, String> settings(File writeBehindDir) {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", String.valueOf(writeBehindDir != null));
+    if (writeBehindDir != null) {
+      settings.put("persistence.writeBehind.dir", writeBehindDir.getAbsolutePath());
+    }
+    return settings;
+  }
+
+  private static long count(String sql) {
+    try (Connection connection = DB.getConnection();
+         PreparedStatement statement = connection.prepareStatement(sql);
+         ResultSet rows = statement.executeQuery()) {
+      rows.next();
+      return rows.getLong(1);
+    }
+    catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void await(Future<?> future) {
+    try {
+      future.get();
+    }
+    catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Test;
+import services.SessionToken;
+
+/**
+ * Tests the signed session tokens issued at login.
+ */
+public class SessionTokenTest {
+
+  /** A token names its user until it expires, and any change to it is detected. */
+  @Test
+  public void testIssueAndVerify() {
+    SessionToken.configure("test secret", 60000);
+    String token = SessionToken.issue("val@example.com");
+    assertThat(SessionToken.verify(token)).isEqualTo("val@example.com");
+
+    String eve = Base64.getUrlEncoder().withoutPadding().encodeToString("eve@example.com".getBytes(StandardCharsets.UTF_8));
+    String forged = eve + token.substring(token.indexOf('.'));
+    assertThat(SessionToken.verify(forged)).isNull();
+    assertThat(SessionToken.verify(token + "x")).isNull();
+    assertThat(SessionToken.verify("garbage")).isNull();
+    assertThat(SessionToken.verify(null)).isNull();
+
+    SessionToken.configure("another secret", 60000);
+    assertThat(SessionToken.verify(token)).isNull();
+
+    SessionToken.configure("test secret", -1000);
+    assertThat(SessionToken.verify(SessionToken.issue("val@example.com"))).isNull();
+  }
+}
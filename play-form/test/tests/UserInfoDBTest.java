@@ -0,0 +1,89 @@
+package tests;
+import static org.fest.assertions.Assertions.assertThat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.UserInfoDB;
+import org.junit.Test;
+
+
+public class UserInfoDBTest {
+  private static final int THREADS = 8;
+  private static final int USERS_PER_THREAD = 5;
+
+  /** Emails differ per test run so tests sharing the static store don't see each other's users. */
+  private final String run = "run" + System.nanoTime();
+
+  /** Test that emails are matched regardless of case and surrounding whitespace. */
+  @Test
+  public void testEmailNormalization() {
+    UserInfoDB.addUserInfo("Val", " Val@" + run + ".example.com", "mypassword");
+    assertThat(UserInfoDB.isUser("val@" + run + ".example.com")).isTrue();
+    assertThat(UserInfoDB.isValid("VAL@" + run + ".EXAMPLE.COM", "mypassword")).isTrue();
+    assertThat(UserInfoDB.isValid("val@" + run + ".example.com", "wrongpassword")).isFalse();
+    assertThat(UserInfoDB.isValid(null, "mypassword")).isFalse();
+  }
+
+  /** Test that an email signs up once, whatever its case, and keeps its first password. */
+  @Test
+  public void testDuplicateSignupRefused() {
+    assertThat(UserInfoDB.isUser("dup@" + run + ".example.com")).isFalse();
+    assertThat(UserInfoDB.addUserInfo("Dup", "dup@" + run + ".example.com", "firstpassword")).isTrue();
+    assertThat(UserInfoDB.addUserInfo("Dup 2", " DUP@" + run + ".example.com", "secondpassword")).isFalse();
+    assertThat(UserInfoDB.isValid("dup@" + run + ".example.com", "firstpassword")).isTrue();
+    assertThat(UserInfoDB.isValid("dup@" + run + ".example.com", "secondpassword")).isFalse();
+  }
+
+  /** Hammer addUserInfo/isValid from many threads and check that no signup is lost. */
+  @Test
+  public void testConcurrentSignups() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger contestedWinners = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      results.add(pool.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          start.await();
+          int valid = 0;
+          for (int i = 0; i < USERS_PER_THREAD; i++) {
+            String email = "user" + thread + "-" + i + "@" + run + ".example.com";
+            UserInfoDB.addUserInfo("User " + thread, email, "password" + i);
+            if (UserInfoDB.isValid(email, "password" + i)) {
+              valid++;
+            }
+          }
+          // Every thread races to claim the same email; exactly one may succeed.
+          if (UserInfoDB.addUserInfoIfAbsent("Contested", "contested@" + run + ".example.com", "password")) {
+            contestedWinners.incrementAndGet();
+          }
+          return valid;
+        }
+      }));
+    }
+    start.countDown();
+    int valid = 0;
+    for (Future<Integer> result : results) {
+      valid += result.get(2, TimeUnit.MINUTES);
+    }
+    pool.shutdown();
+
+    assertThat(valid).isEqualTo(THREADS * USERS_PER_THREAD);
+    assertThat(contestedWinners.get()).isEqualTo(1);
+    // Other tests share the static store, so count only the emails this run signed up.
+    assertThat(UserInfoDB.isUser("contested@" + run + ".example.com")).isTrue();
+    for (int t = 0; t < THREADS; t++) {
+      for (int i = 0; i < USERS_PER_THREAD; i++) {
+        assertThat(UserInfoDB.isUser("USER" + t + "-" + i + "@" + run + ".example.com")).isTrue();
+      }
+    }
+  }
+}
@@ -5,6 +5,9 @@ import static play.test.Helpers.fakeApplication;
 import static play.test.Helpers.inMemoryDatabase;
 import static play.test.Helpers.running;
 import static play.test.Helpers.testServer;
+import java.util.HashMap;
+import java.util.Map;
+import models.UserInfoDB;
 import org.junit.Test;
 import play.libs.F.Callback;
 import play.test.TestBrowser;
@@ -17,7 +20,7 @@ public class ViewTest {
   /** Test simple retrieval of the index page. */
   @Test
   public void testIndexPageRetrieval() {
-    running(testServer(testPort, fakeApplication(inMemoryDatabase())), HTMLUNIT, new Callback<TestBrowser>() {
+    running(testServer(testPort, fakeApplication(settings())), HTMLUNIT, new Callback<TestBrowser>() {
       @Override
       public void invoke(TestBrowser browser) {
         browser.maximizeWindow();
@@ -31,7 +34,7 @@ public class ViewTest {
   /** Test submission of an empty form. */
   @Test
   public void testIndexPageEmptySubmission() {
-    running(testServer(testPort, fakeApplication(inMemoryDatabase())), HTMLUNIT, new Callback<TestBrowser>() {
+    running(testServer(testPort, fakeApplication(settings())), HTMLUNIT, new Callback<TestBrowser>() {
       @Override
       public void invoke(TestBrowser browser) {
         browser.maximizeWindow();
@@ -44,13 +47,14 @@ public class ViewTest {
     });
   }
   
-  /** Test submission of a valid form. */
+  /** Test submission of a valid form, editing a stored business, which needs a login. */
   @Test
   public void testIndexPageValidSubmission() {
-    running(testServer(testPort, fakeApplication(inMemoryDatabase())), HTMLUNIT, new Callback<TestBrowser>() {
+    running(testServer(testPort, fakeApplication(settings())), HTMLUNIT, new Callback<TestBrowser>() {
       @Override
       public void invoke(TestBrowser browser) {
         browser.maximizeWindow();
+        logIn(browser);
         IndexPage indexPage = new IndexPage(browser.getDriver(), testPort, 1);
         browser.goTo(indexPage);
         indexPage.isAt();
@@ -63,7 +67,7 @@ public class ViewTest {
   /** Test submission of a manually filled out form. */
   @Test
   public void testIndexPageFormFilledSubmission() {
-    running(testServer(testPort, fakeApplication(inMemoryDatabase())), HTMLUNIT, new Callback<TestBrowser>() {
+    running(testServer(testPort, fakeApplication(settings())), HTMLUNIT, new Callback<TestBrowser>() {
       @Override
       public void invoke(TestBrowser browser) {
         browser.maximizeWindow();
@@ -85,4 +89,26 @@ public class ViewTest {
     });
   }  
 
+  /**
+   * Signs up a user and logs the browser in as that user.
+   * @param browser The browser.
+   */
+  private void logIn(TestBrowser browser) {
+    String email = "view@run" + System.nanoTime() + ".example.com";
+    UserInfoDB.addUserInfo("View", email, "viewpassword");
+    browser.goTo("http://localhost:" + testPort + "/login");
+    browser.fill("#email").with(email);
+    browser.fill("#password").with("viewpassword");
+    browser.submit("#login");
+  }
+
+  /**
+   * @return The settings of a test application on a fresh in-memory database. The write-behind log
+   * is off, as its files would outlive the database and replay this run's businesses into the next.
+   */
+  private static Map<String, String> settings() {
+    Map<String, String> settings = new HashMap<>(inMemoryDatabase());
+    settings.put("persistence.writeBehind.enabled", "false");
+    return settings;
+  }
 }
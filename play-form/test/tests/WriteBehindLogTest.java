@@ -0,0 +1,100 @@
+package tests;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.Test;
+import services.WriteBehindLog;
+
+/**
+ * Tests draining the write-behind log to a sink that refuses some records.
+ */
+public class WriteBehindLogTest {
+
+  /** A record the sink can never store is set aside, and the records behind it still drain. */
+  @Test
+  public void testBadRecordIsQuarantined() throws Exception {
+    File dir = Files.createTempDirectory("write-behind").toFile();
+    final List<String> stored = new CopyOnWriteArrayList<>();
+    WriteBehindLog.Sink sink = records -> {
+      List<String> batch = new ArrayList<>();
+      for (byte[] record : records) {
+        String text = new String(record, StandardCharsets.UTF_8);
+        if (text.startsWith("bad")) {
+          throw new SQLException("Value too long for column", "22001");
+        }
+        batch.add(text);
+      }
+      stored.addAll(batch);
+    };
+    WriteBehindLog log = WriteBehindLog.open(dir, 4096, 4, 16, sink);
+    for (String record : new String[] {"bad", "good-0", "good-1", "good-2"}) {
+      log.append(record.getBytes(StandardCharsets.UTF_8));
+    }
+    log.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while ((stored.size() < 3 || log.getBacklogBytes() > 0) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    log.close(1000);
+
+    assertThat(stored).containsExactly("good-0", "good-1", "good-2");
+    assertThat(log.getQuarantined()).isEqualTo(1);
+    assertThat(readQuarantine(new File(dir, "quarantine"))).containsExactly("bad");
+
+    // Nothing is offered again after a restart.
+    final List<byte[]> pending = new ArrayList<>();
+    WriteBehindLog reopened = WriteBehindLog.open(dir, 4096, 4, 16, sink);
+    reopened.forEachPending(pending::add);
+    reopened.close(1000);
+    assertThat(pending).isEmpty();
+  }
+
+  /** A failure that may go away is retried rather than quarantined. */
+  @Test
+  public void testTransientFailureIsRetried() throws Exception {
+    File dir = Files.createTempDirectory("write-behind").toFile();
+    final List<String> stored = new CopyOnWriteArrayList<>();
+    final int[] attempts = {0};
+    WriteBehindLog log = WriteBehindLog.open(dir, 4096, 4, 16, records -> {
+      if (attempts[0]++ == 0) {
+        throw new SQLException("Connection is broken", "08003");
+      }
+      for (byte[] record : records) {
+        stored.add(new String(record, StandardCharsets.UTF_8));
+      }
+    });
+    log.append("good".getBytes(StandardCharsets.UTF_8));
+    log.start();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (stored.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    log.close(1000);
+
+    assertThat(stored).containsExactly("good");
+    assertThat(log.getQuarantined()).isEqualTo(0);
+    assertThat(new File(dir, "quarantine").exists()).isFalse();
+  }
+
+  private static List<String> readQuarantine(File file) throws IOException {
+    List<String> records = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      while (in.available() > 0) {
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        records.add(new String(record, StandardCharsets.UTF_8));
+      }
+    }
+    return records;
+  }
+}